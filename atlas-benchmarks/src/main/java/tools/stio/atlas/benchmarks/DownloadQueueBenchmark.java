@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import tools.stio.atlas.core.DownloadQueue;
+
+/**
+ * Contention of {@link DownloadQueue#schedule} callers against queue workers. Network is replaced
+ * with {@link DownloadQueue.Fetcher} that completes immediately, so only queueing and dedup are measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadQueueBenchmark {
+
+    /** amount of distinct urls. Small pool means more dedup hits */
+    @Param({"64", "4096"})
+    int urls;
+
+    @Param({"2"})
+    int workers;
+
+    DownloadQueue queue;
+    String[] pool;
+    File toFile;
+
+    @Setup
+    public void setup() {
+        queue = new DownloadQueue(workers, new DownloadQueue.Fetcher() {
+            public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory) {
+                return true;
+            }
+        });
+        pool = new String[urls];
+        for (int i = 0; i < urls; i++) {
+            pool[i] = "https://cdn" + (i % 4) + ".example.com/images/" + i + ".jpg";
+        }
+        toFile = new File(System.getProperty("java.io.tmpdir"), "atlas-bench.tmp");
+    }
+
+    private String nextUrl() {
+        return pool[ThreadLocalRandom.current().nextInt(pool.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void schedule() {
+        queue.schedule(nextUrl(), toFile, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void scheduleContended() {
+        queue.schedule(nextUrl(), toFile, null);
+    }
+
+    /** reprioritization path: already scheduled entries are moved to the head of queue */
+    @Benchmark
+    @Threads(4)
+    public void scheduleFirstContended() {
+        queue.schedule(nextUrl(), toFile, null, true);
+    }
+}
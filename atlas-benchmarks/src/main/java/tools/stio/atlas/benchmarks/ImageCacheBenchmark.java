@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import tools.stio.atlas.core.ImageCache;
+
+/**
+ * get/put/evict of {@link ImageCache} without decoding
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageCacheBenchmark {
+
+    @Param({"40", "1000"})
+    int entries;
+
+    ImageCache cache;
+    String[] ids;
+    ImageCache.Entry image;
+    int nextId;
+
+    @Setup
+    public void setup() {
+        cache = new ImageCache() {
+            protected int byteCount(Object bitmapOrMovie) {
+                return ((byte[]) bitmapOrMovie).length;
+            }
+        };
+        ids = new String[entries];
+        image = new ImageCache.Entry(new byte[1024], 32, 32, null);
+        for (int i = 0; i < entries; i++) {
+            ids[i] = "https://cdn.example.com/images/" + i + ".jpg";
+            cache.put(ids[i], image);
+        }
+    }
+
+    @Benchmark
+    public Object getHit() {
+        return cache.get(ids[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return cache.get("https://cdn.example.com/missing.jpg");
+    }
+
+    /** put of new entry followed by eviction of the eldest one keeps cache size stable */
+    @Benchmark
+    public int putEvict() {
+        cache.put(ids[nextId++ % entries] + "#" + nextId, image);
+        return cache.removeEldest();
+    }
+}
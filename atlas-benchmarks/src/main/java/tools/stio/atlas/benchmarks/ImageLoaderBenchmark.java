@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import tools.stio.atlas.core.ImageCache;
+import tools.stio.atlas.core.ImageLoader;
+import tools.stio.atlas.core.ImageLoader.ImageLoadListener;
+import tools.stio.atlas.core.ImageLoader.ImageSpec;
+import tools.stio.atlas.core.ImageLoader.InputStreamProvider;
+
+/**
+ * {@link ImageLoader} request queue and cache lookups from several "UI" threads while loader thread
+ * drains the queue. Decoding is replaced with a constant image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageLoaderBenchmark {
+
+    @Param({"64", "1024"})
+    int images;
+
+    ImageLoader loader;
+    String[] ids;
+    final byte[] decoded = new byte[64];
+
+    final InputStreamProvider provider = new InputStreamProvider() {
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(decoded);
+        }
+        public boolean ready() {
+            return true;
+        }
+    };
+
+    final ImageLoadListener listener = new ImageLoadListener() {
+        public void onImageLoaded(ImageSpec spec) {
+        }
+    };
+
+    @Setup
+    public void setup() throws InterruptedException {
+        loader = new ImageLoader() {
+            protected boolean decodeBounds(ImageSpec spec) {
+                spec.originalWidth = 64;
+                spec.originalHeight = 64;
+                return true;
+            }
+            protected Object decodeImage(ImageSpec spec) {
+                return decoded;
+            }
+        };
+        ids = new String[images];
+        for (int i = 0; i < images; i++) {
+            ids[i] = "https://cdn.example.com/images/" + i + ".jpg";
+        }
+        // cache is filled, so lookups measure hits
+        for (int i = 0; i < images; i++) {
+            loader.requestImage(ids[i], provider, 64, 64, false, null, false);
+        }
+        for (int attempt = 0; loader.getCacheSize() < images && attempt < 1000; attempt++) {
+            Thread.sleep(5);
+        }
+    }
+
+    /** entry handle held by a drawable */
+    @State(Scope.Thread)
+    public static class DrawableHandle {
+        ImageCache.Entry entry;
+        String id;
+    }
+
+    private String nextId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ImageSpec requestContended() {
+        return loader.requestImage(nextId(), provider, 64, 64, false, listener, false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ImageSpec getScheduledContended() {
+        return loader.getScheduled(nextId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getFromCacheContended() {
+        return loader.getImageFromCache(nextId());
+    }
+
+    /** AtlasDrawable.draw() steady state: lock is taken only when held entry is invalidated */
+    @Benchmark
+    @Threads(4)
+    public Object entryHandleContended(DrawableHandle handle) {
+        if (handle.id == null) handle.id = nextId();
+        ImageCache.Entry entry = handle.entry;
+        if (entry == null || !entry.isValid()) entry = handle.entry = loader.getCacheEntry(handle.id);
+        return entry == null ? null : entry.bitmapOrMovie;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import tools.stio.atlas.core.Streams;
+
+/**
+ * {@link Streams#streamCopy(java.io.InputStream, OutputStream, int, Streams.ReadWriteProgress)} throughput
+ * with different buffer sizes and progress listeners
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamsBenchmark {
+
+    private static final int PAYLOAD_BYTES = 4 * 1024 * 1024;
+
+    @Param({"4096", "65536"})
+    int bufSize;
+
+    byte[] payload;
+    final OutputStream sink = new OutputStream() {
+        public void write(int b) throws IOException {}
+        public void write(byte[] b, int off, int len) throws IOException {}
+    };
+    final Streams.ReadWriteProgress counting = new Streams.ReadWriteProgress() {
+        long last;
+        public void onStreamReadWrite(long read, long written) {
+            last = written;
+        }
+    };
+
+    @Setup
+    public void setup() {
+        payload = new byte[PAYLOAD_BYTES];
+        new Random(42).nextBytes(payload);
+    }
+
+    @Benchmark
+    public int copy() throws IOException {
+        return Streams.streamCopy(new ByteArrayInputStream(payload), sink, bufSize, Streams.READ_WRITE_PROGRESS_NOOP);
+    }
+
+    @Benchmark
+    public int copyWithProgress() throws IOException {
+        return Streams.streamCopy(new ByteArrayInputStream(payload), sink, bufSize, counting);
+    }
+}
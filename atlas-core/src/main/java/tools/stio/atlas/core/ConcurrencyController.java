@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AIMD controller of {@link DownloadQueue} worker count. Measures aggregate throughput over windows
+ * of {@link #WINDOW_MILLIS} and adds one worker while it keeps rising by {@link #MIN_GAIN}. When extra worker
+ * brings nothing, it is taken back. When {@link #MAX_ERROR_RATE} of fetches fail, workers are halved
+ * <p>
+ * Limit is probed again after {@link #PROBE_AFTER_WINDOWS} steady windows, so it follows network
+ * that gets faster. Windows without waiting entries tell nothing about more workers and only update measurements.
+ * Time without running downloads does not count
+ * <p>
+ * Bytes are counted from downloading threads, everything else is called by {@link DownloadQueue} under its lock
+ *
+ * @since  19 Oct 2026
+ */
+public class ConcurrencyController {
+    private static final String TAG = ConcurrencyController.class.getSimpleName();
+    private static final boolean debug = false;
+
+    public static final long WINDOW_MILLIS = 1000;
+    /** throughput has to grow at least that much to keep added worker */
+    public static final double MIN_GAIN = 0.1;
+    /** share of failed fetches in window that halves workers */
+    public static final double MAX_ERROR_RATE = 0.25;
+    public static final int PROBE_AFTER_WINDOWS = 8;
+
+    private static final long WINDOW_NANOS = WINDOW_MILLIS * 1000 * 1000;
+    /** weight of the latest window in averages */
+    private static final double SMOOTHING = 0.3;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile int limit;
+    /** limit was raised at the end of previous window */
+    private boolean probing = true;
+    private int steadyWindows;
+    /** throughput at current limit, bytes/s */
+    private double baseline;
+
+    private long updatedAt;
+    /** time in window with at least one download running */
+    private long activeNanos;
+    private int running;
+    private boolean saturated;
+    /** sum of running connections multiplied by time in window */
+    private long connectionNanos;
+    private long saturatedNanos;
+    private int fetches;
+    private int failures;
+
+    private volatile double throughput;
+    private volatile double connectionThroughput;
+    private volatile double latencyMillis = -1;
+
+    public ConcurrencyController(int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("expected 0 < minLimit <= maxLimit, got: " + minLimit + ", " + maxLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+        this.updatedAt = System.nanoTime();
+    }
+
+    /** Is called on downloading thread for every chunk */
+    void onBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * @param latencyNanos - from request to response headers, -1 if unknown
+     * @param ok           - false if fetch failed
+     */
+    void onFetched(long latencyNanos, boolean ok) {
+        fetches++;
+        if (!ok) failures++;
+        if (latencyNanos >= 0) {
+            double millis = latencyNanos / 1e6;
+            latencyMillis = latencyMillis < 0 ? millis : latencyMillis + SMOOTHING * (millis - latencyMillis);
+        }
+    }
+
+    /**
+     * Is called whenever running downloads or waiting entries change
+     * @param running   - downloads in progress from now on
+     * @param saturated - every allowed worker is busy and entries are waiting
+     * @return number of workers allowed from now on
+     */
+    int update(int running, boolean saturated) {
+        long now = System.nanoTime();
+        long elapsed = now - updatedAt;
+        if (this.running > 0) {                                     // idle time is not measured
+            activeNanos += elapsed;
+            connectionNanos += this.running * elapsed;
+            if (this.saturated) saturatedNanos += elapsed;
+        }
+        this.updatedAt = now;
+        this.running = running;
+        this.saturated = saturated;
+
+        if (activeNanos >= WINDOW_NANOS) {
+            adjust(activeNanos);
+            activeNanos = 0;
+            connectionNanos = 0;
+            saturatedNanos = 0;
+            fetches = 0;
+            failures = 0;
+            bytes.set(0);
+        }
+        return limit;
+    }
+
+    private void adjust(long windowNanos) {
+        long windowBytes = bytes.get();
+        double measured = windowBytes * 1e9 / windowNanos;
+        throughput = measured;
+        connectionThroughput = windowBytes * 1e9 / connectionNanos;
+        int previous = limit;
+
+        if (failures >= 2 && failures >= fetches * MAX_ERROR_RATE) {
+            limit = Math.max(minLimit, limit / 2);                  // multiplicative decrease
+            probing = false;
+            steadyWindows = 0;
+            baseline = 0;
+        } else if (saturatedNanos * 2 < windowNanos) {
+            // demand is below limit, nothing to learn about more workers
+        } else if (probing) {
+            if (measured >= baseline * (1 + MIN_GAIN)) {
+                baseline = measured;
+                if (limit < maxLimit) limit++; else probing = false; // additive increase while it pays off
+            } else {
+                limit = Math.max(minLimit, limit - 1);             // flattened, extra worker is useless
+                probing = false;
+                steadyWindows = 0;
+            }
+        } else {
+            baseline = baseline == 0 ? measured : baseline + SMOOTHING * (measured - baseline);
+            if (++steadyWindows >= PROBE_AFTER_WINDOWS && limit < maxLimit) {
+                limit++;
+                probing = true;
+                steadyWindows = 0;
+            }
+        }
+        if (debug) Log.w(TAG, "adjust() limit: " + previous + " -> " + limit + ", throughput: " + (long) measured
+                + " B/s, per connection: " + (long) connectionThroughput + " B/s, latency: " + (long) latencyMillis
+                + " ms, failed: " + failures + "/" + fetches + ", saturated: " + (saturatedNanos * 100 / windowNanos) + "%");
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /** @return bytes per second of all downloads in the last window */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /** @return bytes per second of single connection in the last window */
+    public double getConnectionThroughput() {
+        return connectionThroughput;
+    }
+
+    /** @return average time to response headers, -1 if nothing is measured yet */
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+}
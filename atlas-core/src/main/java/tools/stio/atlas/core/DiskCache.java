@@ -0,0 +1,497 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Url keyed files that survive app restarts. Files are named by SHA-1 of url and are spread into
+ * 256 shard directories, so none of them gets too big
+ * <p>
+ * Index of files is kept in memory in access order and is restored from append-only journal:
+ * <pre>
+ * atlas-disk-cache 1
+ * PUT  &lt;key&gt; &lt;length&gt; &lt;checkedAt&gt; &lt;lastModified&gt; [&lt;etag&gt;] - file is complete or validated
+ * READ &lt;key&gt;                - file is used, is written with the next PUT or DEL and may be lost on crash
+ * DEL  &lt;key&gt;                - file is deleted
+ * </pre>
+ * File is put into journal only after it is completely written, so crash leaves no broken entries.
+ * Unknown files are deleted on open, except of partial downloads. Once files take more than quota,
+ * least recently used are deleted
+ * <p>
+ * Lookups don't touch disk, so they are fine on main thread. Journal is written and compacted by
+ * {@link #commit(String)}, {@link #remove(String)} and {@link #flush()} without holding index lock
+ * <p>
+ * Entries keep validators of response, so content can be revalidated with conditional request. 
+ * See {@link Http#downloadToFile(String, File, javax.net.ssl.SSLSocketFactory, Http.Validators)}
+ * <p>
+ * Thread safe
+ *
+ * @since  19 Oct 2026
+ */
+public class DiskCache {
+    private static final String TAG = DiskCache.class.getSimpleName();
+    private static final boolean debug = false;
+
+    static final String JOURNAL         = "journal";
+    static final String JOURNAL_TMP     = "journal.tmp";
+    static final String MAGIC           = "atlas-disk-cache 1";
+    /** partial downloads untouched for that long are not going to be resumed */
+    static final long PARTIAL_MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /** journal is rewritten when it has that many lines more than index has entries */
+    private static final int COMPACT_REDUNDANT_LINES = 2000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final long maxBytes;
+
+    /** access ordered */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long size = 0;
+    /** keys read since journal was written last time, in read order */
+    private final LinkedHashSet<String> unjournaledReads = new LinkedHashSet<String>();
+
+    /** guards journal. Is taken before index lock, never inside it */
+    private final Object journalLock = new Object();
+    private Writer journal;
+    /** lines in journal after magic */
+    private int journalLines = 0;
+
+    /**
+     * Reads journal and deletes files that are not in it. Consider to create it off main thread
+     *
+     * @param maxBytes - least recently used files are deleted when files take more
+     */
+    public DiskCache(File dir, long maxBytes) {
+        if (dir == null) throw new IllegalArgumentException("dir cannot be null");
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        synchronized (journalLock) {
+            ArrayList<String> lines = new ArrayList<String>();
+            ArrayList<File> trimmed = new ArrayList<File>();
+            synchronized (this) {
+                if (!dir.exists() && !dir.mkdirs()) Log.e(TAG, "DiskCache() cannot create dir: " + dir.getAbsolutePath());
+                readJournal();
+                deleteUnknownFiles();
+                if (journalLines - index.size() > COMPACT_REDUNDANT_LINES) rewriteJournal(indexLines());
+                openJournal();
+                trim(lines, trimmed);
+            }
+            delete(trimmed);
+            journal(lines);
+        }
+    }
+
+    /** @return cached file for url or null. File is marked as recently used */
+    public File get(String url) {
+        Entry entry = getEntry(url);
+        return entry != null ? entry.file : null;
+    }
+
+    /**
+     * Doesn't touch disk: file is marked as recently used in memory and journal learns it with the next write.
+     * System may clean app cache dir, so file may be gone already. Such entries are dropped with {@link #remove(String)}
+     * @return cached file with its validators or null
+     */
+    public Entry getEntry(String url) {
+        String key = key(url);
+        synchronized (this) {
+            Entry entry = index.get(key);
+            if (entry == null) return null;
+            unjournaledReads.remove(key);                   // moves to the tail
+            unjournaledReads.add(key);
+            return entry;
+        }
+    }
+
+    /** @return true if url is cached. Doesn't touch usage order */
+    public synchronized boolean contains(String url) {
+        return index.containsKey(key(url));
+    }
+
+    /** @return location content of url should be written to before {@link #commit(String)}. Directories are created */
+    public File fileFor(String url) {
+        File file = file(key(url));
+        File shard = file.getParentFile();
+        if (!shard.exists() && !shard.mkdirs()) Log.e(TAG, "fileFor() cannot create dir: " + shard.getAbsolutePath());
+        return file;
+    }
+
+    /** {@link #commit(String, String, long)} without validators */
+    public void commit(String url) {
+        commit(url, null, 0);
+    }
+
+    /**
+     * Puts file written to {@link #fileFor(String)} into cache or marks cached file as validated. 
+     * Least recently used files are deleted if quota is exceeded
+     * 
+     * @param etag          - ETag of response, null if none
+     * @param lastModified  - Last-Modified of response, 0 if none
+     */
+    public void commit(String url, String etag, long lastModified) {
+        String key = key(url);
+        File file = file(key);
+        if (!file.exists()) {
+            Log.e(TAG, "commit() no file for: " + url + ", expected at: " + file.getAbsolutePath());
+            return;
+        }
+        if (etag != null && (etag.isEmpty() || etag.indexOf(' ') != -1 || etag.indexOf('\n') != -1)) etag = null;   // cannot be journaled
+        Entry entry = new Entry(file, file.length(), System.currentTimeMillis(), lastModified, etag);
+        synchronized (journalLock) {
+            ArrayList<String> lines = new ArrayList<String>();
+            ArrayList<File> trimmed = new ArrayList<File>();
+            synchronized (this) {
+                Entry previous = index.put(key, entry);
+                if (previous != null) size -= previous.length;
+                size += entry.length;
+                unjournaledReads.remove(key);
+                takeReads(lines);
+                lines.add(toJournal(key, entry));
+                if (debug) Log.w(TAG, "commit() " + entry.length + " bytes, size: " + size + ", url: " + url);
+                trim(lines, trimmed);
+            }
+            delete(trimmed);
+            journal(lines);
+        }
+    }
+
+    /** deletes file of url. Is also the way to drop entry which file is lost */
+    public void remove(String url) {
+        String key = key(url);
+        synchronized (journalLock) {
+            ArrayList<String> lines = new ArrayList<String>();
+            synchronized (this) {
+                Entry entry = index.remove(key);
+                if (entry == null) return;
+                size -= entry.length;
+                unjournaledReads.remove(key);
+                takeReads(lines);
+                lines.add("DEL " + key);
+            }
+            file(key).delete();
+            journal(lines);
+        }
+    }
+
+    /** writes usage order of files read since the last write into journal. Touches disk, so call it off main thread */
+    public void flush() {
+        synchronized (journalLock) {
+            ArrayList<String> lines = new ArrayList<String>();
+            synchronized (this) {
+                takeReads(lines);
+            }
+            journal(lines);
+        }
+    }
+
+    /** @return bytes taken by cached files */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return index.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /** 
+     * Drops least recently used entries until they fit quota. Under index lock 
+     * @param lines   - gets journal lines of dropped entries
+     * @param trimmed - gets files to delete out of index lock
+     */
+    private void trim(List<String> lines, List<File> trimmed) {
+        for (Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator(); size > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue().length;
+            unjournaledReads.remove(eldest.getKey());
+            trimmed.add(eldest.getValue().file);
+            lines.add("DEL " + eldest.getKey());
+            if (debug) Log.w(TAG, "trim() dropped " + eldest.getValue().length + " bytes, size: " + size);
+        }
+    }
+
+    private static void delete(List<File> files) {
+        for (int i = 0; i < files.size(); i++) files.get(i).delete();
+    }
+
+    /** moves unjournaled reads to lines. Under index lock */
+    private void takeReads(List<String> lines) {
+        for (String key : unjournaledReads) lines.add("READ " + key);
+        unjournaledReads.clear();
+    }
+
+    /** @return PUT lines of whole index in usage order. Under index lock */
+    private List<String> indexLines() {
+        ArrayList<String> lines = new ArrayList<String>(index.size());
+        for (Map.Entry<String, Entry> entry : index.entrySet()) lines.add(toJournal(entry.getKey(), entry.getValue()));
+        return lines;
+    }
+
+    private File file(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    //
+    // --- journal ---
+    //
+
+    private void readJournal() {
+        File journalFile = new File(dir, JOURNAL);
+        if (!journalFile.exists()) return;
+        BufferedReader reader = null;
+        int lines = 0;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF8));
+            if (!MAGIC.equals(reader.readLine())) {
+                Log.w(TAG, "readJournal() unknown journal format, starting from scratch");
+                journalFile.delete();
+                return;
+            }
+            for (String line; (line = reader.readLine()) != null; lines++) {
+                String[] parts = line.split(" ");
+                if (parts.length < 2) continue;                 // torn write
+                String key = parts[1];
+                if ("PUT".equals(parts[0]) && parts.length >= 3) {
+                    Entry entry;
+                    try {
+                        entry = new Entry(file(key), Long.parseLong(parts[2]), 
+                                parts.length > 3 ? Long.parseLong(parts[3]) : 0, 
+                                parts.length > 4 ? Long.parseLong(parts[4]) : 0, 
+                                parts.length > 5 ? parts[5] : null);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Entry previous = index.put(key, entry);
+                    if (previous != null) size -= previous.length;
+                    size += entry.length;
+                } else if ("READ".equals(parts[0])) {
+                    index.get(key);                             // moves to the tail
+                } else if ("DEL".equals(parts[0])) {
+                    Entry previous = index.remove(key);
+                    if (previous != null) size -= previous.length;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "readJournal() failed after " + lines + " lines", e);
+        } finally {
+            if (reader != null) try { reader.close(); } catch (IOException ignored) {}
+        }
+        journalLines = lines;
+        if (debug) Log.w(TAG, "readJournal() lines: " + lines + ", files: " + index.size() + ", size: " + size);
+    }
+
+    /** drops entries without files or with wrong length, deletes files that are not in index except recent partial downloads */
+    private void deleteUnknownFiles() {
+        for (Iterator<Entry> it = index.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.file.length() != entry.length) {
+                if (debug) Log.w(TAG, "deleteUnknownFiles() broken: " + entry.file.getName() + ", length: " + entry.file.length() + ", expected: " + entry.length);
+                it.remove();
+                size -= entry.length;
+                entry.file.delete();
+            }
+        }
+        File[] shards = dir.listFiles();
+        if (shards == null) return;
+        for (File shard : shards) {
+            if (!shard.isDirectory()) continue;
+            File[] files = shard.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                String name = file.getName();
+                if (index.containsKey(name)) continue;
+                boolean partial = name.endsWith(Http.PARTIAL_SUFFIX) || name.endsWith(Http.IF_RANGE_SUFFIX);
+                if (partial && System.currentTimeMillis() - file.lastModified() < PARTIAL_MAX_AGE_MILLIS) continue;
+                if (debug) Log.w(TAG, "deleteUnknownFiles() unknown: " + name);
+                file.delete();
+            }
+        }
+    }
+
+    /** writes index lines into new journal and replaces old one with it. Under journal lock */
+    private void rewriteJournal(List<String> lines) {
+        File tmp = new File(dir, JOURNAL_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+            writer.write(MAGIC);
+            writer.write('\n');
+            for (int i = 0; i < lines.size(); i++) {
+                writer.write(lines.get(i));
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(new File(dir, JOURNAL))) {
+                Log.e(TAG, "rewriteJournal() cannot replace journal with " + tmp.getAbsolutePath());
+                return;
+            }
+            journalLines = lines.size();
+            if (debug) Log.w(TAG, "rewriteJournal() files: " + lines.size());
+        } catch (IOException e) {
+            Log.e(TAG, "rewriteJournal() failed", e);
+        } finally {
+            if (writer != null) try { writer.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Under journal lock */
+    private void openJournal() {
+        File journalFile = new File(dir, JOURNAL);
+        try {
+            boolean exists = journalFile.exists() && journalFile.length() > 0;
+            boolean torn = exists && !endsWithNewLine(journalFile);
+            journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, exists), UTF8));
+            if (torn) {
+                journal.write('\n');                       // otherwise the next line is glued to torn one and lost
+                journal.flush();
+            }
+            if (!exists) {
+                List<String> lines;
+                synchronized (this) {
+                    lines = indexLines();
+                    unjournaledReads.clear();
+                }
+                journal.write(MAGIC);
+                journal.write('\n');
+                for (int i = 0; i < lines.size(); i++) {
+                    journal.write(lines.get(i));
+                    journal.write('\n');
+                }
+                journal.flush();
+                journalLines = lines.size();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "openJournal() cannot open " + journalFile.getAbsolutePath() + ", cache works without journal", e);
+            journal = null;
+        }
+    }
+
+    /** appends lines and compacts journal if it grew too much. Under journal lock, out of index lock */
+    private void journal(List<String> lines) {
+        if (journal == null || lines.isEmpty()) return;
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                journal.write(lines.get(i));
+                journal.write('\n');
+            }
+            journal.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "journal() cannot write, cache works without journal", e);
+            journal = null;
+            return;
+        }
+        journalLines += lines.size();
+        if (journalLines - count() > COMPACT_REDUNDANT_LINES) {
+            try { journal.close(); } catch (IOException ignored) {}
+            List<String> snapshot;
+            synchronized (this) {
+                snapshot = indexLines();
+                unjournaledReads.clear();                   // snapshot has their order
+            }
+            rewriteJournal(snapshot);
+            openJournal();
+        }
+    }
+
+    private static boolean endsWithNewLine(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String toJournal(String key, Entry entry) {
+        return "PUT " + key + " " + entry.length + " " + entry.checkedAt + " " + entry.lastModified + (entry.etag != null ? " " + entry.etag : "");
+    }
+
+    /** cached file and validators of response it came with */
+    public static final class Entry {
+        public final File file;
+        public final long length;
+        /** when content was downloaded or validated last time, {@link System#currentTimeMillis()} */
+        public final long checkedAt;
+        /** Last-Modified of response, 0 if unknown */
+        public final long lastModified;
+        /** ETag of response, null if unknown */
+        public final String etag;
+
+        Entry(File file, long length, long checkedAt, long lastModified, String etag) {
+            this.file = file;
+            this.length = length;
+            this.checkedAt = checkedAt;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        /** @return true if content was not validated for longer than specified time */
+        public boolean isStale(long maxAgeMillis) {
+            return System.currentTimeMillis() - checkedAt > maxAgeMillis;
+        }
+
+        public Http.Validators validators() {
+            return new Http.Validators(etag, lastModified);
+        }
+    }
+
+    /** @return hex SHA-1 of url */
+    public static String key(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF8));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2]     = HEX[(hash[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX[hash[i] & 0x0F];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -0,0 +1,1024 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Downloads urls to files using worker threads. Requests for the same url and file
+ * are merged into one download
+ * <p>
+ * Downloads without destination file go to {@link DiskCache} if it is set and are served from it
+ * without network afterwards. Otherwise they go to temp files
+ * <p>
+ * Cached files older than {@link #setRevalidateAfter(long)} are revalidated with conditional request,
+ * <code>304 Not Modified</code> keeps cached file. If revalidation fails, stale file is delivered.
+ * With {@link #setStaleWhileRevalidate(boolean)} worker delivers stale file before revalidation and refreshes it after
+ * <p>
+ * Progress of each download goes to its {@link ProgressListener}s through {@link ProgressDispatcher}, 
+ * that decides when and on which thread to deliver it. Default one is {@link #THROTTLED_DISPATCHER}
+ * <p>
+ * Scheduled and running entries are found by url in concurrent index without locks. Waiting entries are
+ * linked into intrusive deque of their host, so move to front and removal are O(1). Deque lock is held only for
+ * pointer updates, so callers of {@link #schedule} do not wait for workers doing anything else
+ * <p>
+ * Workers take entries from hosts in round-robin order. No more than {@link #setMaxConnectionsPerHost(int)}
+ * downloads run for the same host and no more than {@link #setMaxWorkers(int)} run at all, so slow
+ * origin cannot occupy every worker while others wait
+ * <p>
+ * With {@link #setAdaptiveWorkers(int, int)} number of running downloads is tuned by {@link ConcurrencyController}
+ * from measured throughput, so the same setup fits both fast and slow networks
+ * <p>
+ * Failed downloads are retried up to {@link #setMaxAttempts(int)} times after exponential backoff with jitter.
+ * Retries are limited by queue-wide budget that is refilled by successful downloads, so dead network is not hammered.
+ * After {@link #CIRCUIT_FAILURE_THRESHOLD} failures in a row host is considered down: its downloads fail right away
+ * without network, single probe is let through after {@link #CIRCUIT_OPEN_MILLIS} and on success host is back.
+ * Failure is delivered to {@link CompleteListener#onDownloadFailed(String)} once there are no attempts left
+ *
+ * @author Oleg Orlov
+ * @since  12 May 2015
+ */
+public class DownloadQueue {
+    private static final String TAG = DownloadQueue.class.getSimpleName();
+    private static final boolean debug = false;
+
+    /** default for {@link #setRevalidateAfter(long)} */
+    public static final long DEFAULT_REVALIDATE_AFTER_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** default for {@link #setMaxConnectionsPerHost(int)} */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    /** default for {@link #setMaxAttempts(int)} */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /** delay before the first retry, doubles with every next one up to {@link #RETRY_MAX_DELAY_MILLIS} */
+    public static final long RETRY_BASE_DELAY_MILLIS = 500;
+    public static final long RETRY_MAX_DELAY_MILLIS = 30 * 1000;
+    /** retries available while nothing succeeds */
+    static final double RETRY_BUDGET_MAX = 10;
+    /** every successful download earns that much of retry */
+    static final double RETRY_BUDGET_PER_SUCCESS = 0.2;
+
+    /** failures of host in a row that make it considered down */
+    public static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    /** time host is considered down before probe, doubles every failed probe up to {@link #CIRCUIT_MAX_OPEN_MILLIS} */
+    public static final long CIRCUIT_OPEN_MILLIS = 5 * 1000;
+    public static final long CIRCUIT_MAX_OPEN_MILLIS = 60 * 1000;
+
+    /** queued and in progress entries by url */
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+    /** guards hosts, deque links and {@link Entry#state}, workers wait on it */
+    private final Object dequeMonitor = new Object();
+    /** hosts with queued or running entries */
+    private final HashMap<String, Host> hosts = new HashMap<String, Host>();
+    /** round-robin order of {@link #hosts} */
+    private final ArrayList<Host> hostRing = new ArrayList<Host>();
+    private int nextHost;
+    /** entries linked into host deques */
+    private int queued;
+    private int waitingWorkers;
+    private int runningWorkers;
+    private int maxWorkers;
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private final ArrayList<Thread> workers = new ArrayList<Thread>();
+    /** failed entries waiting for retry, earliest first */
+    private final PriorityQueue<Entry> delayed = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+        public int compare(Entry left, Entry right) {
+            long diff = left.retryAt - right.retryAt;
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+    });
+    /** hosts that failed recently, by name */
+    private final HashMap<String, Circuit> circuits = new HashMap<String, Circuit>();
+    private double retryBudget = RETRY_BUDGET_MAX;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    /** tunes {@link #maxWorkers} if set */
+    private volatile ConcurrencyController concurrency;
+
+    private volatile SSLSocketFactory sslSocketFactory = null;
+    private volatile Fetcher fetcher;
+    private volatile DiskCache diskCache;
+    private volatile long revalidateAfterMillis = DEFAULT_REVALIDATE_AFTER_MILLIS;
+    private volatile boolean staleWhileRevalidate = false;
+    private volatile ProgressDispatcher progressDispatcher = THROTTLED_DISPATCHER;
+
+    public DownloadQueue() {
+        this(1);
+    }
+
+    /** @param workers - max number of parallel downloads, see {@link #setMaxWorkers(int)} */
+    public DownloadQueue(int workers) {
+        this(workers, HTTP_FETCHER);
+    }
+
+    /** @param fetcher - does actual download. See {@link #HTTP_FETCHER} */
+    public DownloadQueue(int workers, Fetcher fetcher) {
+        setFetcher(fetcher);
+        setMaxWorkers(workers);
+    }
+
+    /** 
+     * Limits number of parallel downloads, turns {@link #setAdaptiveWorkers(int, int)} off. 
+     * Worker threads are started on demand and are kept idle when limit is lowered
+     */
+    public void setMaxWorkers(int maxWorkers) {
+        if (maxWorkers < 1) throw new IllegalArgumentException("maxWorkers must be positive: " + maxWorkers);
+        synchronized (dequeMonitor) {
+            this.concurrency = null;
+            startWorkers(maxWorkers);
+            this.maxWorkers = maxWorkers;
+            dequeMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Number of parallel downloads is tuned between bounds by {@link ConcurrencyController}: workers are added
+     * while aggregate throughput grows and are taken back when it flattens or downloads fail. Starts from minWorkers
+     */
+    public void setAdaptiveWorkers(int minWorkers, int maxWorkers) {
+        ConcurrencyController concurrency = new ConcurrencyController(minWorkers, maxWorkers);
+        synchronized (dequeMonitor) {
+            this.concurrency = concurrency;
+            startWorkers(maxWorkers);
+            this.maxWorkers = concurrency.getLimit();
+            dequeMonitor.notifyAll();
+        }
+    }
+
+    /** @return controller set by {@link #setAdaptiveWorkers(int, int)}, or null if number of workers is fixed */
+    public ConcurrencyController getConcurrencyController() {
+        return concurrency;
+    }
+
+    /** under {@link #dequeMonitor} */
+    private void startWorkers(int count) {
+        for (int i = workers.size(); i < count; i++) {
+            Thread workingThread = new Thread(new Worker());
+            workingThread.setDaemon(true);
+            workingThread.setName(i == 0 ? "Atlas-HttpLoader" : ("Atlas-HttpLoader-" + i));
+            workingThread.start();
+            workers.add(workingThread);
+        }
+    }
+
+    /** under {@link #dequeMonitor}. Passes state change to {@link ConcurrencyController} and applies its limit */
+    private void adaptWorkers() {
+        ConcurrencyController concurrency = this.concurrency;
+        if (concurrency == null) return;
+        int limit = concurrency.update(runningWorkers, runningWorkers >= maxWorkers && queued > 0);
+        if (limit == maxWorkers) return;
+        if (debug) Log.w(TAG, "adaptWorkers() workers: " + maxWorkers + " -> " + limit);
+        boolean raised = limit > maxWorkers;
+        maxWorkers = limit;
+        if (raised && waitingWorkers > 0) dequeMonitor.notifyAll();
+    }
+
+    /** @return current limit of parallel downloads */
+    public int getMaxWorkers() {
+        synchronized (dequeMonitor) {
+            return maxWorkers;
+        }
+    }
+
+    /** Limits number of parallel downloads from the same host. Default is {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST} */
+    public void setMaxConnectionsPerHost(int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        synchronized (dequeMonitor) {
+            this.maxConnectionsPerHost = maxConnections;
+            dequeMonitor.notifyAll();
+        }
+    }
+
+    public int getMaxConnectionsPerHost() {
+        synchronized (dequeMonitor) {
+            return maxConnectionsPerHost;
+        }
+    }
+
+    /** @param maxAttempts - network attempts per download including the first one, 1 disables retries */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        synchronized (dequeMonitor) {
+            this.maxAttempts = maxAttempts;
+        }
+    }
+
+    public int getMaxAttempts() {
+        synchronized (dequeMonitor) {
+            return maxAttempts;
+        }
+    }
+
+    /** @return false if host of url is considered down and its downloads fail without network */
+    public boolean isHostAvailable(String url) {
+        synchronized (dequeMonitor) {
+            Circuit circuit = circuits.get(hostOf(url));
+            return circuit == null || !circuit.open;
+        }
+    }
+
+    /**
+     * {@link #schedule(String, File, CompleteListener)} with <code>File == null</code>
+     */
+    public void schedule(String url, CompleteListener onComplete) {
+        schedule(url, null, onComplete);
+    }
+
+    /**
+     * {@link #schedule(String, File, CompleteListener)} with <code>first == false</code>
+     */
+    public void schedule(String url, File toFile, CompleteListener onComplete) {
+        schedule(url, toFile, onComplete, false);
+    }
+
+    /**
+     * {@link #schedule(String, File, CompleteListener, boolean, ProgressListener)} without progress
+     */
+    public void schedule(String url, File toFile, CompleteListener onComplete, boolean first) {
+        schedule(url, toFile, onComplete, first, null);
+    }
+
+    /**
+     * Schedule download of content from specified url to file
+     *
+     * @param toFile     - if <b>null</b> queue will use {@link DiskCache} or create temp file and pass it to {@link CompleteListener#onDownloadComplete(String, File)}
+     * @param first      - add in the beginning of the queue
+     * @param onProgress - gets progress of download through {@link ProgressDispatcher}, may be null. 
+     *                     Is not called for files served from {@link DiskCache}
+     */
+    public void schedule(String url, File toFile, CompleteListener onComplete, boolean first, ProgressListener onProgress) {
+        if (debug) Log.d(TAG, "schedule() url: " + url + " toFile: " + toFile + " onComplete: " + onComplete);
+        if (url == null || url.isEmpty()) throw new IllegalArgumentException("url must be defined: [" + url + "], file: " + toFile + ", onComplete: " + onComplete);
+
+        // if url and destination file both are similar to something scheduled - just attach another listener
+        // otherwise schedule to download
+        while (true) {
+            Entry scheduled = index.get(url);
+            if (scheduled != null && isSame(scheduled.requestedFile, toFile)) {
+                if (scheduled.attach(onComplete, onProgress)) {
+                    if (first) moveToFront(scheduled);
+                    return;
+                }
+                index.remove(url, scheduled);               // completed meanwhile
+                continue;
+            }
+            Entry toSchedule = new Entry(url, toFile, onComplete);
+            if (onProgress != null) toSchedule.progress.addListener(onProgress);
+            boolean indexed = scheduled == null ? index.putIfAbsent(url, toSchedule) == null : index.replace(url, scheduled, toSchedule);
+            if (!indexed) continue;                         // raced with another schedule()
+            enqueue(toSchedule, first);
+            return;
+        }
+    }
+
+    /** 
+     * Starts delivering progress of scheduled url to listener 
+     * @return false if url is not scheduled or already downloaded
+     */
+    public boolean addProgressListener(String url, ProgressListener onProgress) {
+        if (onProgress == null) throw new IllegalArgumentException("onProgress cannot be null");
+        Entry entry = scheduled(url);
+        if (entry == null) return false;
+        entry.progress.addListener(onProgress);
+        return true;
+    }
+
+    /** @return true if url is waiting or being downloaded */
+    public boolean isScheduled(String url) {
+        return scheduled(url) != null;
+    }
+
+    /** stops delivering progress of url to listener */
+    public void removeProgressListener(String url, ProgressListener onProgress) {
+        Entry entry = scheduled(url);
+        if (entry != null) entry.progress.removeListener(onProgress);
+    }
+
+    private void enqueue(Entry entry, boolean first) {
+        synchronized (dequeMonitor) {
+            link(entry, first);
+            adaptWorkers();
+            if (waitingWorkers > 0) dequeMonitor.notify();
+        }
+    }
+
+    /** under {@link #dequeMonitor}. Links entry into deque of its host */
+    private void link(Entry entry, boolean first) {
+        String hostName = hostOf(entry.url);
+        Host host = hosts.get(hostName);
+        if (host == null) {
+            host = new Host(hostName);
+            hosts.put(hostName, host);
+            hostRing.add(host);
+        }
+        entry.host = host;
+        entry.state = Entry.QUEUED;
+        if (first) {
+            host.linkFirst(entry);
+            nextHost = hostRing.indexOf(host);
+        } else {
+            host.linkLast(entry);
+        }
+        queued++;
+    }
+
+    /** does nothing if entry is taken by worker already */
+    private void moveToFront(Entry entry) {
+        synchronized (dequeMonitor) {
+            if (entry.state != Entry.QUEUED) return;
+            Host host = entry.host;
+            if (host.head != entry) {
+                host.unlink(entry);
+                host.linkFirst(entry);
+            }
+            nextHost = hostRing.indexOf(host);
+        }
+    }
+
+    /** blocks until some host has queued entry and free connection */
+    private Entry take() {
+        synchronized (dequeMonitor) {
+            while (true) {
+                long retryInMillis = linkDueRetries();
+                Entry entry = runningWorkers < maxWorkers ? pollNextHost() : null;
+                if (entry != null) {
+                    entry.state = Entry.IN_PROGRESS;
+                    entry.fetchedAt = 0;
+                    entry.fetched = false;
+                    entry.host.running++;
+                    runningWorkers++;
+                    adaptWorkers();
+                    return entry;
+                }
+                waitingWorkers++;
+                try {
+                    dequeMonitor.wait(retryInMillis);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    waitingWorkers--;
+                }
+            }
+        }
+    }
+
+    /** under {@link #dequeMonitor}. Moves entries which retry time has come to their hosts. @return millis until next retry, 0 if none */
+    private long linkDueRetries() {
+        long now = System.nanoTime();
+        for (Entry entry; (entry = delayed.peek()) != null; ) {
+            long waitNanos = entry.retryAt - now;
+            if (waitNanos > 0) return Math.max(1, waitNanos / 1000000);
+            delayed.poll();
+            link(entry, false);
+        }
+        return 0;
+    }
+
+    /** under {@link #dequeMonitor}. @return head of the first host in round-robin order that is below connections limit */
+    private Entry pollNextHost() {
+        int size = hostRing.size();
+        for (int i = 0; i < size; i++) {
+            int hostIdx = (nextHost + i) % size;
+            Host host = hostRing.get(hostIdx);
+            if (host.head == null || host.running >= maxConnectionsPerHost) continue;
+            Entry entry = host.head;
+            host.unlink(entry);
+            queued--;
+            nextHost = (hostIdx + 1) % size;
+            return entry;
+        }
+        return null;
+    }
+
+    /** 
+     * Frees connection of entry's host, forgets host if it has nothing else. Accounts fetch result
+     * @param delivered - entry has file to deliver
+     * @return true if failed entry is going to be retried, it stays in {@link #index} then
+     */
+    private boolean release(Entry entry, boolean delivered) {
+        synchronized (dequeMonitor) {
+            Host host = entry.host;
+            boolean retry = false;
+            if (entry.fetchedAt != 0) {
+                ConcurrencyController concurrency = this.concurrency;
+                boolean hostFailed = !entry.fetched && !isPermanentFailure(entry.progress.getResponseCode());
+                if (concurrency != null) {
+                    // 404 and alike tell nothing about congestion
+                    long respondedAt = entry.progress.respondedAt;
+                    concurrency.onFetched(respondedAt == 0 ? -1 : respondedAt - entry.fetchedAt, !hostFailed);
+                }
+                if (entry.fetched) retryBudget = Math.min(RETRY_BUDGET_MAX, retryBudget + RETRY_BUDGET_PER_SUCCESS);
+                onHostResult(host.name, entry, hostFailed);
+                retry = !delivered && hostFailed && scheduleRetry(entry);
+            }
+            runningWorkers--;
+            adaptWorkers();
+            releaseConnection(host);
+            return retry;
+        }
+    }
+
+    /** under {@link #dequeMonitor}. Frees connection of host, forgets host if it has nothing else */
+    private void releaseConnection(Host host) {
+        host.running--;
+        if (host.running == 0 && host.head == null) {
+            hosts.remove(host.name);
+            int hostIdx = hostRing.indexOf(host);
+            hostRing.remove(hostIdx);
+            if (nextHost > hostIdx) nextHost--;
+            if (nextHost >= hostRing.size()) nextHost = 0;
+        }
+        if (waitingWorkers > 0) dequeMonitor.notify();
+    }
+
+    /** 
+     * Extra connections of running downloads, i.e. segments of {@link SegmentedFetcher}. Are counted 
+     * in {@link #setMaxConnectionsPerHost(int)} together with downloads, but not in workers
+     */
+    private final ConnectionPermits connectionPermits = new ConnectionPermits() {
+        public boolean tryAcquire(String url) {
+            synchronized (dequeMonitor) {
+                Host host = hosts.get(hostOf(url));
+                if (host == null || host.running >= maxConnectionsPerHost) return false;
+                host.running++;
+                return true;
+            }
+        }
+
+        public void release(String url) {
+            synchronized (dequeMonitor) {
+                Host host = hosts.get(hostOf(url));
+                if (host != null) releaseConnection(host);
+            }
+        }
+    };
+
+    /** under {@link #dequeMonitor}. @return false if entry has no attempts left or retry budget is spent */
+    private boolean scheduleRetry(Entry entry) {
+        if (entry.attempts >= maxAttempts) return false;
+        if (retryBudget < 1) {
+            if (debug) Log.w(TAG, "scheduleRetry() retry budget is spent, giving up: " + entry.url);
+            return false;
+        }
+        retryBudget -= 1;
+        long delay = Math.min(RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << Math.min(entry.attempts - 1, 16));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);   // jitter spreads retries of the same outage
+        if (debug) Log.w(TAG, "scheduleRetry() attempt " + entry.attempts + " failed, next in " + delay + " ms: " + entry.url);
+        entry.state = Entry.DELAYED;
+        entry.retryAt = System.nanoTime() + delay * 1000000;
+        delayed.add(entry);
+        return true;
+    }
+
+    /** 
+     * Redirects and client errors tell that host is up and the same request would fail again.
+     * Anything else, including no response at all, is worth retry
+     */
+    private static boolean isPermanentFailure(int responseCode) {
+        if (responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT || responseCode == HTTP_TOO_MANY_REQUESTS) return false;
+        return responseCode >= 300 && responseCode < 500;
+    }
+
+    /** is not defined by {@link HttpURLConnection} */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** 
+     * Under {@link #dequeMonitor}. Lets fetch of entry go to network unless its host is considered down.
+     * When time to probe has come, the only fetch is let through 
+     */
+    private boolean allowFetch(Entry entry) {
+        entry.probe = false;
+        Circuit circuit = circuits.get(entry.host.name);
+        if (circuit == null || !circuit.open) return true;
+        if (circuit.probing || System.nanoTime() - circuit.openUntil < 0) return false;
+        circuit.probing = true;
+        entry.probe = true;
+        if (debug) Log.w(TAG, "allowFetch() probing " + entry.host.name + " with: " + entry.url);
+        return true;
+    }
+
+    /** under {@link #dequeMonitor}. Opens circuit of host after too many failures, closes it when host responds */
+    private void onHostResult(String hostName, Entry entry, boolean failed) {
+        Circuit circuit = circuits.get(hostName);
+        if (!failed) {
+            if (circuit != null) {
+                circuits.remove(hostName);
+                if (debug && circuit.open) Log.w(TAG, "onHostResult() host is back: " + hostName);
+            }
+            return;
+        }
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(hostName, circuit);
+        }
+        if (entry.probe && circuit.open) {
+            circuit.probing = false;
+            circuit.openMillis = Math.min(CIRCUIT_MAX_OPEN_MILLIS, circuit.openMillis * 2);
+            circuit.openUntil = System.nanoTime() + circuit.openMillis * 1000000;
+        } else if (!circuit.open && ++circuit.failures >= CIRCUIT_FAILURE_THRESHOLD) {
+            circuit.open = true;
+            circuit.openMillis = CIRCUIT_OPEN_MILLIS;
+            circuit.openUntil = System.nanoTime() + circuit.openMillis * 1000000;
+        } else {
+            return;
+        }
+        if (debug) Log.w(TAG, "onHostResult() host is down for " + circuit.openMillis + " ms: " + hostName);
+    }
+
+    /** @return host with port, or whole url if it has no scheme */
+    static String hostOf(String url) {
+        int from = url.indexOf("://");
+        if (from == -1) return url;
+        from += 3;
+        int to = from;
+        for (; to < url.length(); to++) {
+            char c = url.charAt(to);
+            if (c == '/' || c == '?' || c == '#') break;
+        }
+        int at = url.lastIndexOf('@', to - 1);          // user info
+        return url.substring(at >= from ? at + 1 : from, to).toLowerCase();
+    }
+
+    /** Circuit breaker of host. Guarded by {@link #dequeMonitor} */
+    private static final class Circuit {
+        /** failures in a row while closed */
+        int failures;
+        /** host is considered down */
+        boolean open;
+        /** nanos when probe is allowed */
+        long openUntil;
+        long openMillis;
+        /** probe is in flight */
+        boolean probing;
+    }
+
+    /** Waiting entries of the same host in intrusive deque. Guarded by {@link #dequeMonitor} */
+    private static final class Host {
+        final String name;
+        Entry head;
+        Entry tail;
+        /** entries in progress */
+        int running;
+
+        Host(String name) {
+            this.name = name;
+        }
+
+        void linkFirst(Entry entry) {
+            entry.prev = null;
+            entry.next = head;
+            if (head != null) head.prev = entry; else tail = entry;
+            head = entry;
+        }
+
+        void linkLast(Entry entry) {
+            entry.next = null;
+            entry.prev = tail;
+            if (tail != null) tail.next = entry; else head = entry;
+            tail = entry;
+        }
+
+        void unlink(Entry entry) {
+            if (entry.prev != null) entry.prev.next = entry.next; else head = entry.next;
+            if (entry.next != null) entry.next.prev = entry.prev; else tail = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+        }
+    }
+
+    /**
+     * Takes first entry from queue and fetches it. Entry stays in {@link #index} while in progress,
+     * so requests for the same url attach to it
+     */
+    private final class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                Entry next = take();
+                File result = null;
+                try {
+                    File downloadTo = next.requestedFile;
+                    DiskCache diskCache = DownloadQueue.this.diskCache;
+                    boolean downloaded;
+                    if (downloadTo == null && diskCache != null) {
+                        DiskCache.Entry cached = diskCache.getEntry(next.url);
+                        if (cached != null && !cached.file.exists()) {      // system may clean app cache dir
+                            if (debug) Log.w(TAG, "Worker.run() lost cached file of: " + next.url);
+                            diskCache.remove(next.url);
+                            cached = null;
+                        }
+                        if (cached != null && !cached.isStale(revalidateAfterMillis)) {
+                            diskCache.flush();                              // usage order of lookups done on main thread
+                            downloadTo = cached.file;
+                            downloaded = true;
+                        } else {
+                            if (cached != null && staleWhileRevalidate) {
+                                notifyComplete(next, next.takeListeners(false), cached.file);
+                            }
+                            downloadTo = diskCache.fileFor(next.url);
+                            Http.Validators validators = cached != null ? cached.validators() : new Http.Validators();
+                            StreamingProvider stream = cached == null ? openStream(next) : null;
+                            downloaded = fetch(next, downloadTo, validators, stream);
+                            if (stream != null) {
+                                if (downloaded) stream.complete(downloadTo); else stream.fail();
+                            }
+                            if (downloaded) {
+                                diskCache.commit(next.url, validators.etag, validators.lastModified);
+                                if (cached != null && staleWhileRevalidate && !validators.notModified) onRefreshed(next.url, downloadTo);
+                            } else if (cached != null) {
+                                downloadTo = cached.file;
+                                downloaded = true;                  // stale is better than nothing
+                            }
+                            if (debug) Log.d(TAG, "Worker.run() " + (cached == null ? "downloaded: " : validators.notModified ? "not modified: " : "refreshed: ") + downloaded + ", " + next.url);
+                        }
+                    } else {
+                        if (downloadTo == null) {               // the same on retries, so partial content is resumed
+                            if (next.tempFile == null) next.tempFile = File.createTempFile(String.valueOf(System.currentTimeMillis()), ".tmp");
+                            downloadTo = next.tempFile;
+                        }
+                        StreamingProvider stream = openStream(next);
+                        downloaded = fetch(next, downloadTo, null, stream);
+                        if (stream != null) {
+                            if (downloaded) stream.complete(downloadTo); else stream.fail();
+                        }
+                    }
+                    if (downloaded) result = downloadTo;
+                } catch (Throwable e) {
+                    Log.e(TAG, "Worker.run() failed to fetch: " + next.url, e);
+                }
+                if (release(next, result != null)) continue;   // listeners stay attached until retry
+                // onComplete: listeners attached from now on get new entry
+                CompleteListener[] listeners = next.takeListeners(true);
+                index.remove(next.url, next);
+                if (result != null) {
+                    notifyComplete(next, listeners, result);
+                } else {
+                    if (next.tempFile != null) {
+                        next.tempFile.delete();
+                        Http.deletePartial(next.tempFile);
+                    }
+                    notifyFailed(next, listeners);
+                }
+            }
+        }
+    }
+
+    /** 
+     * Conditional, with progress and teed to stream if fetcher supports it 
+     * @param validators - may be null
+     * @param stream     - may be null
+     */
+    private boolean fetch(Entry entry, File toFile, Http.Validators validators, StreamingProvider stream) {
+        synchronized (dequeMonitor) {
+            if (!allowFetch(entry)) {
+                if (debug) Log.w(TAG, "fetch() host is down, failing: " + entry.url);
+                return false;
+            }
+        }
+        entry.attempts++;
+        entry.progress.respondedAt = 0;
+        entry.progress.setResponseCode(0);
+        entry.fetchedAt = System.nanoTime();
+        entry.fetched = fetch(entry.url, toFile, validators, stream, entry.progress);
+        return entry.fetched;
+    }
+
+    private boolean fetch(String url, File toFile, Http.Validators validators, StreamingProvider stream, Http.Progress progress) {
+        Fetcher fetcher = this.fetcher;
+        if (fetcher instanceof StreamingFetcher) {
+            return ((StreamingFetcher) fetcher).fetch(url, toFile, sslSocketFactory, validators, stream, progress);
+        }
+        if (validators != null && fetcher instanceof ConditionalFetcher) {
+            return ((ConditionalFetcher) fetcher).fetch(url, toFile, sslSocketFactory, validators);
+        }
+        return fetcher.fetch(url, toFile, sslSocketFactory);
+    }
+
+    /** @return stream handed to {@link StreamListener}s of entry, or null if there are none or fetcher cannot tee */
+    private StreamingProvider openStream(Entry entry) {
+        if (!(fetcher instanceof StreamingFetcher)) return null;
+        StreamingProvider stream = null;
+        for (CompleteListener listener : entry.listeners()) {
+            if (!(listener instanceof StreamListener)) continue;
+            if (stream == null) stream = new StreamingProvider();
+            ((StreamListener) listener).onDownloadStream(entry.url, stream);
+        }
+        return stream;
+    }
+
+    private static void notifyFailed(Entry entry, CompleteListener[] listeners) {
+        if (debug) Log.w(TAG, "notifyFailed() after " + entry.attempts + " attempts: " + entry.url);
+        for (CompleteListener listener : listeners) {
+            try {
+                listener.onDownloadFailed(entry.url);
+            } catch (Throwable e) {
+                Log.e(TAG, "onDownloadFailed() thrown an exception for: " + entry.url, e);
+            }
+        }
+    }
+
+    private static void notifyComplete(Entry entry, CompleteListener[] listeners, File file) {
+        for (CompleteListener onComplete : listeners) {
+            try {
+                onComplete.onDownloadComplete(entry.url, file);
+            } catch (Throwable e) {
+                Log.e(TAG, "onComplete() thrown an exception for: " + entry.url, e);
+            }
+        }
+    }
+
+    /**
+     * Is called on worker thread when stale file was already delivered by {@link #setStaleWhileRevalidate(boolean)} 
+     * and revalidation brought new content into the same file. Override to drop whatever was made of the stale one
+     */
+    protected void onRefreshed(String url, File file) {
+    }
+
+    /** @return entry if scheduled or in progress */
+    private Entry scheduled(String url) {
+        return index.get(url);
+    }
+
+    public void setSSLSocketFactory(SSLSocketFactory sslFactory) {
+        this.sslSocketFactory = sslFactory;
+    }
+
+    /** @param diskCache - is used for downloads scheduled without destination file, null disables it */
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /** cached files older than that are revalidated before use. Default is {@link #DEFAULT_REVALIDATE_AFTER_MILLIS} */
+    public void setRevalidateAfter(long millis) {
+        this.revalidateAfterMillis = millis;
+    }
+
+    /** @return true if cached file needs revalidation before use */
+    public boolean isStale(DiskCache.Entry cached) {
+        return cached.isStale(revalidateAfterMillis);
+    }
+
+    /** 
+     * @param staleWhileRevalidate - if true stale cached files are delivered to {@link CompleteListener} without 
+     * waiting for revalidation, on worker thread as any other download. New content is announced by {@link #onRefreshed(String, File)}
+     */
+    public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public boolean isStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /** @param dispatcher - delivers progress to {@link ProgressListener}s. Default is {@link #THROTTLED_DISPATCHER} */
+    public void setProgressDispatcher(ProgressDispatcher dispatcher) {
+        if (dispatcher == null) throw new IllegalArgumentException("dispatcher cannot be null");
+        this.progressDispatcher = dispatcher;
+    }
+
+    /** {@link MultiConnectionFetcher} gets permits of this queue, so it should not be shared with another one */
+    public void setFetcher(Fetcher fetcher) {
+        if (fetcher == null) throw new IllegalArgumentException("fetcher cannot be null");
+        if (fetcher instanceof MultiConnectionFetcher) ((MultiConnectionFetcher) fetcher).setConnectionPermits(connectionPermits);
+        this.fetcher = fetcher;
+    }
+
+    private static boolean isSame(Object left, Object right) {
+        if (left == right) return true;
+        if (left == null && right == null) return true;
+        if (left != null && right != null && left.equals(right)) return true;
+        return false;
+    }
+
+    private class Entry {
+        static final int QUEUED         = 0;
+        static final int IN_PROGRESS    = 1;
+        /** failed, waits in {@link #delayed} for retry */
+        static final int DELAYED        = 2;
+
+        final String url;
+        /** file requested by {@link #schedule}, null if queue decides */
+        final File requestedFile;
+        final EntryProgress progress;
+        /** guarded by entry itself */
+        private final ArrayList<CompleteListener> completeListeners = new ArrayList<CompleteListener>(3);
+        private boolean completed;
+        /** host, deque links and state are guarded by {@link #dequeMonitor} */
+        Host host;
+        Entry prev;
+        Entry next;
+        int state = QUEUED;
+        /** nanos when network fetch started, 0 if entry was served from cache. Written by worker before {@link #release} */
+        long fetchedAt;
+        boolean fetched;
+        /** network fetches done */
+        int attempts;
+        /** fetch is the probe of host that is considered down */
+        boolean probe;
+        /** nanos when {@link #DELAYED} entry is retried */
+        long retryAt;
+        /** destination of download without requested file and {@link DiskCache}, kept for retries */
+        File tempFile;
+
+        /** @param file - if null DownloadQueue will create tempFile using {@link File#createTempFile(String, String)} }*/
+        public Entry(String url, File file, CompleteListener listener) {
+            if (url == null) throw new IllegalArgumentException("url cannot be null");
+            this.url = url;
+            this.requestedFile = file;
+            this.progress = new EntryProgress(url);
+            if (listener != null) this.completeListeners.add(listener);
+        }
+
+        /** @return false if entry is completed and listener would never be called */
+        synchronized boolean attach(CompleteListener onComplete, ProgressListener onProgress) {
+            if (completed) return false;
+            if (onComplete != null && !completeListeners.contains(onComplete)) completeListeners.add(onComplete);
+            if (onProgress != null) progress.addListener(onProgress);
+            return true;
+        }
+
+        synchronized CompleteListener[] listeners() {
+            return completeListeners.toArray(new CompleteListener[completeListeners.size()]);
+        }
+
+        /** 
+         * Every listener is taken exactly once 
+         * @param complete - no listeners are attached after that
+         */
+        synchronized CompleteListener[] takeListeners(boolean complete) {
+            CompleteListener[] taken = listeners();
+            completeListeners.clear();
+            if (complete) completed = true;
+            return taken;
+        }
+    }
+
+    /** Progress of scheduled download. Is handed to {@link ProgressDispatcher} on every change while someone listens */
+    public final class EntryProgress extends Http.Progress {
+        private final String url;
+        private final CopyOnWriteArrayList<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+        /** is used by {@link #THROTTLED_DISPATCHER} */
+        volatile long deliveredAt;
+        /** nanos when first response of fetch arrived, 0 if none */
+        volatile long respondedAt;
+
+        private EntryProgress(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        void addListener(ProgressListener listener) {
+            listeners.addIfAbsent(listener);
+        }
+
+        void removeListener(ProgressListener listener) {
+            listeners.remove(listener);
+        }
+
+        public void start(long downloaded, long total) {
+            if (respondedAt == 0) respondedAt = System.nanoTime();
+            super.start(downloaded, total);
+        }
+
+        public void add(long bytes) {
+            ConcurrencyController concurrency = DownloadQueue.this.concurrency;
+            if (concurrency != null) concurrency.onBytes(bytes);
+            super.add(bytes);
+        }
+
+        protected void onChanged() {
+            if (listeners.isEmpty()) return;
+            progressDispatcher.onProgressChanged(this);
+        }
+
+        /** passes current progress to listeners. Dispatcher calls it when and where it sees fit */
+        public void deliver() {
+            long downloaded = getDownloaded();
+            long total = getTotal();
+            for (ProgressListener listener : listeners) {
+                listener.onDownloadProgress(url, downloaded, total);
+            }
+        }
+    }
+
+    public interface ProgressListener {
+        /** @param total - -1 if unknown */
+        public void onDownloadProgress(String url, long downloaded, long total);
+    }
+
+    /** Decides when and on which thread progress is delivered to {@link ProgressListener}s */
+    public interface ProgressDispatcher {
+        /** Is called on downloading thread for every received chunk, must be cheap. Call {@link EntryProgress#deliver()} to deliver */
+        public void onProgressChanged(EntryProgress progress);
+    }
+
+    /** min interval between deliveries of {@link #THROTTLED_DISPATCHER}, about a frame */
+    public static final long PROGRESS_INTERVAL_MILLIS = 16;
+
+    /** Delivers on downloading thread, not more often than {@link #PROGRESS_INTERVAL_MILLIS}. Completion is always delivered */
+    public static final ProgressDispatcher THROTTLED_DISPATCHER = new ProgressDispatcher() {
+        public void onProgressChanged(EntryProgress progress) {
+            long now = System.currentTimeMillis();
+            boolean complete = progress.getDownloaded() == progress.getTotal();
+            if (!complete && now - progress.deliveredAt < PROGRESS_INTERVAL_MILLIS) return;
+            progress.deliveredAt = now;
+            progress.deliver();
+        }
+    };
+
+    public interface CompleteListener {
+        public void onDownloadComplete(String url, File file);
+
+        /** 
+         * Is called on worker thread once no attempts are left, or right away if host is considered down 
+         * or rejected request. {@link #onDownloadComplete(String, File)} is not called then
+         */
+        public default void onDownloadFailed(String url) {
+        }
+    }
+
+    /** Listener that gets content while it is being downloaded, before {@link #onDownloadComplete(String, File)} */
+    public interface StreamListener extends CompleteListener {
+        /** 
+         * Is called on worker thread when content is about to be fetched from network, not for cached files.
+         * Stream is completed or failed right before {@link #onDownloadComplete(String, File)}
+         */
+        public void onDownloadStream(String url, StreamingProvider stream);
+    }
+
+    /** Transport used by workers. Default is {@link #HTTP_FETCHER}, benchmarks and tests may replace it */
+    public interface Fetcher {
+        /** @return true if content of url is stored in toFile */
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory);
+    }
+
+    /** Fetcher able to revalidate cached content */
+    public interface ConditionalFetcher extends Fetcher {
+        /**
+         * @param validators - of content toFile has, if any. Are updated from response, {@link Http.Validators#notModified} is set if toFile is up to date
+         * @return true if toFile has actual content of url
+         */
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators);
+    }
+
+    /** Permits for extra connections that fetcher opens besides the one of download */
+    public interface ConnectionPermits {
+        /** @return false if host of url has no free connections, nothing to release then */
+        public boolean tryAcquire(String url);
+        public void release(String url);
+    }
+
+    /** Fetcher that opens several connections per download, within {@link ConnectionPermits} of its queue */
+    public interface MultiConnectionFetcher extends Fetcher {
+        public void setConnectionPermits(ConnectionPermits permits);
+    }
+
+    /** Fetcher able to report progress and tee content to {@link StreamingProvider} while downloading */
+    public interface StreamingFetcher extends ConditionalFetcher {
+        /**
+         * @param validators - may be null if toFile has no content
+         * @param tee        - receives downloaded chunks with their position in content, may be null
+         * @param progress   - is updated with every chunk, may be null
+         */
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators, StreamingProvider tee, Http.Progress progress);
+    }
+
+    public static final Fetcher HTTP_FETCHER = new StreamingFetcher() {
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory) {
+            return Http.downloadToFile(url, toFile, sslFactory);
+        }
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators) {
+            return Http.downloadToFile(url, toFile, sslFactory, validators);
+        }
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators, StreamingProvider tee, Http.Progress progress) {
+            return Http.downloadToFile(url, toFile, sslFactory, validators, tee, progress);
+        }
+    };
+}
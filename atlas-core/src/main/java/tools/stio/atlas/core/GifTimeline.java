@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Frame boundaries of animated GIF. Only block structure is parsed, no pixel data is decoded.
+ * Delays are kept as they are in file, the same way android.graphics.Movie uses them
+ *
+ * @since  19 Oct 2026
+ */
+public class GifTimeline {
+    private static final String TAG = GifTimeline.class.getSimpleName();
+    private static final boolean debug = false;
+
+    /** is reported by {@link #untilNextFrame(long)} for GIFs without delays */
+    public static final int DEFAULT_FRAME_DELAY_MILLIS = 100;
+
+    /** frame start times in millis, frameStarts[0] == 0 */
+    private final int[] frameStarts;
+    private final int duration;
+
+    private GifTimeline(int[] frameDelays, int frames) {
+        this.frameStarts = new int[frames];
+        int time = 0;
+        for (int i = 0; i < frames; i++) {
+            frameStarts[i] = time;
+            time += frameDelays[i];
+        }
+        this.duration = time;
+    }
+
+    public int getFrameCount() {
+        return frameStarts.length;
+    }
+
+    /** @return time in millis frame starts at */
+    public int getFrameStart(int frame) {
+        return frameStarts[frame];
+    }
+
+    /** @return total duration of all frames in millis */
+    public int getDuration() {
+        return duration;
+    }
+
+    /** @return index of frame shown at specified time */
+    public int frameAt(long timeMillis) {
+        if (duration == 0) return 0;
+        int time = (int) (timeMillis % duration);
+        int found = Arrays.binarySearch(frameStarts, time);
+        int frame = found >= 0 ? found : -found - 2;
+        while (frame + 1 < frameStarts.length && frameStarts[frame + 1] <= time) frame++;     // frames without delay are not shown
+        return frame;
+    }
+
+    /** @return delay in millis from specified time to the start of next frame */
+    public int untilNextFrame(long timeMillis) {
+        if (duration == 0) return DEFAULT_FRAME_DELAY_MILLIS;
+        int time = (int) (timeMillis % duration);
+        int frame = frameAt(time);
+        int nextStart = frame + 1 < frameStarts.length ? frameStarts[frame + 1] : duration;
+        return nextStart - time;
+    }
+
+    /**
+     * Reads frame delays from GIF stream. Stream is not closed
+     * @return timeline or null if stream is not a GIF
+     */
+    public static GifTimeline parse(InputStream from) throws IOException {
+        InputStream in = from instanceof BufferedInputStream ? from : new BufferedInputStream(from, 8192);
+        byte[] header = new byte[13];
+        readFully(in, header);
+        if (ImageFormat.detect(header, header.length) != ImageFormat.GIF) return null;
+        int packed = header[10] & 0xFF;
+        if ((packed & 0x80) != 0) skip(in, 3 * (2 << (packed & 0x07)));    // global color table
+
+        int[] delays = new int[16];
+        int frames = 0;
+        int pendingDelay = 0;
+        for (int block; (block = in.read()) != -1 && block != 0x3B; ) {
+            if (block == 0x21) {                        // extension
+                int label = read(in);
+                if (label == 0xF9) {                    // graphic control extension
+                    int size = read(in);
+                    byte[] gce = new byte[size];
+                    readFully(in, gce);
+                    if (size >= 3) pendingDelay = 10 * ((gce[1] & 0xFF) | (gce[2] & 0xFF) << 8);
+                }
+                skipSubBlocks(in);
+            } else if (block == 0x2C) {                 // image descriptor
+                byte[] descriptor = new byte[9];
+                readFully(in, descriptor);
+                int localPacked = descriptor[8] & 0xFF;
+                if ((localPacked & 0x80) != 0) skip(in, 3 * (2 << (localPacked & 0x07)));
+                read(in);                               // LZW minimum code size
+                skipSubBlocks(in);
+
+                if (frames == delays.length) delays = Arrays.copyOf(delays, frames * 2);
+                delays[frames++] = pendingDelay;
+                pendingDelay = 0;
+            } else {
+                if (debug) Log.w(TAG, "parse() unexpected block: " + block + " after " + frames + " frames");
+                break;
+            }
+        }
+        if (frames == 0) return null;
+        return new GifTimeline(delays, frames);
+    }
+
+    private static void skipSubBlocks(InputStream in) throws IOException {
+        for (int size; (size = read(in)) != 0; ) {
+            skip(in, size);
+        }
+    }
+
+    private static int read(InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) throw new EOFException();
+        return value;
+    }
+
+    private static void readFully(InputStream in, byte[] to) throws IOException {
+        for (int offset = 0, read; offset < to.length; offset += read) {
+            if ((read = in.read(to, offset, to.length - offset)) == -1) throw new EOFException();
+        }
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                read(in);
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
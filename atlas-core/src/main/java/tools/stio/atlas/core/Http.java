@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Plain {@link HttpURLConnection} based downloads. Used by {@link DownloadQueue}
+ *
+ * @author Oleg Orlov
+ * @since  12 May 2015
+ */
+public class Http {
+    private static final String TAG = Http.class.getSimpleName();
+    private static final boolean debug = false;
+
+    public static final String HTTP_GET     = "GET";
+    public static final String HTTP_POST    = "POST";
+
+    /** content is downloaded into <code>file + PARTIAL_SUFFIX</code> and renamed when complete */
+    public static final String PARTIAL_SUFFIX   = ".download";
+    /** keeps <code>If-Range</code> validator of partial content, so interrupted download can be resumed */
+    public static final String IF_RANGE_SUFFIX  = PARTIAL_SUFFIX + ".ifrange";
+
+    static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    static final int TIMEOUT_MILLIS = 3000;
+
+    public static boolean downloadToFile(String url, File file, SSLSocketFactory sslFactory) {
+        return downloadToFile(url, file, HTTP_GET, null, sslFactory);
+    }
+
+    public static boolean downloadToFile(String url, File file, String method, byte[] body, SSLSocketFactory sslFactory) {
+        return downloadToFile(url, file, method, body, sslFactory, null, null, null);
+    }
+
+    /**
+     * Conditional GET. If server responds <code>304 Not Modified</code> file is not touched and 
+     * {@link Validators#notModified} is set
+     * 
+     * @param validators - sent as <code>If-None-Match</code> and <code>If-Modified-Since</code>, updated from response
+     * @return true if file has actual content of url
+     */
+    public static boolean downloadToFile(String url, File file, SSLSocketFactory sslFactory, Validators validators) {
+        return downloadToFile(url, file, HTTP_GET, null, sslFactory, validators, null, null);
+    }
+
+    /**
+     * Conditional GET with content teed to stream provider while it is written to file 
+     * 
+     * @param validators - may be null
+     * @param tee        - receives every chunk with its position in content, may be null
+     * @param progress   - is updated with every chunk, may be null
+     */
+    public static boolean downloadToFile(String url, File file, SSLSocketFactory sslFactory, Validators validators, StreamingProvider tee, Progress progress) {
+        return downloadToFile(url, file, HTTP_GET, null, sslFactory, validators, tee, progress);
+    }
+
+    private static boolean downloadToFile(String url, File file, String method, byte[] body, SSLSocketFactory sslFactory, Validators validators, StreamingProvider tee, Progress progress) {
+        if (url == null) Log.e(TAG, "downloadHttpToFile() url is null, file: " + file);
+
+        File tempFile = new File(file.getAbsolutePath() + PARTIAL_SUFFIX);
+        File ifRangeFile = new File(file.getAbsolutePath() + IF_RANGE_SUFFIX);
+
+        // resume only if partial content can be validated with If-Range
+        long resumeFrom = 0;
+        String ifRange = null;
+        if (HTTP_GET.equals(method) && tempFile.length() > 0) {
+            ifRange = Streams.readString(ifRangeFile);
+            if (ifRange != null) resumeFrom = tempFile.length();
+        }
+
+        HttpURLConnection httpConn = null;
+        int responseCode;
+        try {
+            String range = resumeFrom > 0 ? "bytes=" + resumeFrom + "-" : null;
+            httpConn = openHttpConnection(url, method, body, sslFactory, TIMEOUT_MILLIS, validators, range, ifRange);
+
+            responseCode = httpConn.getResponseCode();
+            if (progress != null) progress.setResponseCode(responseCode);
+            if (validators != null) validators.notModified = false;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null && file.exists()) {
+                String etag = httpConn.getHeaderField("ETag");
+                if (etag != null) validators.etag = etag;
+                if (httpConn.getLastModified() != 0) validators.lastModified = httpConn.getLastModified();
+                validators.notModified = true;
+                httpConn.disconnect();
+                if (debug) Log.w(TAG, "downloadToFile() not modified: " + url);
+                return true;
+            }
+            if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && resumeFrom > 0) {
+                httpConn.disconnect();
+                if (debug) Log.w(TAG, "downloadToFile() range " + resumeFrom + "- not satisfiable, restarting: " + url);
+                deletePartial(tempFile, ifRangeFile);
+                return downloadToFile(url, file, method, body, sslFactory, validators, tee, progress);
+            }
+            if (responseCode >= 300 || responseCode < 200) {
+                Log.e(TAG, "Expected status 200, but got " + responseCode + ", message: " + httpConn.getResponseMessage() + ", url: [" + url + "]");
+                httpConn.disconnect();
+                return false;
+            }
+
+        } catch (IOException e) {
+            Log.e(TAG, "downloadToFile() cannot execute http request, url: [" + url + "]", e);
+            return false;
+        }
+        if (validators != null) {
+            validators.etag = httpConn.getHeaderField("ETag");
+            validators.lastModified = httpConn.getLastModified();
+        }
+
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create folders, url: [" + url + "] dir: " + dir.getAbsolutePath());
+            httpConn.disconnect();
+            return false;
+        }
+
+        boolean append = false;
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            long[] contentRange = parseContentRange(httpConn.getHeaderField("Content-Range"));
+            if (contentRange == null || contentRange[0] != resumeFrom) {
+                Log.e(TAG, "downloadToFile() unexpected Content-Range: " + httpConn.getHeaderField("Content-Range") + ", requested from: " + resumeFrom + ", url: [" + url + "]");
+                httpConn.disconnect();
+                deletePartial(tempFile, ifRangeFile);
+                return false;
+            }
+            append = true;
+            if (debug) Log.w(TAG, "downloadToFile() resuming from " + resumeFrom + ": " + url);
+        } else {
+            // full content: partial is outdated or was not requested. Remember validator before any byte is written
+            resumeFrom = 0;
+            String validator = ifRangeValidator(httpConn);
+            if (validator == null || !HTTP_GET.equals(method) || !Streams.writeString(ifRangeFile, validator)) {
+                ifRangeFile.delete();
+            }
+        }
+
+        long contentLength = parseLong(httpConn.getHeaderField("Content-Length"), -1);
+        if (progress != null) progress.start(resumeFrom, contentLength == -1 ? -1 : resumeFrom + contentLength);
+
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        boolean copied = false;
+        try {
+            inputStream = httpConn.getInputStream();
+            outputStream = new FileOutputStream(tempFile, append);
+            copy(inputStream, outputStream, resumeFrom, tee, progress);
+            copied = true;
+        } catch (IOException e) {
+            Log.e(TAG, "downloadToFile() cannot extract content from http response for [" + url + "], kept: " + tempFile.length(), e);
+        } finally {
+            Streams.closeQuietly(inputStream);
+            Streams.closeQuietly(outputStream);
+            httpConn.disconnect();
+        }
+
+        // without Content-Length truncated content cannot be told by size, is resumed by next attempt if possible
+        if (!copied) {
+            if (!ifRangeFile.exists()) deletePartial(tempFile, ifRangeFile);
+            return false;
+        }
+
+        if (contentLength != -1 && resumeFrom + contentLength != tempFile.length()) {
+            Log.e(TAG, "downloadToFile() File size mismatch for [" + url + "] "
+                     + " expected: " + (resumeFrom + contentLength)
+                     + " actual: " + tempFile.length()
+                     + " path: " + tempFile.getAbsolutePath());
+            // shorter partial is resumed by next attempt, longer one is broken
+            if (tempFile.length() > resumeFrom + contentLength || !ifRangeFile.exists()) {
+                deletePartial(tempFile, ifRangeFile);
+            }
+            return false;
+        }
+
+        // last step
+        if (tempFile.renameTo(file)) {
+            ifRangeFile.delete();
+            if (debug) Log.w(TAG, "downloadToFile() Successfully downloaded file: " + file.getAbsolutePath());
+            return true;
+        } else {
+            Log.e(TAG, "downloadToFile() Could not rename temp file: " + tempFile.getAbsolutePath() + " to: " + file.getAbsolutePath());
+            return false;
+        }
+
+    }
+
+    /** @param offset - position of the first byte of response in content */
+    private static void copy(InputStream from, OutputStream to, long offset, StreamingProvider tee, Progress progress) throws IOException {
+        byte[] buffer = new byte[Streams.STREAM_COPY_DEFAULT_BUFSIZE];
+        for (int bytesRead; (bytesRead = from.read(buffer)) != -1; ) {
+            to.write(buffer, 0, bytesRead);
+            if (tee != null) tee.write(offset, buffer, 0, bytesRead);
+            if (progress != null) progress.add(bytesRead);
+            offset += bytesRead;
+        }
+    }
+
+    /**
+     * <code>If-Range</code> accepts strong ETag or Last-Modified date only
+     * @return validator of full response to resume it later with, or null if response cannot be resumed
+     */
+    static String ifRangeValidator(HttpURLConnection httpConn) {
+        String acceptRanges = httpConn.getHeaderField("Accept-Ranges");
+        if (acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("none")) return null;
+        String etag = httpConn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return httpConn.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * @return <code>{first, last, total}</code> of <code>Content-Range: bytes first-last/total</code>, total is -1 if unknown. 
+     * Or null if header cannot be parsed
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null) return null;
+        String range = contentRange.trim();
+        if (!range.startsWith("bytes ")) return null;
+        int dash = range.indexOf('-');
+        int slash = range.indexOf('/');
+        if (dash == -1 || slash < dash) return null;
+        long first = parseLong(range.substring("bytes ".length(), dash), -1);
+        long last = parseLong(range.substring(dash + 1, slash), -1);
+        long total = parseLong(range.substring(slash + 1), -1);
+        if (first < 0 || last < first) return null;
+        return new long[] {first, last, total};
+    }
+
+    /** @return total of <code>Content-Range: bytes *&#47;total</code> that comes with 416, -1 if header cannot be parsed */
+    static long parseUnsatisfiedRange(String contentRange) {
+        if (contentRange == null) return -1;
+        String range = contentRange.trim();
+        if (!range.startsWith("bytes */")) return -1;
+        return parseLong(range.substring("bytes */".length()), -1);
+    }
+
+    static long parseLong(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** deletes partial content of file and its <code>If-Range</code> validator, if any */
+    static void deletePartial(File file) {
+        deletePartial(new File(file.getAbsolutePath() + PARTIAL_SUFFIX), new File(file.getAbsolutePath() + IF_RANGE_SUFFIX));
+    }
+
+    private static void deletePartial(File tempFile, File ifRangeFile) {
+        tempFile.delete();
+        ifRangeFile.delete();
+    }
+
+    private static final int MAX_REDIRECT_ATTEMPTS = 5;
+
+    /**
+     * @param range   - <code>Range</code> header value, if any
+     * @param ifRange - <code>If-Range</code> header value, sent along with range only
+     */
+    static HttpURLConnection openHttpConnection(String url, String method, byte[] body, SSLSocketFactory sslFactory, int timeout, Validators validators, String range, String ifRange) throws MalformedURLException, IOException, ProtocolException {
+        HttpURLConnection httpConn = null;
+
+        for (int attempt = 0; attempt < MAX_REDIRECT_ATTEMPTS; attempt++) {
+            URL uRL = new URL(url);
+
+            if (url.startsWith("https://")) {
+                httpConn = (HttpsURLConnection) uRL.openConnection();
+                if (sslFactory != null) {
+                    ((HttpsURLConnection) httpConn).setSSLSocketFactory(sslFactory);
+                }
+            } else {
+                httpConn = (HttpURLConnection) uRL.openConnection();
+            }
+            httpConn.setConnectTimeout(timeout);
+            httpConn.setReadTimeout(timeout);
+            httpConn.setRequestMethod(method);
+            httpConn.setDoInput(true);
+            // some servers rejects requests without user-agent with status 400
+            httpConn.addRequestProperty("User-Agent", "Atlas-Android 1.0");
+            if (validators != null) {
+                if (validators.etag != null) httpConn.addRequestProperty("If-None-Match", validators.etag);
+                if (validators.lastModified != 0) httpConn.setIfModifiedSince(validators.lastModified);
+            }
+            if (range != null) {
+                httpConn.addRequestProperty("Range", range);
+                if (ifRange != null) httpConn.addRequestProperty("If-Range", ifRange);
+            }
+
+            if (HTTP_POST.equals(method) && body != null) {
+                httpConn.setDoOutput(true);
+                OutputStream os = httpConn.getOutputStream();
+                os.write(body);
+                os.close();
+            }
+
+            int responseCode = httpConn.getResponseCode();
+            if (responseCode == 301) {
+                String location = httpConn.getHeaderField("Location");
+                Log.e(TAG, "Redirect [" + location + "]" + " from url: [" + url + "]");
+                Log.w(TAG, "openHttpConnection() follow redirect " + attempt + " to [" + location + "]");
+                url = location;
+                continue;
+            }
+            break;
+
+        }
+        return httpConn;
+
+    }
+
+    /** 
+     * Progress of download. Is updated by downloading threads, segments of the same content may 
+     * be downloaded in parallel. Override {@link #onChanged()} to be notified
+     */
+    public static class Progress {
+        private final AtomicLong downloaded = new AtomicLong();
+        private volatile long total = -1;
+        private volatile int responseCode;
+
+        /** 
+         * Download of content (re)started
+         * @param downloaded - bytes content already has, i.e. when interrupted download is resumed
+         * @param total      - -1 if unknown
+         */
+        public void start(long downloaded, long total) {
+            this.total = total;
+            this.downloaded.set(downloaded);
+            onChanged();
+        }
+
+        public void add(long bytes) {
+            downloaded.addAndGet(bytes);
+            onChanged();
+        }
+
+        public long getDownloaded() {
+            return downloaded.get();
+        }
+
+        /** @return -1 if unknown */
+        public long getTotal() {
+            return total;
+        }
+
+        /** Is called by fetcher when response status arrives. 0 means no response */
+        public void setResponseCode(int responseCode) {
+            this.responseCode = responseCode;
+        }
+
+        /** @return status of the latest response, 0 if server did not respond */
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /** Is called on downloading thread for every chunk, must be cheap */
+        protected void onChanged() {
+        }
+    }
+
+    /** validators of cached content for conditional requests */
+    public static class Validators {
+        /** sent as <code>If-None-Match</code>, null if unknown */
+        public String etag;
+        /** sent as <code>If-Modified-Since</code>, 0 if unknown */
+        public long lastModified;
+        /** true if server confirmed that content is not changed */
+        public boolean notModified;
+
+        public Validators() {}
+
+        public Validators(String etag, long lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
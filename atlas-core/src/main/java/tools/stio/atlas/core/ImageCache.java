@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tools.stio.atlas.core.ImageLoader.InputStreamProvider;
+
+/**
+ * Access-ordered image cache. Eldest entries are dropped when heap usage goes above {@link #MEMORY_THRESHOLD}
+ * <p><b>Not thread safe:</b> {@link ImageLoader} guards it with its monitor
+ *
+ * @author Oleg Orlov
+ * @since  12 May 2015
+ */
+public class ImageCache {
+    private static final String TAG = ImageCache.class.getSimpleName();
+    private static final boolean debug = false;
+
+    public static final double MEMORY_THRESHOLD = 0.7;
+
+    /** image_id -> Bitmap | Movie */
+    private final LinkedHashMap<Object, Entry> cache = new LinkedHashMap<Object, Entry>(40, 1f, true) {
+        private static final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry<Object, ImageCache.Entry> eldest) {
+            boolean cleaningRequired = isCleaningRequired();
+
+            final Object id = eldest.getKey();
+            int bytes = byteCount(eldest.getValue().bitmapOrMovie);
+            //boolean debug = true;
+            if (cleaningRequired) if (debug) Log.w(TAG, "removeEldestEntry()    cleaning, cache: " + cache.size() + ", " +  bytes + " bytes for: " + id);
+            else                  if (debug) Log.w(TAG, "removeEldestEntry() no cleaning, cache: " + cache.size());
+
+            if (cleaningRequired) {
+                eldest.getValue().valid = false;
+                System.gc();
+            }
+            return cleaningRequired;
+        }
+    };
+
+    /** @return true if used heap is above {@link #MEMORY_THRESHOLD} */
+    protected boolean isCleaningRequired() {
+        long maxMemory  = Runtime.getRuntime().maxMemory();
+        long usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        return 1.0 * usedMemory / maxMemory > MEMORY_THRESHOLD;
+    }
+
+    /** @return bytes occupied by decoded image. Platform specific, 0 by default */
+    protected int byteCount(Object bitmapOrMovie) {
+        return 0;
+    }
+
+    public Entry get(Object id) {
+        return cache.get(id);
+    }
+
+    public void put(Object id, Entry entry) {
+        Entry replaced = cache.put(id, entry);
+        if (replaced != null && replaced != entry) replaced.valid = false;
+    }
+
+    /** @return removed entry or null if there was nothing cached for id */
+    public Entry remove(Object id) {
+        Entry removed = cache.remove(id);
+        if (removed != null) removed.valid = false;
+        return removed;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return - byteCount of removed bitmap if bitmap found. <bold>-1</bold> otherwise
+     */
+    public int removeEldest() {
+        //boolean debug = true;
+        if (cache.size() > 0) {
+            Map.Entry<Object, Entry> entry = cache.entrySet().iterator().next();
+            Object bmp = entry.getValue().bitmapOrMovie;
+            cache.remove(entry.getKey());
+            entry.getValue().valid = false;
+            int releasedBytes = byteCount(bmp);
+            if (debug) Log.w(TAG, "removeEldest() id: " + entry.getKey() + ", bytes: " + releasedBytes);
+            return releasedBytes;
+        } else {
+            if (debug) Log.w(TAG, "removeEldest() nothing to remove...");
+            return -1;
+        }
+    }
+
+    public int removeEldest(long bytesToFree) {
+        int totalClean = 0;
+        while (cache.size() > 0) {
+            int clean = removeEldest();
+            if (clean < 1) return totalClean;
+            totalClean += clean;
+            if (totalClean > bytesToFree) return totalClean;
+        }
+        return totalClean;
+    }
+
+    /**
+     * a) contains link to actual image, and is used as cache entry<br>
+     * b) contains image's original dimensions. Allows to return filled ImageSpec before it is inflated
+     */
+    public static class Entry {
+        public final int originalWidth;
+        public final int originalHeight;
+        public final InputStreamProvider inputStreamProvider;
+        public final Object bitmapOrMovie;
+        /** false since entry is evicted or replaced. Entries are never put back, so holders don't need cache lock to check it */
+        volatile boolean valid = true;
+
+        public Entry(Object bitmapOrMovie, int originalWidth, int originalHeight, InputStreamProvider inputStreamProvider) {
+            this.originalWidth = originalWidth;
+            this.originalHeight = originalHeight;
+            this.inputStreamProvider = inputStreamProvider;
+            this.bitmapOrMovie = bitmapOrMovie;
+        }
+
+        /** @return true while entry is in cache */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+}
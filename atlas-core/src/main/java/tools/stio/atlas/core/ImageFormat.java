@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Detects image format by magic bytes. Urls and mime types lie, content doesn't
+ *
+ * @since  19 Oct 2026
+ */
+public class ImageFormat {
+
+    public static final int UNKNOWN         = 0;
+    public static final int JPEG            = 1;
+    public static final int PNG             = 2;
+    public static final int GIF             = 3;
+    public static final int WEBP            = 4;
+    public static final int WEBP_ANIMATED   = 5;
+
+    /** amount of bytes enough to detect any supported format */
+    public static final int HEADER_LENGTH = 32;
+
+    /** VP8X chunk flag, see WebP container specification */
+    private static final int WEBP_VP8X_ANIMATION_FLAG = 0x02;
+
+    /** @return true for formats that may contain several frames */
+    public static boolean isAnimated(int format) {
+        return format == GIF || format == WEBP_ANIMATED;
+    }
+
+    /**
+     * Reads up to {@link #HEADER_LENGTH} bytes from stream. Stream is not closed
+     * @return one of format constants
+     */
+    public static int detect(InputStream from) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        for (int read; length < header.length && (read = from.read(header, length, header.length - length)) != -1; ) {
+            length += read;
+        }
+        return detect(header, length);
+    }
+
+    /** @return one of format constants */
+    public static int detect(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return JPEG;
+        }
+        if (length >= 8 && (header[0] & 0xFF) == 0x89 && matches(header, 1, "PNG\r\n\u001A\n")) {
+            return PNG;
+        }
+        if (length >= 6 && (matches(header, 0, "GIF87a") || matches(header, 0, "GIF89a"))) {
+            return GIF;
+        }
+        if (length >= 12 && matches(header, 0, "RIFF") && matches(header, 8, "WEBP")) {
+            if (length >= 21 && matches(header, 12, "VP8X") && (header[20] & WEBP_VP8X_ANIMATION_FLAG) != 0) {
+                return WEBP_ANIMATED;
+            }
+            return WEBP;
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean matches(byte[] header, int offset, String ascii) {
+        if (header.length < offset + ascii.length()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            if (header[offset + i] != (byte) ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Queue and cache of images decoded on background thread. Decoding itself is platform specific
+ * and is provided by subclasses via {@link #decodeBounds(ImageSpec)} and {@link #decodeImage(ImageSpec)}
+ *
+ * @author Oleg Orlov
+ * @since  12 May 2015
+ */
+public abstract class ImageLoader {
+    public static final String TAG = ImageLoader.class.getSimpleName();
+    public static final boolean debug = false;
+
+    private static final int BITMAP_DECODE_RETRIES = 10;
+
+    private volatile boolean shutdownLoader = false;
+    private final Thread processingThread;
+    private final Object loaderMonitor = new Object();
+    private final ArrayList<ImageSpec> queue = new ArrayList<ImageSpec>();
+    private ImageSpec inProgress = null;
+
+    private final ImageCache cache = new ImageCache() {
+        protected int byteCount(Object bitmapOrMovie) {
+            return ImageLoader.this.byteCount(bitmapOrMovie);
+        }
+    };
+
+    public ImageLoader() {
+        // launching thread
+        processingThread = new Decoder("AtlasImageLoader");
+        processingThread.start();
+    }
+
+    /**
+     * Fills {@link ImageSpec#originalWidth} and {@link ImageSpec#originalHeight}
+     * @return false if image source is not available
+     */
+    protected abstract boolean decodeBounds(ImageSpec spec);
+
+    /**
+     * Is called from loader thread. For non-gif images {@link #decodeBounds(ImageSpec)} is called first
+     * @return decoded image or null if decoding failed and may be retried
+     */
+    protected abstract Object decodeImage(ImageSpec spec);
+
+    /** @return bytes occupied by decoded image */
+    protected int byteCount(Object bitmapOrMovie) {
+        return 0;
+    }
+
+    private final class Decoder extends Thread {
+        public Decoder(String threadName) {
+            super(threadName);
+        }
+        public void run() {
+            if (debug) Log.w(TAG, "ImageLoader.run() started");
+            while (!shutdownLoader) {
+
+                ImageSpec spec = null;
+                // search bitmap ready to inflate
+                // wait for queue
+                synchronized (loaderMonitor) {
+                    while (!shutdownLoader && (spec = nextSpec()) == null) {
+                        try {
+                            loaderMonitor.wait();
+                        } catch (InterruptedException e) {}
+                    }
+                    if (shutdownLoader) return;
+                    inProgress = spec;
+                }
+                Object bitmapOrMovie = null;
+                if (!spec.gif) {
+                    if (!decodeBounds(spec)) {
+                        Log.e(TAG, "decodeImage() stream is null! Cancelling request. Spec: " + spec.id + ", provider: " + spec.inputStreamProvider.getClass().getSimpleName());
+                        finish(spec, null, false);
+                        continue;
+                    }
+                    if (spec.decodeOnly) {
+                        finish(spec, null, true);
+                        continue;
+                    }
+                }
+                bitmapOrMovie = decodeImage(spec);
+
+                // decoded
+                if (bitmapOrMovie != null) {
+                    ImageCache.Entry imageCore = new ImageCache.Entry(bitmapOrMovie, spec.originalWidth, spec.originalHeight, spec.inputStreamProvider);
+                    finish(spec, imageCore, true);
+                } else if (spec.retries < BITMAP_DECODE_RETRIES) {
+                    synchronized (loaderMonitor) {
+                        spec.retries++;
+                        queue.add(0, spec);         // schedule retry
+                        inProgress = null;
+                        loaderMonitor.notifyAll();
+                    }
+                } else {
+                    finish(spec, null, false);      // forget about this image, never put it back in queue
+                }
+
+                if (debug) Log.w(TAG, "decodeImage()   cache: " + cache.size() + ", queue: " + queue.size() + ", id: " + spec.id);
+            }
+        }
+    }
+
+    /**
+     * Takes spec out of loader. Listeners are collected under lock, so listener attached by
+     * {@link #requestImage} while spec was in progress is either notified here or gets new spec
+     *
+     * @param decoded - cached if not null
+     * @param notify  - false if spec is dropped
+     */
+    private void finish(ImageSpec spec, ImageCache.Entry decoded, boolean notify) {
+        ImageLoadListener[] toNotify = null;
+        synchronized (loaderMonitor) {
+            if (decoded != null) cache.put(spec.id, decoded);
+            if (notify) toNotify = spec.listeners.toArray(new ImageLoadListener[spec.listeners.size()]);
+            spec.listeners.clear();
+            spec.decodeOnly = false;
+            spec.finished = true;
+            inProgress = null;
+        }
+        if (toNotify == null) return;
+        for (int i = 0; i < toNotify.length; i++) {
+            toNotify[i].onImageLoaded(spec);
+        }
+    }
+
+    /**
+     * Lock-free access is possible while returned entry is {@link ImageCache.Entry#isValid()}
+     * @return cache entry or null if image is not in cache
+     */
+    public ImageCache.Entry getCacheEntry(Object id) {
+        synchronized (loaderMonitor) {
+            return cache.get(id);
+        }
+    }
+
+    public Object getImageFromCache(Object id) {
+        synchronized (loaderMonitor) {
+            ImageCache.Entry imageEntry = cache.get(id);
+            if (imageEntry == null) return null;
+            return imageEntry.bitmapOrMovie;
+        }
+    }
+
+    /**
+     * Puts image produced outside of loader to cache, so it shares memory budget with decoded images
+     * and is evicted the same way. Check {@link ImageCache.Entry#isValid()} before use
+     */
+    public ImageCache.Entry putInCache(Object id, Object bitmapOrMovie, int originalWidth, int originalHeight) {
+        ImageCache.Entry entry = new ImageCache.Entry(bitmapOrMovie, originalWidth, originalHeight, null);
+        synchronized (loaderMonitor) {
+            cache.put(id, entry);
+        }
+        return entry;
+    }
+
+    /** @return removed entry or null if image is not in cache */
+    public ImageCache.Entry removeFromCache(Object id) {
+        synchronized (loaderMonitor) {
+            return cache.remove(id);
+        }
+    }
+
+    /** @return originalImageWidth if image is in cache, 0 otherwise */
+    public int getOriginalImageWidth(Object id) {
+        synchronized (loaderMonitor) {
+            ImageCache.Entry imageEntry = cache.get(id);
+            if (imageEntry == null) return 0;
+            return imageEntry.originalWidth;
+        }
+    }
+
+    /** @return originalImageHeight if image is in cache, 0 otherwise */
+    public int getOriginalImageHeight(Object id) {
+        synchronized (loaderMonitor) {
+            ImageCache.Entry imageEntry = cache.get(id);
+            if (imageEntry == null) return 0;
+            return imageEntry.originalHeight;
+        }
+    }
+
+    /**
+     * Drops eldest images from cache until requested amount of bytes is released
+     * @return amount of released bytes
+     */
+    protected int removeEldest(long bytesToFree) {
+        synchronized (loaderMonitor) {
+            return cache.removeEldest(bytesToFree);
+        }
+    }
+
+    /** @return amount of cached images */
+    public int getCacheSize() {
+        synchronized (loaderMonitor) {
+            return cache.size();
+        }
+    }
+
+    /** @return amount of images waiting for decode */
+    public int getQueueSize() {
+        synchronized (loaderMonitor) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
+     */
+    public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, ImageLoadListener loadListener) {
+        return requestImage(id, streamProvider, 0, 0, false, loadListener, false);
+    }
+
+    /**
+     * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
+     */
+    public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, ImageLoadListener loadListener, boolean decodeOnly) {
+        return requestImage(id, streamProvider, 0, 0, false, loadListener, decodeOnly);
+    }
+
+    /**
+     * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
+     */
+    public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, boolean gif, ImageLoadListener loadListener) {
+        return requestImage(id, streamProvider, 0, 0, gif, loadListener, false);
+    }
+
+    /**
+     * Most recently requested images would be inflated first to provide the quickest response
+     * (i.e. if user scroll 100 images back and force, the most important one is that he stopped at,
+     * and it is the last requested in general scenario)
+     *
+     * @param id                - something you will use to get image from cache later
+     * @param streamProvider    - something that provides raw bytes
+     * @param requiredWidth     -
+     * @param requiredHeight    - provide image dimensions you need to save memory if original dimensions are bigger. 0 means no requirements, inflate as is
+     * @param gif               - android.graphics.Movie would be decoded instead of Bitmap.
+     * @param loadListener      - something you can use to be notified when image is loaded
+     * @param decodeOnly        - will perform decode only and update {@link ImageSpec#originalWidth} and {@link ImageSpec#originalHeight}
+     */
+    public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, int requiredWidth, int requiredHeight, boolean gif, ImageLoadListener loadListener, boolean decodeOnly) {
+        if (!decodeOnly && (requiredWidth == 0 || requiredHeight == 0)) {
+            Log.e(TAG, "requestImage() wtf decode with 0x0 required? " + id);
+        }
+
+        ImageSpec spec = null;
+        synchronized (loaderMonitor) {
+            // the same image is being decoded right now in required size - just wait for it
+            if (inProgress != null && inProgress.id.equals(id) && (decodeOnly || !inProgress.decodeOnly && covers(inProgress, requiredWidth, requiredHeight))
+                    && inProgress.inputStreamProvider.equals(streamProvider)) {
+                if (loadListener != null && !inProgress.listeners.contains(loadListener)) inProgress.listeners.add(loadListener);
+                if (debug) Log.w(TAG, "requestImage() found in progress: " + inProgress);
+                return inProgress;
+            }
+            for (int i = 0; i < queue.size(); i++) {        // remove from deep deep blue
+                if (queue.get(i).id.equals(id)) {
+                    spec = queue.remove(i);
+                    if (debug) Log.w(TAG, "requestImage() found scheduled: " + spec);
+                    break;
+                }
+            }
+            if (spec == null) {
+                spec = new ImageSpec();
+                spec.id = id;
+                spec.inputStreamProvider = streamProvider;
+                spec.requiredHeight = requiredHeight;
+                spec.requiredWidth = requiredWidth;
+                if (loadListener != null) spec.listeners.add(loadListener);
+                spec.gif = gif;
+                spec.decodeOnly = decodeOnly;
+            } else {
+                if (loadListener != null && !spec.listeners.contains(loadListener)) spec.listeners.add(loadListener);
+                // the latest provider wins: stream of failed download is replaced by retry or by complete file
+                if (!spec.inputStreamProvider.equals(streamProvider)) spec.inputStreamProvider = streamProvider;
+                if (!decodeOnly) {
+                    if (spec.decodeOnly) {                  // now decode is not enough
+                        spec.requiredWidth  = requiredWidth;
+                        spec.requiredHeight = requiredHeight;
+                    } else {                                // requested bigger while waiting in queue, 0 means original size
+                        spec.requiredWidth  = spec.requiredWidth  == 0 || requiredWidth  == 0 ? 0 : Math.max(spec.requiredWidth,  requiredWidth);
+                        spec.requiredHeight = spec.requiredHeight == 0 || requiredHeight == 0 ? 0 : Math.max(spec.requiredHeight, requiredHeight);
+                    }
+                    spec.decodeOnly = false;
+                }
+            }
+            // check something we have in memory for such id
+            ImageCache.Entry imageEntry = cache.get(id);
+            if (imageEntry != null && streamProvider.equals(imageEntry.inputStreamProvider)) {
+                if (debug) Log.w(TAG, "requestImage() wow, we already inflated one: [" + imageEntry.originalWidth + "x" + imageEntry.originalHeight + "] put it in spec");
+                spec.originalWidth = imageEntry.originalWidth;
+                spec.originalHeight = imageEntry.originalHeight;
+            }
+
+            queue.add(0, spec);                             // and put it to the surface in front of all
+            loaderMonitor.notifyAll();
+        }
+        if (debug) Log.w(TAG, "requestBitmap() cache: " + cache.size() + ", queue: " + queue.size() + ", id: " + id + ", reqs: " + requiredWidth + "x" + requiredHeight);
+        return spec;
+    }
+
+    /** @return true if image decoded for spec is not smaller than required, 0 means original size */
+    private static boolean covers(ImageSpec spec, int requiredWidth, int requiredHeight) {
+        boolean width  = spec.requiredWidth  == 0 || requiredWidth  != 0 && spec.requiredWidth  >= requiredWidth;
+        boolean height = spec.requiredHeight == 0 || requiredHeight != 0 && spec.requiredHeight >= requiredHeight;
+        return width && height;
+    }
+
+    /** pick first spec in queue that has inputstream ready, bounds only need header */
+    private ImageSpec nextSpec() {
+        synchronized (loaderMonitor) {
+            // picking from queue
+            for (int i = 0; i < queue.size(); i++) {
+                ImageSpec imageSpec = queue.get(i);
+                InputStreamProvider provider = imageSpec.inputStreamProvider;
+                if (provider instanceof StreamingProvider && ((StreamingProvider) provider).isFailed()) {
+                    if (debug) Log.w(TAG, "nextSpec() download failed, dropping: " + imageSpec);
+                    queue.remove(i--);                      // would never be ready, next request brings new provider
+                    continue;
+                }
+                if (provider.ready() || imageSpec.decodeOnly && provider.headerReady()) { // ready to inflate
+                    return queue.remove(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    /** @return imageSpec if image is scheduled, null otherwise */
+    public ImageSpec getScheduled(Object id) {
+        synchronized (loaderMonitor) {
+            if (inProgress != null && inProgress.id.equals(id)) return inProgress;
+            // picking from queue
+            for (int i = 0; i < queue.size(); i++) {
+                ImageSpec imageSpec = queue.get(i);
+                if (imageSpec.id.equals(id)) { // ready to inflate
+                    return imageSpec;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Everything you need to know about image even if it is not in memory
+     */
+    public static class ImageSpec {
+        public Object id;
+        public InputStreamProvider inputStreamProvider;
+        public int requiredWidth;
+        public int requiredHeight;
+        public int originalWidth;
+        public int originalHeight;
+        public boolean gif;
+        public int retries = 0;
+        public boolean decodeOnly;
+        /** true when spec left the loader: image is decoded or request is dropped. Listeners are not notified anymore */
+        public volatile boolean finished;
+        public final ArrayList<ImageLoadListener> listeners = new ArrayList<ImageLoadListener>();
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(" .o[").append(originalWidth).append("x").append(originalHeight).append("]");
+            if (requiredWidth != 0 || requiredHeight != 0) sb.append(", .r[").append(requiredWidth).append("x").append(requiredHeight).append("]");
+            sb.append(" .id: ").append(id);
+            sb.append(gif ? ", gif" : "");
+            return sb.toString();
+        }
+
+    }
+
+    public interface ImageLoadListener {
+        public void onImageLoaded(ImageSpec spec);
+    }
+
+    public static abstract class InputStreamProvider {
+        public abstract InputStream getInputStream();
+        public abstract boolean ready();
+
+        /** 
+         * @return true if stream has enough bytes to decode bounds. Providers of content that is still
+         * being downloaded, like {@link StreamingProvider}, may be ready for that before {@link #ready()}
+         */
+        public boolean headerReady() {
+            return ready();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Logging for platform independent code. Writes to console until {@link #setLogBack(LogBack)}
+ * is called. Android module routes it to LogCat from <code>Dt.Log</code>
+ *
+ * @author Oleg Orlov
+ * @since  26 Oct 2015
+ */
+public class Log {
+
+    /** same values as android.util.Log has */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG   = 3;
+    public static final int INFO    = 4;
+    public static final int WARN    = 5;
+    public static final int ERROR   = 6;
+
+    private static volatile LogBack log = new LogBackConsole();
+
+    public static LogBack setLogBack(LogBack logBack) {
+        LogBack existing = log;
+        log = logBack;
+        return existing;
+    }
+
+    public static void v(String tag, String what) {
+        log.log(VERBOSE, tag, what(what), null);
+    }
+
+    public static void d(String tag, String what) {
+        log.log(DEBUG, tag, what(what), null);
+    }
+
+    public static void d(String tag, String what, Throwable e) {
+        log.log(DEBUG, tag, what(what), e);
+    }
+
+    public static void i(String tag, String what) {
+        log.log(INFO, tag, what(what), null);
+    }
+
+    public static void w(String tag, String what) {
+        log.log(WARN, tag, what(what), null);
+    }
+
+    public static void w(String tag, String what, Throwable e) {
+        log.log(WARN, tag, what(what), e);
+    }
+
+    public static void e(String tag, String what) {
+        log.log(ERROR, tag, what(what), null);
+    }
+
+    public static void e(String tag, String what, Throwable e) {
+        log.log(ERROR, tag, what(what), e);
+    }
+
+    private static ThreadLocal<StringBuilder> localSb = new ThreadLocal<StringBuilder>();
+
+    /** appends memory stats and thread name to log message */
+    public static String what(String what) {
+
+        if (false) return what;
+
+        StringBuilder sb = localSb.get();
+        if (sb == null) localSb.set(sb = new StringBuilder(1000));// = new StringBuilder(what.length() + 42 + Thread.currentThread().getName().length() + 2);
+        sb.setLength(0);
+
+        sb.append(what);
+
+        long totalMemory = Runtime.getRuntime().totalMemory();
+        long freeMemory = Runtime.getRuntime().freeMemory();
+        long maxMemory = Runtime.getRuntime().maxMemory();
+
+        sb.append(" [");
+        sb.append("T:").append((totalMemory / 1024));
+        sb.append("|F:").append((freeMemory / 1024));
+        sb.append("|X:").append((maxMemory / 1024));
+        sb.append("|U:").append(((totalMemory - freeMemory) / 1024));
+
+        sb.append("]");
+        sb.append(" [").append(Thread.currentThread().getName()).append("]");
+        return sb.toString();
+    }
+
+    public static abstract class LogBack {
+        /** @param e - may be null */
+        public abstract void log(int priority, String tag, String what, Throwable e);
+    }
+
+    public static class LogBackConsole extends LogBack {
+        private static final String LEVELS = "??VDIWE";
+        private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+
+        public void log(int priority, String tag, String what, Throwable e) {
+            String line;
+            synchronized (sdf) {
+                line = sdf.format(new Date()) + " (" + LEVELS.charAt(priority) + "/" + tag + "): " + what;
+            }
+            if (priority >= ERROR) {
+                System.err.println(line);
+                if (e != null) e.printStackTrace(System.err);
+            } else {
+                System.out.println(line);
+                if (e != null) e.printStackTrace(System.out);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link DownloadQueue.Fetcher} that downloads large content with several parallel <code>Range</code>
+ * requests, each written straight into its region of preallocated file with {@link FileChannel} positional writes
+ * <p>
+ * First request asks for <code>bytes=0-(threshold-1)</code>, so content below threshold arrives complete with it
+ * and costs nothing extra. <code>Content-Range</code> of larger one tells the length, the rest is split into
+ * segments. Every segment is requested with <code>If-Range</code> of the first response and must come back
+ * as <code>206</code> with exactly requested range, so parts of changed content are never stitched together
+ * <p>
+ * Segments are fetched by calling thread and by helpers of shared pool. Every helper connection takes permit from
+ * {@link DownloadQueue.ConnectionPermits}, so {@link DownloadQueue#setMaxConnectionsPerHost(int)} counts them together
+ * with downloads. Segments nobody else has picked up are fetched by calling thread
+ * <p>
+ * Content that comes whole with the first response is written sequentially with <code>If-Range</code> validator
+ * next to it, the same way {@link Http#downloadToFile(String, File, SSLSocketFactory, Http.Validators)} does, so
+ * interrupted download is resumed by the next attempt. Preallocated file of segments has holes until complete and
+ * is deleted on failure. Empty content answers the first request with <code>416</code> and <code>bytes *&#47;0</code>
+ * <p>
+ * Servers without ranges support get plain download. Revalidation of cached content and resume of
+ * interrupted downloads are done by {@link Http#downloadToFile(String, File, SSLSocketFactory, Http.Validators)}
+ *
+ * @since  19 Oct 2026
+ */
+public class SegmentedFetcher implements DownloadQueue.StreamingFetcher, DownloadQueue.MultiConnectionFetcher {
+    private static final String TAG = SegmentedFetcher.class.getSimpleName();
+    private static final boolean debug = false;
+
+    public static final long DEFAULT_THRESHOLD_BYTES        = 2L * 1024 * 1024;
+    public static final int  DEFAULT_SEGMENTS               = 4;
+    public static final long DEFAULT_MIN_SEGMENT_BYTES      = 512L * 1024;
+    /** helper connections per host of fetcher that is not used by {@link DownloadQueue} */
+    public static final int  DEFAULT_MAX_HELPERS_PER_HOST   = 3;
+
+    /** runs helpers of all fetchers, number of them is bound by permits */
+    private static final ExecutorService helperPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger nextId = new AtomicInteger();
+        public Thread newThread(Runnable runnable) {
+            Thread helper = new Thread(runnable, "Atlas-Segment-" + nextId.incrementAndGet());
+            helper.setDaemon(true);
+            return helper;
+        }
+    });
+
+    private final long thresholdBytes;
+    private final int segments;
+    private final long minSegmentBytes;
+    private volatile DownloadQueue.ConnectionPermits permits = new HelperPermits(DEFAULT_MAX_HELPERS_PER_HOST);
+
+    public SegmentedFetcher() {
+        this(DEFAULT_THRESHOLD_BYTES, DEFAULT_SEGMENTS, DEFAULT_MIN_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param thresholdBytes  - content larger than that is downloaded in segments
+     * @param segments        - max number of segments the rest of content is split into
+     * @param minSegmentBytes - smaller segments are not worth own connection
+     */
+    public SegmentedFetcher(long thresholdBytes, int segments, long minSegmentBytes) {
+        if (thresholdBytes < 1) throw new IllegalArgumentException("thresholdBytes must be positive: " + thresholdBytes);
+        if (segments < 1) throw new IllegalArgumentException("segments must be positive: " + segments);
+        if (minSegmentBytes < 1) throw new IllegalArgumentException("minSegmentBytes must be positive: " + minSegmentBytes);
+        this.thresholdBytes = thresholdBytes;
+        this.segments = segments;
+        this.minSegmentBytes = minSegmentBytes;
+    }
+
+    /** Is called by {@link DownloadQueue} the fetcher is set to */
+    public void setConnectionPermits(DownloadQueue.ConnectionPermits permits) {
+        if (permits == null) throw new IllegalArgumentException("permits cannot be null");
+        this.permits = permits;
+    }
+
+    public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory) {
+        return fetch(url, toFile, sslFactory, null);
+    }
+
+    public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators) {
+        return fetch(url, toFile, sslFactory, validators, null, null);
+    }
+
+    public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators, StreamingProvider tee, Http.Progress progress) {
+        boolean revalidate = validators != null && (validators.etag != null || validators.lastModified != 0) && toFile.exists();
+        boolean resume = new File(toFile.getAbsolutePath() + Http.IF_RANGE_SUFFIX).exists();
+        if (revalidate || resume) {
+            return Http.downloadToFile(url, toFile, sslFactory, validators, tee, progress);
+        }
+        return download(url, toFile, sslFactory, validators, tee, progress);
+    }
+
+    private boolean download(final String url, File file, final SSLSocketFactory sslFactory, Http.Validators validators, final StreamingProvider tee, final Http.Progress progress) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "download() could not create folders, url: [" + url + "] dir: " + dir.getAbsolutePath());
+            return false;
+        }
+        File tempFile = new File(file.getAbsolutePath() + Http.PARTIAL_SUFFIX);
+        File ifRangeFile = new File(file.getAbsolutePath() + Http.IF_RANGE_SUFFIX);
+
+        HttpURLConnection first = null;
+        RandomAccessFile raf = null;
+        // sequentially written partial is resumed by Http.downloadToFile while it has validator, preallocated one has holes
+        boolean keepPartial = false;
+        try {
+            first = Http.openHttpConnection(url, Http.HTTP_GET, null, sslFactory, Http.TIMEOUT_MILLIS, null, "bytes=0-" + (thresholdBytes - 1), null);
+            int responseCode = first.getResponseCode();
+            if (progress != null) progress.setResponseCode(responseCode);
+            // empty content has no byte to ask for
+            boolean empty = responseCode == Http.HTTP_RANGE_NOT_SATISFIABLE && Http.parseUnsatisfiedRange(first.getHeaderField("Content-Range")) == 0;
+            if (!empty && responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                Log.e(TAG, "download() expected status 200 or 206, but got " + responseCode + ", message: " + first.getResponseMessage() + ", url: [" + url + "]");
+                return false;
+            }
+            long[] contentRange = responseCode == HttpURLConnection.HTTP_PARTIAL ? Http.parseContentRange(first.getHeaderField("Content-Range")) : null;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && (contentRange == null || contentRange[0] != 0 || contentRange[2] < 0)) {
+                if (debug) Log.w(TAG, "download() unusable Content-Range: " + first.getHeaderField("Content-Range") + ", plain download: " + url);
+                first.disconnect();
+                first = null;
+                keepPartial = true;                         // belongs to plain download now
+                return Http.downloadToFile(url, file, sslFactory, validators, tee, progress);
+            }
+            boolean segmented = contentRange != null && contentRange[1] + 1 < contentRange[2];
+            String ifRange = empty ? null : Http.ifRangeValidator(first);
+            if (segmented && ifRange == null) {
+                // remaining parts cannot be verified to belong to the same content
+                if (debug) Log.w(TAG, "download() no validator, plain download: " + url);
+                first.disconnect();
+                first = null;
+                keepPartial = true;                         // belongs to plain download now
+                return Http.downloadToFile(url, file, sslFactory, validators, tee, progress);
+            }
+
+            raf = new RandomAccessFile(tempFile, "rw");
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            if (!segmented) {
+                // whole content comes with this response, validator is written before any byte of it
+                keepPartial = ifRange != null && Streams.writeString(ifRangeFile, ifRange);
+                if (!keepPartial) ifRangeFile.delete();
+                long expected = empty ? 0 : contentRange != null ? contentRange[2] : Http.parseLong(first.getHeaderField("Content-Length"), -1);
+                if (progress != null) progress.start(0, expected);
+                long written = empty ? 0 : copy(first.getInputStream(), channel, 0, Long.MAX_VALUE, tee, progress);
+                if (expected != -1 && written != expected) {
+                    Log.e(TAG, "download() size mismatch for [" + url + "] expected: " + expected + " actual: " + written);
+                    if (written > expected) keepPartial = false;        // shorter one is resumed, longer one is broken
+                    return false;
+                }
+            } else {
+                ifRangeFile.delete();
+                long total = contentRange[2];
+                long firstLength = contentRange[1] + 1;
+                raf.setLength(total);
+                if (progress != null) progress.start(0, total);
+                long written = copy(first.getInputStream(), channel, 0, firstLength, tee, progress);
+                if (written != firstLength) {
+                    Log.e(TAG, "download() first segment is short for [" + url + "] expected: " + firstLength + " actual: " + written);
+                    return false;
+                }
+                if (!downloadSegments(url, sslFactory, channel, firstLength, total, ifRange, tee, progress)) return false;
+            }
+            channel.force(false);
+            raf.close();
+            raf = null;
+
+            if (validators != null) {
+                validators.etag = first.getHeaderField("ETag");
+                validators.lastModified = first.getLastModified();
+                validators.notModified = false;
+            }
+            // written in place, so rename is the last step
+            if (!tempFile.renameTo(file)) {
+                Log.e(TAG, "download() could not rename temp file: " + tempFile.getAbsolutePath() + " to: " + file.getAbsolutePath());
+                return false;
+            }
+            ifRangeFile.delete();
+            keepPartial = true;                             // nothing left of it
+            if (debug) Log.w(TAG, "download() successfully downloaded " + file.length() + " bytes: " + url);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "download() failed for [" + url + "], partial is " + (keepPartial ? "kept: " + tempFile.length() : "dropped"), e);
+            return false;
+        } finally {
+            if (first != null) first.disconnect();
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {}
+            }
+            if (!keepPartial) {
+                tempFile.delete();
+                ifRangeFile.delete();
+            }
+        }
+    }
+
+    /** downloads <code>[from, total)</code> in parallel segments. Calling thread fetches segments too */
+    private boolean downloadSegments(final String url, final SSLSocketFactory sslFactory, final FileChannel channel, long from, final long total, final String ifRange, final StreamingProvider tee, final Http.Progress progress) {
+        long remaining = total - from;
+        int count = (int) Math.max(1, Math.min(segments, remaining / minSegmentBytes));
+        long segmentBytes = (remaining + count - 1) / count;
+        final ArrayList<long[]> ranges = new ArrayList<long[]>(count);
+        for (long start = from; start < total; start += segmentBytes) {
+            ranges.add(new long[] {start, Math.min(start + segmentBytes, total) - 1});
+        }
+
+        final AtomicInteger nextRange = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Runnable fetchRanges = new Runnable() {
+            public void run() {
+                for (int i; !failed.get() && (i = nextRange.getAndIncrement()) < ranges.size(); ) {
+                    long[] range = ranges.get(i);
+                    if (!downloadSegment(url, sslFactory, channel, range[0], range[1], total, ifRange, tee, progress)) failed.set(true);
+                }
+            }
+        };
+
+        final DownloadQueue.ConnectionPermits permits = this.permits;
+        ArrayList<Future<?>> helpers = new ArrayList<Future<?>>();
+        for (int i = 1; i < ranges.size() && permits.tryAcquire(url); i++) {
+            helpers.add(helperPool.submit(new Runnable() {
+                public void run() {
+                    try {
+                        fetchRanges.run();
+                    } finally {
+                        permits.release(url);
+                    }
+                }
+            }));
+        }
+        if (debug) Log.w(TAG, "downloadSegments() " + ranges.size() + " segments of " + segmentBytes + " bytes, helpers: " + helpers.size() + ", url: " + url);
+
+        fetchRanges.run();
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "downloadSegments() helper failed for [" + url + "]", e.getCause());
+                    failed.set(true);
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return !failed.get();
+    }
+
+    /** @return true if <code>[first, last]</code> is written completely */
+    private static boolean downloadSegment(String url, SSLSocketFactory sslFactory, FileChannel channel, long first, long last, long total, String ifRange, StreamingProvider tee, Http.Progress progress) {
+        HttpURLConnection httpConn = null;
+        try {
+            httpConn = Http.openHttpConnection(url, Http.HTTP_GET, null, sslFactory, Http.TIMEOUT_MILLIS, null, "bytes=" + first + "-" + last, ifRange);
+            int responseCode = httpConn.getResponseCode();
+            long[] contentRange = Http.parseContentRange(httpConn.getHeaderField("Content-Range"));
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                    || contentRange[0] != first || contentRange[1] != last || contentRange[2] != total) {
+                Log.e(TAG, "downloadSegment() expected 206 for " + first + "-" + last + "/" + total + ", but got " + responseCode
+                        + " " + httpConn.getHeaderField("Content-Range") + ", url: [" + url + "]");
+                return false;
+            }
+            long expected = last - first + 1;
+            long written = copy(httpConn.getInputStream(), channel, first, expected, tee, progress);
+            if (written != expected) {
+                Log.e(TAG, "downloadSegment() segment " + first + "-" + last + " is short: " + written + ", url: [" + url + "]");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "downloadSegment() failed " + first + "-" + last + " for [" + url + "]", e);
+            return false;
+        } finally {
+            if (httpConn != null) httpConn.disconnect();
+        }
+    }
+
+    /**
+     * @param tee      - receives every chunk with its position, may be null
+     * @param progress - is updated with every chunk, may be null
+     * @return number of bytes written at position, no more than limit
+     */
+    private static long copy(InputStream from, FileChannel to, long position, long limit, StreamingProvider tee, Http.Progress progress) throws IOException {
+        byte[] buffer = new byte[Streams.STREAM_COPY_DEFAULT_BUFSIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long total = 0;
+        try {
+            for (int bytesRead; total < limit && (bytesRead = from.read(buffer, 0, (int) Math.min(buffer.length, limit - total))) != -1; ) {
+                wrapped.clear();
+                wrapped.limit(bytesRead);
+                while (wrapped.hasRemaining()) {
+                    to.write(wrapped, position + total + wrapped.position());
+                }
+                if (tee != null) tee.write(position + total, buffer, 0, bytesRead);
+                if (progress != null) progress.add(bytesRead);
+                total += bytesRead;
+            }
+        } finally {
+            Streams.closeQuietly(from);
+        }
+        return total;
+    }
+
+    /** Helper connections per host of standalone fetcher. Hosts without helpers are forgotten */
+    private static final class HelperPermits implements DownloadQueue.ConnectionPermits {
+        private final int maxPerHost;
+        private final HashMap<String, Integer> helpers = new HashMap<String, Integer>();
+
+        HelperPermits(int maxPerHost) {
+            this.maxPerHost = maxPerHost;
+        }
+
+        public synchronized boolean tryAcquire(String url) {
+            String host = DownloadQueue.hostOf(url);
+            Integer running = helpers.get(host);
+            int count = running == null ? 0 : running;
+            if (count >= maxPerHost) return false;
+            helpers.put(host, count + 1);
+            return true;
+        }
+
+        public synchronized void release(String url) {
+            String host = DownloadQueue.hostOf(url);
+            Integer running = helpers.get(host);
+            if (running == null) return;
+            if (running <= 1) helpers.remove(host); else helpers.put(host, running - 1);
+        }
+    }
+}
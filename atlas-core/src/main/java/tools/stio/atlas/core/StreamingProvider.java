@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * {@link ImageLoader.InputStreamProvider} of content that is being downloaded. Network stream is teed
+ * into growing buffer, so {@link ImageLoader} decodes bounds as soon as header bytes arrive
+ * and full image does not need another pass over the file
+ * <p>
+ * Only contiguous bytes from the beginning of content are buffered. Resumed or segmented downloads
+ * and content above {@link #DEFAULT_MAX_BYTES} stop buffering: readers that need more wait for
+ * {@link #complete(File)} and continue from the file at their position. Buffer is dropped once file is
+ * complete, new streams read the file
+ * <p>
+ * Streams block while waiting for content and fail if download fails or receives nothing for {@link #STALL_TIMEOUT_MILLIS},
+ * including bytes that are not buffered
+ *
+ * @since  19 Oct 2026
+ */
+public class StreamingProvider extends ImageLoader.InputStreamProvider {
+    private static final String TAG = StreamingProvider.class.getSimpleName();
+    private static final boolean debug = false;
+
+    /** enough for bounds of most images, including JPEGs with EXIF thumbnail */
+    public static final int DEFAULT_HEADER_BYTES = 32 * 1024;
+    /** larger content is not kept in memory */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    static final long STALL_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final Object monitor = new Object();
+    private final int headerBytes;
+    private final int maxBytes;
+
+    private byte[] buffer = new byte[16 * 1024];
+    private int count;
+    /** bytes fetcher passed, buffered or not. Tells that download goes while buffer does not grow */
+    private long received;
+    /** no more bytes are buffered, content is expected in file */
+    private boolean detached;
+    private File file;
+    private boolean failed;
+
+    public StreamingProvider() {
+        this(DEFAULT_HEADER_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param headerBytes - {@link #headerReady()} when that many bytes arrived
+     * @param maxBytes    - content is not buffered beyond that
+     */
+    public StreamingProvider(int headerBytes, int maxBytes) {
+        if (headerBytes < 1 || maxBytes < headerBytes) throw new IllegalArgumentException("expected 0 < headerBytes <= maxBytes, got: " + headerBytes + ", " + maxBytes);
+        this.headerBytes = headerBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Is called by fetcher for every chunk it receives
+     * @param offset - position of chunk in content. Chunks that do not continue buffered content are ignored
+     */
+    public void write(long offset, byte[] bytes, int off, int len) {
+        synchronized (monitor) {
+            if (file != null || failed) return;
+            received += len;                            // waiting readers check it after timeout
+            if (detached) return;
+            if (offset != count) return;                // parallel segment or resumed tail, is read from file later
+            if (count + len > maxBytes) {
+                if (debug) Log.w(TAG, "write() content is above " + maxBytes + ", waiting for file");
+                detached = true;
+                return;
+            }
+            if (count + len > buffer.length) {
+                byte[] grown = new byte[Math.min(maxBytes, Math.max(buffer.length * 2, count + len))];
+                System.arraycopy(buffer, 0, grown, 0, count);
+                buffer = grown;
+            }
+            System.arraycopy(bytes, off, buffer, count, len);
+            count += len;
+            monitor.notifyAll();
+        }
+    }
+
+    /** content is downloaded completely into file. Buffer is released */
+    public void complete(File file) {
+        if (file == null) throw new IllegalArgumentException("file cannot be null");
+        synchronized (monitor) {
+            if (debug) Log.w(TAG, "complete() buffered: " + count + ", file: " + file.length() + ", " + file);
+            this.file = file;
+            this.buffer = null;
+            this.count = 0;
+            monitor.notifyAll();
+        }
+    }
+
+    /** download failed, waiting streams throw {@link IOException} */
+    public void fail() {
+        synchronized (monitor) {
+            if (file != null) return;
+            if (debug) Log.w(TAG, "fail() buffered: " + count);
+            this.failed = true;
+            this.buffer = null;
+            this.count = 0;
+            monitor.notifyAll();
+        }
+    }
+
+    /** full content is available */
+    public boolean ready() {
+        synchronized (monitor) {
+            return file != null;
+        }
+    }
+
+    /** download failed, stream is useless */
+    public boolean isFailed() {
+        synchronized (monitor) {
+            return failed;
+        }
+    }
+
+    /** enough content to decode bounds, or the whole content is available */
+    public boolean headerReady() {
+        synchronized (monitor) {
+            return file != null || count >= headerBytes;
+        }
+    }
+
+    /** @return null if download failed */
+    public InputStream getInputStream() {
+        synchronized (monitor) {
+            if (failed) return null;
+        }
+        return new ContentStream();
+    }
+
+    /** reads buffered bytes, waiting for more while download goes, then continues from file */
+    private final class ContentStream extends InputStream {
+        private long position;
+        private InputStream fileStream;
+        private boolean closed;
+
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (closed) throw new IOException("stream is closed");
+            if (len == 0) return 0;
+            if (fileStream == null) {
+                File from;
+                synchronized (monitor) {
+                    long waitedFor = received;
+                    while (true) {
+                        if (buffer != null && position < count) {
+                            int read = (int) Math.min(len, count - position);
+                            System.arraycopy(buffer, (int) position, bytes, off, read);
+                            position += read;
+                            return read;
+                        }
+                        if (file != null) break;
+                        if (failed) throw new IOException("download failed");
+                        try {
+                            monitor.wait(STALL_TIMEOUT_MILLIS);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException("interrupted while waiting for content");
+                        }
+                        if (received == waitedFor && file == null && !failed) throw new IOException("download stalled at " + received);
+                        waitedFor = received;
+                    }
+                    from = file;
+                }
+                fileStream = openAt(from, position);
+            }
+            int read = fileStream.read(bytes, off, len);
+            if (read > 0) position += read;
+            return read;
+        }
+
+        public void close() throws IOException {
+            closed = true;
+            Streams.closeQuietly(fileStream);
+        }
+    }
+
+    private static InputStream openAt(File file, long position) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            for (long left = position; left > 0; ) {
+                long skipped = is.skip(left);
+                if (skipped <= 0) throw new IOException("file is shorter than " + position + ": " + file);
+                left -= skipped;
+            }
+            return is;
+        } catch (IOException e) {
+            Streams.closeQuietly(is);
+            throw e;
+        }
+    }
+}
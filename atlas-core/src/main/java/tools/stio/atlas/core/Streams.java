@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 Oleg Orlov. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Stream helpers shared by Android and JVM code. <code>Atlas.Tools</code> delegates here
+ *
+ * @author Oleg Orlov
+ * @since  12 May 2015
+ */
+public class Streams {
+
+    public static final int STREAM_COPY_DEFAULT_BUFSIZE = 65536;
+
+    /** Better than <b>null</b> for {@link #streamCopy(InputStream, OutputStream)} operations */
+    public static final ReadWriteProgress READ_WRITE_PROGRESS_NOOP = new ReadWriteProgress(){public void onStreamReadWrite(long read, long written) { }};
+
+    /**
+     * Use for {@link #streamCopy(InputStream, OutputStream)} to report copy progress
+     */
+    public interface ReadWriteProgress {
+        /** reports on every stream read or write total amount of bytes processed by each op */
+        void onStreamReadWrite(long read, long written);
+    }
+
+    public static void closeQuietly(InputStream stream) {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (Throwable ignoredQueitly) {}
+    }
+
+    public static void closeQuietly(OutputStream stream) {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (Throwable ignoredQueitly) {}
+    }
+
+    /**
+     * @return number of copied bytes
+     */
+    public static int streamCopyAndClose(InputStream from, OutputStream to, ReadWriteProgress rwProgress) throws IOException {
+        int totalBytes = streamCopy(from, to, STREAM_COPY_DEFAULT_BUFSIZE, rwProgress);
+        from.close();
+        to.close();
+        return totalBytes;
+    }
+
+    /**
+     * @param rwProgress - must be non-null: use {@link #READ_WRITE_PROGRESS_NOOP} instead
+     * @return number of copied bytes
+     */
+    public static int streamCopy(InputStream from, OutputStream to, int bufSize, ReadWriteProgress rwProgress) throws IOException {
+        byte[] buffer = new byte[bufSize];
+        int bytesRead = 0;
+        int totalBytes = 0;
+        for (; (bytesRead = from.read(buffer)) != -1; ) {
+            rwProgress.onStreamReadWrite(totalBytes + bytesRead, totalBytes);
+            to.write(buffer, 0, bytesRead);
+            totalBytes += bytesRead;
+            rwProgress.onStreamReadWrite(totalBytes, totalBytes);
+        }
+        return totalBytes;
+    }
+
+    /**
+     * @return number of copied bytes
+     */
+    public static int streamCopy(InputStream from, OutputStream to) throws IOException {
+        return streamCopy(from, to, STREAM_COPY_DEFAULT_BUFSIZE, READ_WRITE_PROGRESS_NOOP);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** @return content of small UTF-8 text file, or null if file is missing or cannot be read */
+    public static String readString(File file) {
+        if (!file.exists()) return null;
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            streamCopy(is, bytes, 1024, READ_WRITE_PROGRESS_NOOP);
+            return new String(bytes.toByteArray(), UTF8);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    /** @return true if file is written */
+    public static boolean writeString(File file, String content) {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file, false);
+            os.write(content.getBytes(UTF8));
+            os.close();
+            os = null;
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @since  19 Oct 2026
+ */
+public class DiskCacheTest {
+
+    private static final String A = "http://example.com/a.jpg";
+    private static final String B = "http://example.com/b.jpg";
+    private static final String C = "http://example.com/c.jpg";
+    private static final String D = "http://example.com/d.jpg";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = temp.newFolder("cache");
+    }
+
+    @Test
+    public void restoresEntriesWithValidatorsAfterReopen() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        write(cache.fileFor(B), 20);
+        cache.commit(B, "\"b1\"", 1234000L);
+
+        DiskCache reopened = new DiskCache(dir, 1000);
+        assertEquals(2, reopened.count());
+        assertEquals(30, reopened.size());
+        DiskCache.Entry b = reopened.getEntry(B);
+        assertNotNull(b);
+        assertEquals(20, b.length);
+        assertEquals("\"b1\"", b.etag);
+        assertEquals(1234000L, b.lastModified);
+        assertNull(reopened.getEntry(A).etag);
+    }
+
+    @Test
+    public void skipsTornAndGarbledLines() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        appendJournal("PUT " + DiskCache.key(C) + " 1x 0 0\n");     // garbled number
+        appendJournal("READ\n");                                    // torn before key
+        appendJournal("PUT " + DiskCache.key(D));                   // torn last line, no newline
+
+        DiskCache reopened = new DiskCache(dir, 1000);
+        assertEquals(2, reopened.count());
+        assertTrue(reopened.contains(A));
+        assertTrue(reopened.contains(B));
+        assertFalse(reopened.contains(C));
+        assertFalse(reopened.contains(D));
+    }
+
+    @Test
+    public void keepsLineWrittenAfterTornOne() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        appendJournal("DE");                                        // crash in the middle of a line
+
+        DiskCache reopened = new DiskCache(dir, 1000);
+        put(reopened, C, 10);
+        reopened.remove(A);
+
+        DiskCache again = new DiskCache(dir, 1000);
+        assertTrue(again.contains(C));
+        assertFalse(again.contains(A));
+        assertEquals(10, again.size());
+    }
+
+    @Test
+    public void unknownJournalStartsFromScratch() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        File journal = new File(dir, DiskCache.JOURNAL);
+        OutputStream out = new FileOutputStream(journal);
+        out.write("atlas-disk-cache 0\n".getBytes("UTF-8"));
+        out.close();
+
+        DiskCache reopened = new DiskCache(dir, 1000);
+        assertEquals(0, reopened.count());
+        assertFalse(cache.fileFor(A).exists());
+        put(reopened, B, 10);
+        assertTrue(new DiskCache(dir, 1000).contains(B));
+    }
+
+    @Test
+    public void dropsEntryWhichFileChangedOrIsLost() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        write(cache.fileFor(A), 7);                                 // rewritten without commit
+        assertTrue(cache.fileFor(B).delete());                      // system cleaned cache dir
+
+        DiskCache reopened = new DiskCache(dir, 1000);
+        assertEquals(0, reopened.count());
+        assertEquals(0, reopened.size());
+        assertFalse(cache.fileFor(A).exists());
+    }
+
+    @Test
+    public void deletesUnknownFilesButKeepsPartialDownloads() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        File uncommitted = cache.fileFor(A);
+        write(uncommitted, 10);
+        File partial = new File(cache.fileFor(B).getAbsolutePath() + Http.PARTIAL_SUFFIX);
+        File ifRange = new File(cache.fileFor(B).getAbsolutePath() + Http.IF_RANGE_SUFFIX);
+        write(partial, 5);
+        write(ifRange, 3);
+        File stalePartial = new File(cache.fileFor(C).getAbsolutePath() + Http.PARTIAL_SUFFIX);
+        write(stalePartial, 5);
+        assertTrue(stalePartial.setLastModified(System.currentTimeMillis() - DiskCache.PARTIAL_MAX_AGE_MILLIS - 60000));
+
+        new DiskCache(dir, 1000);
+        assertFalse(uncommitted.exists());
+        assertTrue(partial.exists());
+        assertTrue(ifRange.exists());
+        assertFalse(stalePartial.exists());
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsed() throws IOException {
+        DiskCache cache = new DiskCache(dir, 30);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        put(cache, C, 10);
+        assertNotNull(cache.getEntry(A));
+        put(cache, D, 10);
+
+        assertTrue(cache.contains(A));
+        assertFalse(cache.contains(B));
+        assertFalse(cache.fileFor(B).exists());
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void lookupDoesNotWriteJournal() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        File journal = new File(dir, DiskCache.JOURNAL);
+        long length = journal.length();
+
+        assertNotNull(cache.getEntry(A));
+        assertNotNull(cache.get(A));
+        assertNull(cache.getEntry(B));
+        assertEquals(length, journal.length());
+
+        cache.flush();
+        assertTrue(journal.length() > length);
+        length = journal.length();
+        cache.flush();                                              // nothing was read since
+        assertEquals(length, journal.length());
+    }
+
+    @Test
+    public void flushPersistsUsageOrder() throws IOException {
+        DiskCache cache = new DiskCache(dir, 30);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        put(cache, C, 10);
+        cache.getEntry(B);
+        cache.getEntry(A);
+        cache.flush();
+
+        DiskCache reopened = new DiskCache(dir, 30);
+        put(reopened, D, 10);
+        assertFalse(reopened.contains(C));
+        assertTrue(reopened.contains(A));
+        assertTrue(reopened.contains(B));
+    }
+
+    @Test
+    public void readsAreJournaledWithNextCommit() throws IOException {
+        DiskCache cache = new DiskCache(dir, 40);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        cache.getEntry(A);
+        put(cache, C, 10);
+
+        DiskCache reopened = new DiskCache(dir, 20);                // smaller quota trims on open
+        assertFalse(reopened.contains(B));
+        assertTrue(reopened.contains(A));
+        assertTrue(reopened.contains(C));
+    }
+
+    @Test
+    public void removeIsJournaled() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        put(cache, A, 10);
+        put(cache, B, 10);
+        cache.remove(A);
+        cache.remove(C);                                            // not cached, nothing happens
+
+        assertFalse(cache.fileFor(A).exists());
+        DiskCache reopened = new DiskCache(dir, 1000);
+        assertFalse(reopened.contains(A));
+        assertTrue(reopened.contains(B));
+        assertEquals(10, reopened.size());
+    }
+
+    @Test
+    public void commitWithoutFileIsIgnored() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        cache.commit(A);
+        assertFalse(cache.contains(A));
+        assertEquals(0, cache.count());
+    }
+
+    @Test
+    public void etagThatCannotBeJournaledIsDropped() throws IOException {
+        DiskCache cache = new DiskCache(dir, 1000);
+        write(cache.fileFor(A), 10);
+        cache.commit(A, "\"two words\"", 0);
+        assertNull(cache.getEntry(A).etag);
+        assertTrue(new DiskCache(dir, 1000).contains(A));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroQuota() {
+        new DiskCache(dir, 0);
+    }
+
+    private static void put(DiskCache cache, String url, int length) throws IOException {
+        write(cache.fileFor(url), length);
+        cache.commit(url);
+    }
+
+    private static void write(File file, int length) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void appendJournal(String text) throws IOException {
+        OutputStream out = new FileOutputStream(new File(dir, DiskCache.JOURNAL), true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
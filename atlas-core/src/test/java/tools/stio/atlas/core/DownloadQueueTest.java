@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.Test;
+
+/**
+ * Retries, backoff and circuit breaker of {@link DownloadQueue} against fetcher that fails on demand
+ *
+ * @since  19 Oct 2026
+ */
+public class DownloadQueueTest {
+
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    @Test
+    public void retriesWithBackoffThenFails() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        Listener listener = new Listener(1);
+
+        queue.schedule("http://host/a", listener);
+        listener.await();
+
+        assertEquals(DownloadQueue.DEFAULT_MAX_ATTEMPTS, fetcher.count());
+        assertEquals(1, listener.failed.size());
+        assertTrue(listener.completed.isEmpty());
+        // jitter keeps delay between half and whole of doubling one
+        long first = fetcher.at(1) - fetcher.at(0);
+        long second = fetcher.at(2) - fetcher.at(1);
+        assertTrue("first retry after " + first + " ms", first >= DownloadQueue.RETRY_BASE_DELAY_MILLIS / 2);
+        assertTrue("second retry after " + second + " ms", second >= DownloadQueue.RETRY_BASE_DELAY_MILLIS);
+        assertFalse(queue.isScheduled("http://host/a"));
+    }
+
+    @Test
+    public void tempFileIsResumedAcrossRetriesAndDeletedOnFailure() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        fetcher.leavePartial = true;
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        queue.setMaxAttempts(2);
+        Listener listener = new Listener(1);
+
+        queue.schedule("http://host/a", listener);
+        listener.await();
+
+        assertEquals(2, fetcher.count());
+        File tempFile = fetcher.file(0);
+        assertEquals(tempFile, fetcher.file(1));
+        assertFalse(tempFile.exists());
+        assertFalse(new File(tempFile.getAbsolutePath() + Http.PARTIAL_SUFFIX).exists());
+        assertFalse(new File(tempFile.getAbsolutePath() + Http.IF_RANGE_SUFFIX).exists());
+    }
+
+    @Test
+    public void succeedsOnRetry() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        fetcher.failures = 1;
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        Listener listener = new Listener(1);
+
+        queue.schedule("http://host/a", listener);
+        listener.await();
+
+        assertEquals(2, fetcher.count());
+        assertTrue(listener.failed.isEmpty());
+        assertEquals(1, listener.completed.size());
+        File file = listener.completed.get(0);
+        assertEquals(fetcher.file(0), file);
+        assertTrue(file.exists());
+        file.delete();
+        assertTrue(queue.isHostAvailable("http://host/b"));
+    }
+
+    @Test
+    public void clientErrorIsNotRetriedAndDoesNotOpenCircuit() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        fetcher.responseCode = 404;
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        int downloads = DownloadQueue.CIRCUIT_FAILURE_THRESHOLD + 1;
+        Listener listener = new Listener(downloads);
+
+        for (int i = 0; i < downloads; i++) queue.schedule("http://host/" + i, listener);
+        listener.await();
+
+        assertEquals(downloads, fetcher.count());
+        assertEquals(downloads, listener.failed.size());
+        assertTrue(queue.isHostAvailable("http://host/"));
+    }
+
+    @Test
+    public void serverErrorsAndThrottlingAreRetried() throws Exception {
+        int[] codes = {500, 503, 408, 429};
+        for (int code : codes) {
+            FakeFetcher fetcher = new FakeFetcher();
+            fetcher.responseCode = code;
+            DownloadQueue queue = new DownloadQueue(1, fetcher);
+            queue.setMaxAttempts(2);
+            Listener listener = new Listener(1);
+
+            queue.schedule("http://host/a", listener);
+            listener.await();
+            assertEquals("attempts for " + code, 2, fetcher.count());
+        }
+    }
+
+    @Test
+    public void circuitOpensAfterFailuresInRow() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        queue.setMaxAttempts(1);
+
+        for (int i = 0; i < DownloadQueue.CIRCUIT_FAILURE_THRESHOLD; i++) {
+            assertTrue(queue.isHostAvailable("http://down/"));
+            Listener listener = new Listener(1);
+            queue.schedule("http://down/" + i, listener);
+            listener.await();
+        }
+        assertFalse(queue.isHostAvailable("http://down/"));
+        assertFalse(queue.isHostAvailable("https://DOWN/other"));
+        assertTrue(queue.isHostAvailable("http://down:8080/"));
+
+        // fails right away, without network
+        Listener listener = new Listener(1);
+        queue.schedule("http://down/next", listener);
+        listener.await();
+        assertEquals(1, listener.failed.size());
+        assertEquals(DownloadQueue.CIRCUIT_FAILURE_THRESHOLD, fetcher.count());
+
+        // other hosts are not affected
+        fetcher.failures = 0;
+        Listener other = new Listener(1);
+        queue.schedule("http://up/a", other);
+        other.await();
+        assertEquals(1, other.completed.size());
+        other.completed.get(0).delete();
+    }
+
+    @Test
+    public void successInBetweenKeepsCircuitClosed() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        queue.setMaxAttempts(1);
+
+        // threshold - 1 failures, success, threshold - 1 failures again
+        for (int i = 0; i < DownloadQueue.CIRCUIT_FAILURE_THRESHOLD * 2 - 1; i++) {
+            fetcher.failures = i == DownloadQueue.CIRCUIT_FAILURE_THRESHOLD - 1 ? 0 : Integer.MAX_VALUE;
+            Listener listener = new Listener(1);
+            queue.schedule("http://flaky/" + i, listener);
+            listener.await();
+            for (File file : listener.completed) file.delete();
+        }
+        assertTrue(queue.isHostAvailable("http://flaky/"));
+    }
+
+    @Test
+    public void retryBudgetIsSharedByAllDownloads() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        DownloadQueue queue = new DownloadQueue(4, fetcher);
+        // every download on own host, so no circuit gets open
+        int downloads = 20;
+        Listener listener = new Listener(downloads);
+
+        for (int i = 0; i < downloads; i++) queue.schedule("http://host" + i + "/a", listener);
+        listener.await();
+
+        assertEquals(downloads, listener.failed.size());
+        assertEquals(downloads + (int) DownloadQueue.RETRY_BUDGET_MAX, fetcher.count());
+    }
+
+    @Test
+    public void failureIsDeliveredToEveryListener() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher();
+        fetcher.responseCode = 404;
+        fetcher.delayMillis = 200;
+        DownloadQueue queue = new DownloadQueue(1, fetcher);
+        Listener first = new Listener(1);
+        Listener second = new Listener(1);
+        // doesn't override onDownloadFailed()
+        DownloadQueue.CompleteListener plain = new DownloadQueue.CompleteListener() {
+            public void onDownloadComplete(String url, File file) {}
+        };
+
+        queue.schedule("http://host/a", plain);
+        queue.schedule("http://host/a", first);
+        queue.schedule("http://host/a", second);
+        first.await();
+        second.await();
+
+        assertEquals(1, fetcher.count());
+        assertEquals(1, first.failed.size());
+        assertEquals(1, second.failed.size());
+    }
+
+    @Test
+    public void helperConnectionsCountAgainstHostLimit() throws Exception {
+        HelperFetcher fetcher = new HelperFetcher();
+        DownloadQueue queue = new DownloadQueue(4, fetcher);
+        queue.setMaxConnectionsPerHost(3);
+        Listener listener = new Listener(1);
+
+        queue.schedule("http://host/a", listener);
+        listener.await();
+        // download itself takes one connection
+        assertEquals(2, fetcher.acquired.get(0).intValue());
+        assertFalse(fetcher.otherHostAcquired);
+
+        Listener again = new Listener(1);
+        queue.schedule("http://host/b", again);
+        again.await();
+        assertEquals(2, fetcher.acquired.get(1).intValue());
+        for (File file : listener.completed) file.delete();
+        for (File file : again.completed) file.delete();
+    }
+
+    @Test
+    public void downloadWaitsForHelperConnectionsOfHost() throws Exception {
+        HelperFetcher fetcher = new HelperFetcher();
+        CountDownLatch hold = new CountDownLatch(1);
+        fetcher.holdHelpers = hold;
+        DownloadQueue queue = new DownloadQueue(4, fetcher);
+        queue.setMaxConnectionsPerHost(3);
+        Listener first = new Listener(1);
+        Listener second = new Listener(1);
+
+        queue.schedule("http://host/a", first);
+        assertTrue(fetcher.helpersAcquired.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        queue.schedule("http://host/b", second);
+        Thread.sleep(300);
+        assertEquals(1, fetcher.acquired.size());
+
+        hold.countDown();
+        first.await();
+        second.await();
+        assertEquals(2, fetcher.acquired.size());
+        for (File file : first.completed) file.delete();
+        for (File file : second.completed) file.delete();
+    }
+
+    /** takes every helper connection it can get, like {@link SegmentedFetcher} does for large content */
+    static class HelperFetcher implements DownloadQueue.MultiConnectionFetcher {
+        final List<Integer> acquired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch helpersAcquired = new CountDownLatch(1);
+        /** helpers of the first download are held until it is open */
+        volatile CountDownLatch holdHelpers;
+        volatile boolean otherHostAcquired;
+        private volatile DownloadQueue.ConnectionPermits permits;
+
+        public void setConnectionPermits(DownloadQueue.ConnectionPermits permits) {
+            this.permits = permits;
+        }
+
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory) {
+            int helpers = 0;
+            while (helpers < 10 && permits.tryAcquire(url)) helpers++;
+            acquired.add(helpers);
+            // host without downloads has no connections to lend
+            otherHostAcquired = permits.tryAcquire("http://other/");
+            if (otherHostAcquired) permits.release("http://other/");
+            helpersAcquired.countDown();
+            CountDownLatch hold = holdHelpers;
+            if (hold != null) {
+                holdHelpers = null;
+                try {
+                    hold.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (int i = 0; i < helpers; i++) permits.release(url);
+            return Streams.writeString(toFile, url);
+        }
+    }
+
+    /** fails while it has failures left, then writes content to requested file */
+    static class FakeFetcher implements DownloadQueue.StreamingFetcher {
+        /** failures before the first success */
+        volatile int failures = Integer.MAX_VALUE;
+        /** reported by failed fetch, 0 means no response */
+        volatile int responseCode;
+        /** failed fetch leaves partial content with validator, like interrupted {@link Http} download does */
+        volatile boolean leavePartial;
+        volatile long delayMillis;
+        private final List<File> files = Collections.synchronizedList(new ArrayList<File>());
+        private final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory) {
+            return fetch(url, toFile, sslFactory, null, null, null);
+        }
+
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators) {
+            return fetch(url, toFile, sslFactory, validators, null, null);
+        }
+
+        public boolean fetch(String url, File toFile, SSLSocketFactory sslFactory, Http.Validators validators, StreamingProvider tee, Http.Progress progress) {
+            files.add(toFile);
+            times.add(System.nanoTime() / 1000000);
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                if (failures > 0) {
+                    if (failures != Integer.MAX_VALUE) failures--;
+                    if (progress != null) progress.setResponseCode(responseCode);
+                    if (leavePartial) {
+                        Streams.writeString(new File(toFile.getAbsolutePath() + Http.PARTIAL_SUFFIX), "part");
+                        Streams.writeString(new File(toFile.getAbsolutePath() + Http.IF_RANGE_SUFFIX), "\"v1\"");
+                    }
+                    return false;
+                }
+            }
+            if (progress != null) progress.setResponseCode(200);
+            return Streams.writeString(toFile, url);
+        }
+
+        int count() {
+            return files.size();
+        }
+
+        File file(int fetch) {
+            return files.get(fetch);
+        }
+
+        /** @return millis fetch started at */
+        long at(int fetch) {
+            return times.get(fetch);
+        }
+    }
+
+    static class Listener implements DownloadQueue.CompleteListener {
+        final List<File> completed = Collections.synchronizedList(new ArrayList<File>());
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch done;
+
+        Listener(int downloads) {
+            done = new CountDownLatch(downloads);
+        }
+
+        public void onDownloadComplete(String url, File file) {
+            completed.add(file);
+            done.countDown();
+        }
+
+        public void onDownloadFailed(String url) {
+            failed.add(url);
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("downloads are not done in time", done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @since  19 Oct 2026
+ */
+public class GifTimelineTest {
+
+    @Test
+    public void readsFrameDelays() throws IOException {
+        GifTimeline timeline = parse(new Gif().frame(100).frame(50).frame(250).trailer());
+        assertNotNull(timeline);
+        assertEquals(3, timeline.getFrameCount());
+        assertEquals(0, timeline.getFrameStart(0));
+        assertEquals(100, timeline.getFrameStart(1));
+        assertEquals(150, timeline.getFrameStart(2));
+        assertEquals(400, timeline.getDuration());
+    }
+
+    @Test
+    public void findsFrameByTime() throws IOException {
+        GifTimeline timeline = parse(new Gif().frame(100).frame(50).frame(250).trailer());
+        assertEquals(0, timeline.frameAt(0));
+        assertEquals(0, timeline.frameAt(99));
+        assertEquals(1, timeline.frameAt(100));
+        assertEquals(1, timeline.frameAt(149));
+        assertEquals(2, timeline.frameAt(150));
+        assertEquals(2, timeline.frameAt(399));
+        // loops
+        assertEquals(0, timeline.frameAt(400));
+        assertEquals(2, timeline.frameAt(550));
+        assertEquals(1, timeline.frameAt(400L * 1000000 + 120));
+
+        assertEquals(100, timeline.untilNextFrame(0));
+        assertEquals(30, timeline.untilNextFrame(120));
+        assertEquals(1, timeline.untilNextFrame(399));
+        assertEquals(100, timeline.untilNextFrame(400));
+    }
+
+    @Test
+    public void zeroDelayFrameIsSkipped() throws IOException {
+        GifTimeline timeline = parse(new Gif().frame(100).frame(0).frame(100).trailer());
+        assertEquals(3, timeline.getFrameCount());
+        assertEquals(200, timeline.getDuration());
+        assertEquals(2, timeline.frameAt(100));
+        assertEquals(100, timeline.untilNextFrame(100));
+    }
+
+    @Test
+    public void withoutDelaysReportsDefaultDelay() throws IOException {
+        GifTimeline timeline = parse(new Gif().frameWithoutControl().frameWithoutControl().trailer());
+        assertEquals(2, timeline.getFrameCount());
+        assertEquals(0, timeline.getDuration());
+        assertEquals(0, timeline.frameAt(12345));
+        assertEquals(GifTimeline.DEFAULT_FRAME_DELAY_MILLIS, timeline.untilNextFrame(12345));
+    }
+
+    @Test
+    public void skipsColorTablesAndOtherExtensions() throws IOException {
+        Gif gif = new Gif(true).netscapeLoop().comment("made by hand");
+        gif.frameWithLocalColorTable(70).frame(30).trailer();
+        GifTimeline timeline = parse(gif);
+        assertEquals(2, timeline.getFrameCount());
+        assertEquals(70, timeline.getFrameStart(1));
+        assertEquals(100, timeline.getDuration());
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws IOException {
+        Gif gif = new Gif();
+        for (int i = 0; i < 40; i++) gif.frame(10);
+        GifTimeline timeline = parse(gif.trailer());
+        assertEquals(40, timeline.getFrameCount());
+        assertEquals(390, timeline.getFrameStart(39));
+        assertEquals(400, timeline.getDuration());
+    }
+
+    @Test
+    public void stopsAtUnexpectedBlockKeepingFramesBefore() throws IOException {
+        Gif gif = new Gif().frame(40).frame(60);
+        gif.out.write(0x99);
+        gif.frame(1000);
+        GifTimeline timeline = parse(gif);
+        assertEquals(2, timeline.getFrameCount());
+        assertEquals(100, timeline.getDuration());
+    }
+
+    @Test
+    public void missingTrailerIsFine() throws IOException {
+        GifTimeline timeline = parse(new Gif().frame(40).frame(60));
+        assertEquals(2, timeline.getFrameCount());
+    }
+
+    @Test
+    public void notGifIsNull() throws IOException {
+        byte[] png = new byte[32];
+        png[0] = (byte) 0x89;
+        png[1] = 'P';
+        png[2] = 'N';
+        png[3] = 'G';
+        assertNull(GifTimeline.parse(new ByteArrayInputStream(png)));
+    }
+
+    @Test
+    public void gifWithoutFramesIsNull() throws IOException {
+        assertNull(parse(new Gif().trailer()));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedFrameFails() throws IOException {
+        byte[] gif = new Gif().frame(100).frame(100).trailer().toByteArray();
+        GifTimeline.parse(new ByteArrayInputStream(Arrays.copyOf(gif, gif.length - 8)));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedHeaderFails() throws IOException {
+        GifTimeline.parse(new ByteArrayInputStream("GIF89a".getBytes("US-ASCII")));
+    }
+
+    private static GifTimeline parse(Gif gif) throws IOException {
+        return GifTimeline.parse(new ByteArrayInputStream(gif.toByteArray()));
+    }
+
+    /** Writes block structure of GIF, pixel data is a dummy */
+    private static class Gif {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Gif() {
+            this(false);
+        }
+
+        Gif(boolean globalColorTable) {
+            ascii("GIF89a");
+            write(16, 0, 16, 0);                        // logical screen 16x16
+            if (globalColorTable) {
+                write(0x80 | 0x01, 0, 0);               // 4 colors
+                out.write(new byte[3 * 4], 0, 3 * 4);
+            } else {
+                write(0, 0, 0);
+            }
+        }
+
+        Gif frame(int delayMillis) {
+            write(0x21, 0xF9, 4, 0x04, (delayMillis / 10) & 0xFF, (delayMillis / 10) >> 8, 0, 0);
+            return image(false);
+        }
+
+        Gif frameWithLocalColorTable(int delayMillis) {
+            write(0x21, 0xF9, 4, 0x04, (delayMillis / 10) & 0xFF, (delayMillis / 10) >> 8, 0, 0);
+            return image(true);
+        }
+
+        Gif frameWithoutControl() {
+            return image(false);
+        }
+
+        Gif netscapeLoop() {
+            write(0x21, 0xFF, 11);
+            ascii("NETSCAPE2.0");
+            write(3, 1, 0, 0, 0);
+            return this;
+        }
+
+        Gif comment(String text) {
+            write(0x21, 0xFE, text.length());
+            ascii(text);
+            write(0);
+            return this;
+        }
+
+        Gif trailer() {
+            write(0x3B);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private Gif image(boolean localColorTable) {
+            write(0x2C, 0, 0, 0, 0, 16, 0, 16, 0, localColorTable ? 0x80 | 0x02 : 0);
+            if (localColorTable) out.write(new byte[3 * 8], 0, 3 * 8);
+            write(2);                                   // LZW minimum code size
+            write(3, 0x4C, 0x01, 0x00);                 // image data sub-block
+            write(0);
+            return this;
+        }
+
+        private void write(int... values) {
+            for (int value : values) out.write(value);
+        }
+
+        private void ascii(String text) {
+            for (int i = 0; i < text.length(); i++) out.write(text.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @since  19 Oct 2026
+ */
+public class HttpTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestServer server;
+    private File file;
+    private File partial;
+    private File ifRange;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        file = new File(temp.getRoot(), "content");
+        partial = new File(file.getAbsolutePath() + Http.PARTIAL_SUFFIX);
+        ifRange = new File(file.getAbsolutePath() + Http.IF_RANGE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void parsesContentRange() {
+        assertArrayEquals(new long[] {10, 19, 100}, Http.parseContentRange("bytes 10-19/100"));
+        assertArrayEquals(new long[] {0, 0, -1}, Http.parseContentRange(" bytes 0-0/* "));
+        assertNull(Http.parseContentRange(null));
+        assertNull(Http.parseContentRange("items 0-1/2"));
+        assertNull(Http.parseContentRange("bytes 5-4/10"));
+        assertNull(Http.parseContentRange("bytes x-4/10"));
+        assertNull(Http.parseContentRange("bytes 0-4"));
+        assertNull(Http.parseContentRange("bytes */10"));
+    }
+
+    @Test
+    public void parsesUnsatisfiedRange() {
+        assertEquals(0, Http.parseUnsatisfiedRange("bytes */0"));
+        assertEquals(1234, Http.parseUnsatisfiedRange(" bytes */1234"));
+        assertEquals(-1, Http.parseUnsatisfiedRange("bytes 0-1/2"));
+        assertEquals(-1, Http.parseUnsatisfiedRange("bytes */*"));
+        assertEquals(-1, Http.parseUnsatisfiedRange(null));
+    }
+
+    @Test
+    public void downloadsWholeContent() throws IOException {
+        byte[] content = content(1000);
+        server.enqueue(200, content).header("ETag", "\"v1\"");
+        Http.Validators validators = new Http.Validators();
+        Http.Progress progress = new Http.Progress();
+
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null, validators, null, progress));
+        assertArrayEquals(content, read(file));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+        assertEquals("\"v1\"", validators.etag);
+        assertEquals(200, progress.getResponseCode());
+        assertEquals(1000, progress.getDownloaded());
+        assertEquals(1000, progress.getTotal());
+    }
+
+    @Test
+    public void truncatedResponseIsResumedWithIfRange() throws IOException {
+        byte[] content = content(1000);
+        server.enqueue(200, content).header("ETag", "\"v1\"").cutAfter(400);
+
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null));
+        assertFalse(file.exists());
+        assertEquals(400, partial.length());
+        assertEquals("\"v1\"", Streams.readString(ifRange));
+
+        server.enqueue(206, Arrays.copyOfRange(content, 400, 1000)).header("ETag", "\"v1\"").header("Content-Range", "bytes 400-999/1000");
+        Http.Progress progress = new Http.Progress();
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null, null, null, progress));
+        assertArrayEquals(content, read(file));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+        assertEquals("bytes=400-", server.request(1).get("range"));
+        assertEquals("\"v1\"", server.request(1).get("if-range"));
+        assertEquals(1000, progress.getTotal());
+    }
+
+    @Test
+    public void truncatedResponseWithoutValidatorIsDropped() throws IOException {
+        server.enqueue(200, content(1000)).cutAfter(400);
+
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void weakEtagIsNotUsedForIfRange() throws IOException {
+        String lastModified = "Wed, 21 Oct 2015 07:28:00 GMT";
+        server.enqueue(200, content(1000)).header("ETag", "W/\"v1\"").header("Last-Modified", lastModified).cutAfter(400);
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null));
+        assertEquals(lastModified, Streams.readString(ifRange));
+
+        server.enqueue(200, content(1000)).header("ETag", "W/\"v1\"").header("Accept-Ranges", "none").cutAfter(400);
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void changedContentReplacesPartial() throws IOException {
+        final byte[] content = content(1000);
+        write(partial, new byte[300]);
+        Streams.writeString(ifRange, "\"old\"");
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                return TestServer.serveRange(request, content, "\"new\"");
+            }
+        });
+
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null));
+        assertArrayEquals(content, read(file));
+        assertEquals("\"old\"", server.request(0).get("if-range"));
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void unsatisfiableRangeRestartsDownload() throws IOException {
+        byte[] content = content(500);
+        write(partial, new byte[800]);                              // content got shorter
+        Streams.writeString(ifRange, "\"v1\"");
+        server.enqueue(416, new byte[0]).header("Content-Range", "bytes */500");
+        server.enqueue(200, content).header("ETag", "\"v2\"");
+
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null));
+        assertArrayEquals(content, read(file));
+        assertEquals("bytes=800-", server.request(0).get("range"));
+        assertNull(server.request(1).get("range"));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void unexpectedContentRangeDropsPartial() throws IOException {
+        write(partial, new byte[300]);
+        Streams.writeString(ifRange, "\"v1\"");
+        server.enqueue(206, content(1000)).header("ETag", "\"v1\"").header("Content-Range", "bytes 0-999/1000");
+
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null));
+        assertFalse(file.exists());
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void partialWithoutValidatorIsNotResumed() throws IOException {
+        byte[] content = content(1000);
+        write(partial, new byte[300]);
+        server.enqueue(200, content);
+
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null));
+        assertNull(server.request(0).get("range"));
+        assertArrayEquals(content, read(file));
+    }
+
+    @Test
+    public void notModifiedKeepsFile() throws IOException {
+        byte[] cached = content(100);
+        write(file, cached);
+        server.enqueue(304, new byte[0]).header("ETag", "\"v1\"");
+        Http.Validators validators = new Http.Validators("\"v1\"", 0);
+
+        assertTrue(Http.downloadToFile(server.url("/a"), file, null, validators));
+        assertTrue(validators.notModified);
+        assertArrayEquals(cached, read(file));
+        assertEquals("\"v1\"", server.request(0).get("if-none-match"));
+    }
+
+    @Test
+    public void clientErrorFailsWithResponseCode() throws IOException {
+        server.enqueue(404, new byte[0]);
+        Http.Progress progress = new Http.Progress();
+
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null, null, null, progress));
+        assertEquals(404, progress.getResponseCode());
+        assertFalse(file.exists());
+        assertFalse(partial.exists());
+    }
+
+    @Test
+    public void noResponseFailsWithZeroResponseCode() throws IOException {
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                return null;
+            }
+        });
+        Http.Progress progress = new Http.Progress();
+
+        assertFalse(Http.downloadToFile(server.url("/a"), file, null, null, null, progress));
+        assertEquals(0, progress.getResponseCode());
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) content[i] = (byte) (i * 31 + i / 256);
+        return content;
+    }
+
+    static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            for (int offset = 0, read; offset < bytes.length; offset += read) {
+                if ((read = in.read(bytes, offset, bytes.length - offset)) == -1) throw new IOException("file is shorter than " + bytes.length);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * @since  19 Oct 2026
+ */
+public class ImageFormatTest {
+
+    @Test
+    public void detectsByMagicBytes() {
+        assertEquals(ImageFormat.JPEG, detect(0xFF, 0xD8, 0xFF, 0xE0));
+        assertEquals(ImageFormat.PNG, detect(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'));
+        assertEquals(ImageFormat.GIF, detect('G', 'I', 'F', '8', '9', 'a'));
+        assertEquals(ImageFormat.GIF, detect('G', 'I', 'F', '8', '7', 'a'));
+        assertEquals(ImageFormat.UNKNOWN, detect('G', 'I', 'F', '8', '8', 'a'));
+        assertEquals(ImageFormat.UNKNOWN, detect('<', 'h', 't', 'm', 'l', '>'));
+    }
+
+    @Test
+    public void truncatedHeaderIsUnknown() {
+        assertEquals(ImageFormat.UNKNOWN, detect(0xFF, 0xD8));
+        assertEquals(ImageFormat.UNKNOWN, detect(0x89, 'P', 'N', 'G'));
+        assertEquals(ImageFormat.UNKNOWN, detect('G', 'I', 'F', '8', '9'));
+        assertEquals(ImageFormat.UNKNOWN, detect());
+        // length limits what is looked at, not the array
+        byte[] gif = bytes('G', 'I', 'F', '8', '9', 'a');
+        assertEquals(ImageFormat.UNKNOWN, ImageFormat.detect(gif, 5));
+    }
+
+    @Test
+    public void tellsAnimatedWebpByVp8xFlag() {
+        assertEquals(ImageFormat.WEBP, ImageFormat.detect(webp("VP8 ", 0), 30));
+        assertEquals(ImageFormat.WEBP, ImageFormat.detect(webp("VP8L", 0), 30));
+        assertEquals(ImageFormat.WEBP, ImageFormat.detect(webp("VP8X", 0x10), 30));      // alpha only
+        assertEquals(ImageFormat.WEBP_ANIMATED, ImageFormat.detect(webp("VP8X", 0x02), 30));
+        assertEquals(ImageFormat.WEBP_ANIMATED, ImageFormat.detect(webp("VP8X", 0x12), 30));
+        // flags are not there yet
+        assertEquals(ImageFormat.WEBP, ImageFormat.detect(webp("VP8X", 0x02), 20));
+    }
+
+    @Test
+    public void readsHeaderFromStreamInChunks() throws IOException {
+        final byte[] webp = webp("VP8X", 0x02);
+        // hands out one byte per read, like slow network does
+        InputStream trickle = new InputStream() {
+            int position = 0;
+            public int read() {
+                return position < webp.length ? webp[position++] & 0xFF : -1;
+            }
+            public int read(byte[] to, int offset, int length) {
+                if (position == webp.length) return -1;
+                to[offset] = webp[position++];
+                return 1;
+            }
+        };
+        assertEquals(ImageFormat.WEBP_ANIMATED, ImageFormat.detect(trickle));
+        assertEquals(ImageFormat.HEADER_LENGTH, countRead(trickle, webp.length));
+        assertEquals(ImageFormat.GIF, ImageFormat.detect(new ByteArrayInputStream(bytes('G', 'I', 'F', '8', '9', 'a'))));
+        assertEquals(ImageFormat.UNKNOWN, ImageFormat.detect(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void animatedFormats() {
+        assertTrue(ImageFormat.isAnimated(ImageFormat.GIF));
+        assertTrue(ImageFormat.isAnimated(ImageFormat.WEBP_ANIMATED));
+        assertFalse(ImageFormat.isAnimated(ImageFormat.WEBP));
+        assertFalse(ImageFormat.isAnimated(ImageFormat.JPEG));
+        assertFalse(ImageFormat.isAnimated(ImageFormat.PNG));
+        assertFalse(ImageFormat.isAnimated(ImageFormat.UNKNOWN));
+    }
+
+    /** @return bytes consumed from stream of specified length */
+    private static int countRead(InputStream from, int length) throws IOException {
+        int left = 0;
+        while (from.read() != -1) left++;
+        return length - left;
+    }
+
+    private static int detect(int... values) {
+        byte[] header = bytes(values);
+        return ImageFormat.detect(header, header.length);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    /** RIFF container with the first chunk of specified type and its first payload byte */
+    private static byte[] webp(String chunk, int flags) {
+        byte[] webp = new byte[40];
+        put(webp, 0, "RIFF");
+        webp[4] = 32;
+        put(webp, 8, "WEBP");
+        put(webp, 12, chunk);
+        webp[16] = 10;
+        webp[20] = (byte) flags;
+        return webp;
+    }
+
+    private static void put(byte[] to, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) to[offset + i] = (byte) ascii.charAt(i);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @since  19 Oct 2026
+ */
+public class SegmentedFetcherTest {
+
+    private static final int THRESHOLD = 1024;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private TestServer server;
+    private SegmentedFetcher fetcher;
+    private File file;
+    private File partial;
+    private File ifRange;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        fetcher = new SegmentedFetcher(THRESHOLD, 4, THRESHOLD);
+        file = new File(temp.getRoot(), "content");
+        partial = new File(file.getAbsolutePath() + Http.PARTIAL_SUFFIX);
+        ifRange = new File(file.getAbsolutePath() + Http.IF_RANGE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void emptyContent() {
+        serve(new byte[0], "\"v1\"");
+        Http.Progress progress = new Http.Progress();
+
+        assertTrue(fetcher.fetch(server.url("/a"), file, null, null, null, progress));
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+        assertEquals(Http.HTTP_RANGE_NOT_SATISFIABLE, progress.getResponseCode());
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void smallContentComesWithFirstRequest() throws IOException {
+        byte[] content = HttpTest.content(THRESHOLD - 24);
+        serve(content, "\"v1\"");
+
+        assertTrue(fetcher.fetch(server.url("/a"), file, null));
+        assertArrayEquals(content, HttpTest.read(file));
+        assertEquals(1, server.requests.size());
+        assertEquals("bytes=0-" + (THRESHOLD - 1), server.request(0).get("range"));
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void largeContentComesInSegments() throws IOException {
+        byte[] content = HttpTest.content(THRESHOLD * 9 + 100);
+        serve(content, "\"v1\"");
+        Http.Validators validators = new Http.Validators();
+        Http.Progress progress = new Http.Progress();
+
+        assertTrue(fetcher.fetch(server.url("/a"), file, null, validators, null, progress));
+        assertArrayEquals(content, HttpTest.read(file));
+        assertEquals(1 + 4, server.requests.size());
+        for (int i = 1; i < server.requests.size(); i++) {
+            assertEquals("\"v1\"", server.request(i).get("if-range"));
+        }
+        assertEquals("\"v1\"", validators.etag);
+        assertEquals(content.length, progress.getDownloaded());
+        assertEquals(content.length, progress.getTotal());
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void contentChangedBetweenSegmentsFails() throws IOException {
+        final byte[] before = HttpTest.content(THRESHOLD * 9);
+        final byte[] after = HttpTest.content(THRESHOLD * 9 + 1);
+        final AtomicInteger served = new AtomicInteger();
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                if (served.getAndIncrement() == 0) return TestServer.serveRange(request, before, "\"v1\"");
+                return TestServer.serveRange(request, after, "\"v2\"");
+            }
+        });
+
+        assertFalse(fetcher.fetch(server.url("/a"), file, null));
+        assertFalse(file.exists());
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void interruptedSingleResponseIsResumed() throws IOException {
+        final byte[] content = HttpTest.content(THRESHOLD - 24);
+        final AtomicInteger served = new AtomicInteger();
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                TestServer.Response response = TestServer.serveRange(request, content, "\"v1\"");
+                return served.getAndIncrement() == 0 ? response.cutAfter(300) : response;
+            }
+        });
+
+        assertFalse(fetcher.fetch(server.url("/a"), file, null));
+        assertFalse(file.exists());
+        assertEquals(300, partial.length());
+        assertEquals("\"v1\"", Streams.readString(ifRange));
+
+        assertTrue(fetcher.fetch(server.url("/a"), file, null));
+        assertArrayEquals(content, HttpTest.read(file));
+        assertEquals("bytes=300-", server.request(1).get("range"));
+        assertEquals("\"v1\"", server.request(1).get("if-range"));
+        assertFalse(partial.exists());
+        assertFalse(ifRange.exists());
+    }
+
+    @Test
+    public void serverWithoutRangesGetsPlainDownload() throws IOException {
+        final byte[] content = HttpTest.content(THRESHOLD * 9);
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                return new TestServer.Response(200, content).header("ETag", "\"v1\"");
+            }
+        });
+
+        assertTrue(fetcher.fetch(server.url("/a"), file, null));
+        assertArrayEquals(content, HttpTest.read(file));
+        assertEquals(1, server.requests.size());
+    }
+
+    private void serve(final byte[] content, final String validator) {
+        server.setHandler(new TestServer.Handler() {
+            public TestServer.Response handle(Map<String, String> request) {
+                return TestServer.serveRange(request, content, validator);
+            }
+        });
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Local HTTP/1.1 server with full control over bytes on the wire, so responses can be cut short.
+ * Every connection serves one request and is closed
+ *
+ * @since  19 Oct 2026
+ */
+class TestServer implements Closeable {
+
+    /** request headers with lowercase names, request line is under {@link #REQUEST_LINE} */
+    static final String REQUEST_LINE = ":request";
+
+    interface Handler {
+        /** @return response or null to close connection without any */
+        public Response handle(Map<String, String> request);
+    }
+
+    static class Response {
+        final int status;
+        final byte[] body;
+        final List<String> headers = new ArrayList<String>();
+        /** bytes of body that are actually sent before connection is closed */
+        int sent;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+            this.sent = body.length;
+        }
+
+        Response header(String name, String value) {
+            headers.add(name + ": " + value);
+            return this;
+        }
+
+        /** Content-Length stays of the whole body */
+        Response cutAfter(int bytes) {
+            sent = bytes;
+            return this;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final LinkedBlockingQueue<Response> responses = new LinkedBlockingQueue<Response>();
+    private volatile Handler handler;
+    final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+    TestServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    Thread connection = new Thread(new Runnable() {
+                        public void run() {
+                            serve(socket);
+                        }
+                    }, "TestServer-connection");
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+            }
+        }, "TestServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /** responses are served in order, unless there is {@link #setHandler(Handler)} */
+    Response enqueue(int status, byte[] body) {
+        Response response = new Response(status, body);
+        responses.add(response);
+        return response;
+    }
+
+    void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    Map<String, String> request(int index) {
+        return requests.get(index);
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Serves content with <code>Range</code> and <code>If-Range</code> support, the way static file servers do
+     * @param validator - ETag of content
+     */
+    static Response serveRange(Map<String, String> request, byte[] content, String validator) {
+        String range = request.get("range");
+        String ifRange = request.get("if-range");
+        if (range == null || !range.startsWith("bytes=") || (ifRange != null && !ifRange.equals(validator))) {
+            return new Response(200, content).header("ETag", validator).header("Accept-Ranges", "bytes");
+        }
+        int dash = range.indexOf('-');
+        long first = Long.parseLong(range.substring("bytes=".length(), dash));
+        long last = dash + 1 < range.length() ? Math.min(Long.parseLong(range.substring(dash + 1)), content.length - 1) : content.length - 1;
+        if (first >= content.length) {
+            return new Response(416, new byte[0]).header("Content-Range", "bytes */" + content.length);
+        }
+        byte[] part = new byte[(int) (last - first + 1)];
+        System.arraycopy(content, (int) first, part, 0, part.length);
+        return new Response(206, part).header("ETag", validator)
+                .header("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+    }
+
+    private void serve(Socket socket) {
+        try {
+            Map<String, String> request = readRequest(socket.getInputStream());
+            if (request == null) return;
+            requests.add(request);
+            Handler handler = this.handler;
+            Response response = handler != null ? handler.handle(request) : responses.poll();
+            if (response == null && handler == null) response = new Response(500, new byte[0]);
+            if (response != null) writeResponse(socket.getOutputStream(), response);
+        } catch (IOException ignored) {
+        } finally {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static Map<String, String> readRequest(InputStream in) throws IOException {
+        Map<String, String> request = new HashMap<String, String>();
+        for (String line; (line = readLine(in)) != null && !line.isEmpty(); ) {
+            if (request.isEmpty()) {
+                request.put(REQUEST_LINE, line);
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) request.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        return request.isEmpty() ? null : request;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int value; (value = in.read()) != '\n'; ) {
+            if (value == -1) return null;
+            if (value != '\r') line.write(value);
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(" Status\r\n");
+        for (String header : response.headers) head.append(header).append("\r\n");
+        head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(response.body, 0, response.sent);
+        out.flush();
+    }
+}
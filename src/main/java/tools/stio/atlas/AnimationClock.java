@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas;
+
+import android.graphics.drawable.Drawable;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import tools.stio.atlas.Dt.Log;
+
+/**
+ * Shared {@link Choreographer} driven clock for drawable animations (fade-in, gif frames)
+ * <p>
+ * Drawables call {@link #animate(Drawable)} from {@link Drawable#draw(android.graphics.Canvas)} while
+ * they are mid-animation. Request lasts for one frame only: drawable that is not drawn again
+ * (scrolled away, hidden, detached) is not ticked anymore. On frame all requests are served at once,
+ * views hosting several animated drawables are invalidated only once.
+ * <p>
+ * Main thread only
+ *
+ * @since  19 Oct 2026
+ */
+public final class AnimationClock implements Choreographer.FrameCallback {
+    private static final String TAG = AnimationClock.class.getSimpleName();
+    private static final boolean debug = false;
+
+    private static AnimationClock instance;
+
+    private final ArrayList<Drawable> requested = new ArrayList<Drawable>();
+    /** requests served by current frame. Drawables are free to request next frame meanwhile */
+    private final ArrayList<Drawable> ticking = new ArrayList<Drawable>();
+    private final IdentityHashMap<View, Boolean> invalidatedViews = new IdentityHashMap<View, Boolean>();
+    private boolean framePosted = false;
+
+    private AnimationClock() {}
+
+    private static AnimationClock get() {
+        if (instance == null) instance = new AnimationClock();
+        return instance;
+    }
+
+    /**
+     * @return frame time in {@link android.os.SystemClock#uptimeMillis()} timebase. Is the same for all
+     * drawables rendered in one frame
+     */
+    public static long now() {
+        return AnimationUtils.currentAnimationTimeMillis();
+    }
+
+    /** invalidates drawable at next frame. Duplicate requests within a frame are ignored */
+    public static void animate(Drawable drawable) {
+        AnimationClock clock = get();
+        ArrayList<Drawable> requested = clock.requested;
+        for (int i = 0; i < requested.size(); i++) {
+            if (requested.get(i) == drawable) return;
+        }
+        requested.add(drawable);
+        if (!clock.framePosted) {
+            clock.framePosted = true;
+            Choreographer.getInstance().postFrameCallback(clock);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        ArrayList<Drawable> toTick = ticking;
+        toTick.addAll(requested);
+        requested.clear();
+
+        for (int i = 0; i < toTick.size(); i++) {
+            Drawable drawable = toTick.get(i);
+            Drawable.Callback callback = drawable.getCallback();
+            if (callback == null || !drawable.isVisible()) continue;
+            if (callback instanceof View) {
+                View view = (View) callback;
+                if (!view.isAttachedToWindow() || view.getWindowVisibility() != View.VISIBLE) continue;
+                if (invalidatedViews.put(view, Boolean.TRUE) != null) continue;    // already invalidated this frame
+                view.invalidate();
+            } else {
+                drawable.invalidateSelf();
+            }
+        }
+        if (debug) Log.w(TAG, "doFrame() ticked: " + toTick.size() + ", views: " + invalidatedViews.size());
+        toTick.clear();
+        invalidatedViews.clear();
+    }
+}
@@ -15,10 +15,12 @@
  */
 package tools.stio.atlas;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Movie;
@@ -26,11 +28,14 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -53,10 +58,10 @@ import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
-import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
@@ -72,11 +77,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -88,6 +95,12 @@ import javax.net.ssl.X509TrustManager;
 
 import tools.stio.atlas.Dt.AdapterOnItem;
 import tools.stio.atlas.Dt.Log;
+import tools.stio.atlas.core.DiskCache;
+import tools.stio.atlas.core.GifTimeline;
+import tools.stio.atlas.core.Http;
+import tools.stio.atlas.core.ImageFormat;
+import tools.stio.atlas.core.SegmentedFetcher;
+import tools.stio.atlas.core.Streams;
 
 /**
  * @author Oleg Orlov
@@ -110,13 +123,50 @@ public class Atlas {
     public static final String MIME_TYPE_IMAGE_GIF_PREVIEW = "image/gif+preview";
     public static final String MIME_TYPE_IMAGE_DIMENSIONS = "application/json+imageSize";
 
-    public static final Atlas.DownloadQueue downloadQueue = new DownloadQueue(2);
+    /** 
+     * bounds of parallel downloads of {@link #downloadQueue}, tuned from measured throughput. 
+     * No more than {@link #DOWNLOAD_CONNECTIONS_PER_HOST} from the same host 
+     */
+    public static final int DOWNLOAD_MIN_WORKERS = 2;
+    public static final int DOWNLOAD_MAX_WORKERS = 6;
+    public static final int DOWNLOAD_CONNECTIONS_PER_HOST = 4;
+
+    public static final Atlas.DownloadQueue downloadQueue = new DownloadQueue(DOWNLOAD_MIN_WORKERS);
+    static {
+        downloadQueue.setMaxConnectionsPerHost(DOWNLOAD_CONNECTIONS_PER_HOST);
+        downloadQueue.setAdaptiveWorkers(DOWNLOAD_MIN_WORKERS, DOWNLOAD_MAX_WORKERS);
+    }
     public static final ImageLoader imageLoader = new ImageLoader();
 
+    /** quota of {@link #setupDiskCache(Context)} */
+    public static final long DISK_CACHE_DEFAULT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Makes {@link #downloadQueue} keep downloads of {@link #imageFromUrl(String)} in app's cache dir 
+     * across launches. Reads cache journal, so better to be called off main thread
+     */
+    public static void setupDiskCache(Context context) {
+        File dir = new File(context.getCacheDir(), "atlas-downloads");
+        downloadQueue.setDiskCache(new DiskCache(dir, DISK_CACHE_DEFAULT_BYTES));
+    }
+
+    /** 
+     * Served from {@link DiskCache} if it is set up and has url, downloaded otherwise. Stale files are
+     * revalidated first, or are served and revalidated in background if queue is {@link DownloadQueue#isStaleWhileRevalidate()}.
+     * Lookup is done in memory, disk cache journal is written by queue workers
+     */
     public static AtlasDrawable imageFromUrl(String url) {
         if (url == null) throw new IllegalArgumentException("url cannot be null");
+        DiskCache diskCache = downloadQueue.getDiskCache();
+        DiskCache.Entry cached = diskCache != null ? diskCache.getEntry(url) : null;
+        if (cached != null && !cached.file.exists()) cached = null;        // lost, queue drops it from cache and downloads again
+        if (cached != null && (!downloadQueue.isStale(cached) || downloadQueue.isStaleWhileRevalidate())) {
+            if (downloadQueue.isStale(cached)) downloadQueue.schedule(url, null);
+            return new AtlasDrawable(url, cached.file);
+        }
+        
         AtlasDrawable result = new AtlasDrawable(url);
-        downloadQueue.schedule(url, null, result);
+        downloadQueue.schedule(url, null, result, false, result);
         return result;
     }
 
@@ -130,7 +180,7 @@ public class Atlas {
             }
         } else {
             result = new AtlasDrawable(url);
-            downloadQueue.schedule(url, imageFile, result);
+            downloadQueue.schedule(url, imageFile, result, false, result);
         }
         return result;
     }
@@ -318,20 +368,14 @@ public class Atlas {
         //---------------------------          ----------------------//
         //--------------------------- Streams  ----------------------//
         //---------------------------          ----------------------//
-        private static final int STREAM_COPY_DEFAULT_BUFSIZE = 65536;
+        private static final int STREAM_COPY_DEFAULT_BUFSIZE = Streams.STREAM_COPY_DEFAULT_BUFSIZE;
 
         public static void closeQuietly(InputStream stream) {
-            if (stream == null) return;
-            try {
-                stream.close();
-            } catch (Throwable ignoredQueitly) {}
+            Streams.closeQuietly(stream);
         }
 
         public static void closeQuietly(OutputStream stream) {
-            if (stream == null) return;
-            try {
-                stream.close();
-            } catch (Throwable ignoredQueitly) {}
+            Streams.closeQuietly(stream);
         }
 
         /**
@@ -345,10 +389,7 @@ public class Atlas {
          * @return number of copied bytes
          */
         public static int streamCopyAndClose(InputStream from, OutputStream to, ReadWriteProgress rwProgress) throws IOException {
-            int totalBytes = streamCopy(from, to, STREAM_COPY_DEFAULT_BUFSIZE, rwProgress);
-            from.close();
-            to.close();
-            return totalBytes;
+            return Streams.streamCopyAndClose(from, to, rwProgress);
         }
 
         public static int streamCopyAndCloseQuietly(InputStream from, OutputStream to) {
@@ -389,16 +430,7 @@ public class Atlas {
          * @return number of copied bytes
          */
         public static int streamCopy(InputStream from, OutputStream to, int bufSize, ReadWriteProgress rwProgress) throws IOException {
-            byte[] buffer = new byte[bufSize];
-            int bytesRead = 0;
-            int totalBytes = 0;
-            for (; (bytesRead = from.read(buffer)) != -1; ) {
-                rwProgress.onStreamReadWrite(totalBytes + bytesRead, totalBytes);
-                to.write(buffer, 0, bytesRead);
-                totalBytes += bytesRead;
-                rwProgress.onStreamReadWrite(totalBytes, totalBytes);
-            }
-            return totalBytes;
+            return Streams.streamCopy(from, to, bufSize, rwProgress);
         }
 
         /**
@@ -414,15 +446,14 @@ public class Atlas {
         /**
          * Use for {@link #streamCopy(InputStream, OutputStream)} to report copy progress
          */
-        public interface ReadWriteProgress {
-            /** reports on every stream read or write total amount of bytes processed by each op */
-            void onStreamReadWrite(long read, long written);
+        public interface ReadWriteProgress extends Streams.ReadWriteProgress {
         }
 
-        public static class ReadWriteProgressOnUI implements ReadWriteProgress, Runnable {
+        /** Delivers the latest progress on UI thread, not more than once per frame however many chunks are copied */
+        public static class ReadWriteProgressOnUI implements ReadWriteProgress, Runnable, Choreographer.FrameCallback {
             AtomicLong read     = new AtomicLong(0);
             AtomicLong written  = new AtomicLong(0);
-            volatile boolean scheduled = false;
+            final AtomicBoolean scheduled = new AtomicBoolean(false);
 
             ReadWriteProgress onUI;
 
@@ -433,14 +464,18 @@ public class Atlas {
             public void onStreamReadWrite(long read, long written) {
                 this.read.set(read);
                 this.written.set(written);
-                if (!scheduled) {
-                    scheduled = true;
+                if (scheduled.compareAndSet(false, true)) {
                     uiHandler.post(this);
                 }
             }
 
+            /** Choreographer belongs to UI thread */
             public void run() {
-                scheduled = false;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+
+            public void doFrame(long frameTimeNanos) {
+                scheduled.set(false);
                 onUI.onStreamReadWrite(read.get(), written.get());
             }
         }
@@ -603,8 +638,8 @@ public class Atlas {
             }
         }
 
-        public static final String HTTP_GET     = "GET";
-        public static final String HTTP_POST    = "POST";
+        public static final String HTTP_GET     = Http.HTTP_GET;
+        public static final String HTTP_POST    = Http.HTTP_POST;
         public static final String HTTP_PUT     = "PUT";
         public static final String HTTP_DELETE  = "DELETE";
 
@@ -904,106 +939,9 @@ public class Atlas {
             return downloadHttpToFile(url, file, HTTP_GET, null, sslFactory);
         }
 
+        /** @see Http#downloadToFile(String, File, String, byte[], SSLSocketFactory) */
         public static boolean downloadHttpToFile(String url, File file, String method, byte[] body, SSLSocketFactory sslFactory) {
-            if (url == null) Log.e(TAG, "downloadHttpToFile() url is null, file: " + file);
-
-            int timeout = 3000;
-
-            HttpURLConnection httpConn = null;
-            try {
-                httpConn = openHttpConnection(url, method, body, sslFactory, timeout);
-
-                int responseCode = httpConn.getResponseCode();
-                if (responseCode >= 300 || responseCode < 200) {
-                    Log.e(TAG, "Expected status 200, but got " + responseCode + ", message: " + httpConn.getResponseMessage() + ", url: [" + url + "]");
-                    return false;
-                }
-
-            } catch (IOException e) {
-                Log.e(TAG, "downloadToFile() cannot execute http request, url: [" + url + "]", e);
-                return false;
-            }
-
-            File dir = file.getParentFile();
-            if (!dir.exists() && !dir.mkdirs()) {
-                Log.e(TAG, "Could not create folders, url: [" + url + "] dir: " + dir.getAbsolutePath());
-                return false;
-            }
-
-            File tempFile = new File(file.getAbsolutePath() + ".download");
-
-            try {
-                InputStream inputStream = httpConn.getInputStream();
-                streamCopyAndClose(inputStream, new FileOutputStream(tempFile, false));
-            } catch (IOException e) {
-                if (debug) Log.e(TAG, "downloadToFile() cannot extract content from http response for [" + url + "]", e);
-            } finally {
-                httpConn.disconnect();
-            }
-
-            if (httpConn.getHeaderField("Content-Length") != null && httpConn.getContentLength() != tempFile.length()) {
-                Log.e(TAG, "downloadToFile() File size mismatch for [" + url + "] "
-                         + " expected: " + httpConn.getContentLength()
-                         + " actual: " + tempFile.length()
-                         + " path: " + tempFile.getAbsolutePath());
-                tempFile.delete();
-                return false;
-            }
-
-            // last step
-            if (tempFile.renameTo(file)) {
-                if (debug) Log.w(TAG, "downloadToFile() Successfully downloaded file: " + file.getAbsolutePath());
-                return true;
-            } else {
-                Log.e(TAG, "downloadToFile() Could not rename temp file: " + tempFile.getAbsolutePath() + " to: " + file.getAbsolutePath());
-                return false;
-            }
-
-        }
-
-        private static final int MAX_REDIRECT_ATTEMPTS = 5;
-
-        private static HttpURLConnection openHttpConnection(String url, String method, byte[] body, SSLSocketFactory sslFactory, int timeout) throws MalformedURLException, IOException, ProtocolException {
-            HttpURLConnection httpConn = null;
-
-            for (int attempt = 0; attempt < MAX_REDIRECT_ATTEMPTS; attempt++) {
-                URL uRL = new URL(url);
-
-                if (url.startsWith("https://")) {
-                    httpConn = (HttpsURLConnection) uRL.openConnection();
-                    if (sslFactory != null) {
-                        ((HttpsURLConnection) httpConn).setSSLSocketFactory(sslFactory);
-                    }
-                } else {
-                    httpConn = (HttpURLConnection) uRL.openConnection();
-                }
-                httpConn.setConnectTimeout(timeout);
-                httpConn.setReadTimeout(timeout);
-                httpConn.setRequestMethod(method);
-                httpConn.setDoInput(true);
-                // some servers rejects requests without user-agent with status 400
-                httpConn.addRequestProperty("User-Agent", "Atlas-Android 1.0");
-
-                if (HTTP_POST.equals(method) && body != null) {
-                    httpConn.setDoOutput(true);
-                    OutputStream os = httpConn.getOutputStream();
-                    os.write(body);
-                    os.close();
-                }
-
-                int responseCode = httpConn.getResponseCode();
-                if (responseCode == 301) {
-                    String location = httpConn.getHeaderField("Location");
-                    Log.e(TAG, "Redirect [" + location + "]" + " from url: [" + url + "]");
-                    Log.w(TAG, "openHttpConnection() follow redirect " + attempt + " to [" + location + "]");
-                    url = location;
-                    continue;
-                }
-                break;
-
-            }
-            return httpConn;
-
+            return Http.downloadToFile(url, file, method, body, sslFactory);
         }
 
         /** escape characters of part.id if they are invalid for filePath */
@@ -1232,593 +1170,334 @@ public class Atlas {
     }
 
     /**
-     * TODO:
-     *
-     * - track UI frames to execute inflating only at idle times and avoid carousel of images
-     *      requested from the same UI frame
-     * - maximum retries should be configurable
-     * - imageCache should accept any "Downloader" that download something with progress
-     *
+     * {@link tools.stio.atlas.core.ImageLoader} that decodes {@link Bitmap}s and {@link Movie}s
      */
-    public static class ImageLoader {
+    public static class ImageLoader extends tools.stio.atlas.core.ImageLoader {
         public static final String TAG = Atlas.ImageLoader.class.getSimpleName();
         public static final boolean debug = false;
 
-        private static final int BITMAP_DECODE_RETRIES = 10;
-        private static final double MEMORY_THRESHOLD = 0.7;
-
-        private volatile boolean shutdownLoader = false;
-        private final Thread processingThread;
-        private final Object loaderMonitor = new Object();
-        private final ArrayList<ImageSpec> queue = new ArrayList<ImageSpec>();
-        private ImageSpec inProgress = null;
-
-        /** image_id -> Bitmap | Movie */
-        private LinkedHashMap<Object, ImageCacheEntry> cache = new LinkedHashMap<Object, ImageCacheEntry>(40, 1f, true) {
-            private static final long serialVersionUID = 1L;
-            protected boolean removeEldestEntry(Entry<Object, ImageCacheEntry> eldest) {
-                // calculate available memory
-                long maxMemory  = Runtime.getRuntime().maxMemory();
-                long usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-                boolean cleaningRequired = 1.0 * usedMemory / maxMemory > MEMORY_THRESHOLD;
-
-                final Object id = eldest.getKey();
-                int bytes = 0;
-                if (eldest.getValue().bitmapOrMovie instanceof Bitmap) {
-                    bytes = ((Bitmap)eldest.getValue().bitmapOrMovie).getByteCount();
-                }
-                //boolean debug = true;
-                if (cleaningRequired) if (debug) Log.w(TAG, "removeEldestEntry()    cleaning, cache: " + cache.size() + ", queue: " + queue.size() + ", " +  bytes + " bytes for: " + id);
-                else                  if (debug) Log.w(TAG, "removeEldestEntry() no cleaning, cache: " + cache.size() + ", queue: " + queue.size());
+        /** frame boundaries of decoded gifs, {@link Movie} does not tell them. Go away with their movies */
+        private final WeakHashMap<Movie, GifTimeline> timelines = new WeakHashMap<Movie, GifTimeline>();
 
-                if (cleaningRequired) {
-                    System.gc();
-                }
-                return cleaningRequired;
+        /** @return frame boundaries of gif decoded by this loader, null if they are unknown */
+        public GifTimeline getTimeline(Movie movie) {
+            synchronized (timelines) {
+                return timelines.get(movie);
             }
-        };
-
-        public ImageLoader() {
-            // launching thread
-            processingThread = new Decoder("AtlasImageLoader");
-            processingThread.start();
         }
 
-        private final class Decoder extends Thread {
-            public Decoder(String threadName) {
-                super(threadName);
-            }
-            public void run() {
-                if (debug) Log.w(TAG, "ImageLoader.run() started");
-                while (!shutdownLoader) {
-
-                    ImageSpec spec = null;
-                    // search bitmap ready to inflate
-                    // wait for queue
-                    synchronized (loaderMonitor) {
-                        while (!shutdownLoader && (spec = nextSpec()) == null) {
-                            try {
-                                loaderMonitor.wait();
-                            } catch (InterruptedException e) {}
-                        }
-                        if (shutdownLoader) return;
-                    }
-                    inProgress = spec;
-                    Object bitmapOrMovie = null;
-                    if (spec.gif) {
-                        InputStream is = spec.inputStreamProvider.getInputStream();
-                        Movie mov = Movie.decodeStream(is);
-                        if (debug) Log.w(TAG, "decodeImage() decoded GIF " + mov.width() + "x" + mov.height() + ":" + mov.duration() + "ms");
-                        Tools.closeQuietly(is);
-                        bitmapOrMovie = mov;
-                        if (mov != null) {
-                            spec.originalHeight = mov.height();
-                            spec.originalWidth  = mov.width();
-                        }
-                    } else {
-                        // decode dimensions
-                        long started = System.currentTimeMillis();
-                        InputStream streamForBounds = spec.inputStreamProvider.getInputStream();
-                        if (streamForBounds == null) {
-                            Log.e(TAG, "decodeImage() stream is null! Cancelling request. Spec: " + spec.id + ", provider: " + spec.inputStreamProvider.getClass().getSimpleName()); return;
-                        }
-                        BitmapFactory.Options originalOpts = new BitmapFactory.Options();
-                        originalOpts.inJustDecodeBounds = true;
-                        BitmapFactory.decodeStream(streamForBounds, null, originalOpts);
-                        Tools.closeQuietly(streamForBounds);
-                        // update spec if width and height are unknown
-                        spec.originalWidth = originalOpts.outWidth;
-                        spec.originalHeight = originalOpts.outHeight;
-
-                        if (spec.decodeOnly) {
-                            spec.decodeOnly = false;
-                            fireOnImageLoaded(spec);
-                            continue;
-                        }
-
-                        // if required dimensions are not defined or bigger than original - use original dimensions
-                        int requiredWidth  = spec.requiredWidth  > 0 ? Math.min(spec.requiredWidth,  originalOpts.outWidth)  : originalOpts.outWidth;
-                        int requiredHeight = spec.requiredHeight > 0 ? Math.min(spec.requiredHeight, originalOpts.outHeight) : originalOpts.outHeight;
-                        int sampleSize = 1;
-                        // Use dimension with higher quality to meet both requirements
-                        float widthSampleSize  = sampleSize(originalOpts.outWidth,  requiredWidth);
-                        float heightSampleSize = sampleSize(originalOpts.outHeight, requiredHeight);
-                        sampleSize = (int)Math.min(widthSampleSize, heightSampleSize);
-
-                        if (spec.originalHeight > 2000 || spec.originalWidth > 2000) {} // print warning for debug purposes
-
-                        if (debug) Log.w(TAG, "decodeImage() sampleSize: " + sampleSize + ", original: " + spec.originalWidth + "x" + spec.originalHeight
-                                + " required: " + spec.requiredWidth + "x" + spec.requiredHeight);
-
-                        BitmapFactory.Options decodeOpts = new BitmapFactory.Options();
-                        decodeOpts.inSampleSize = sampleSize;
-                        Bitmap bmp = null;
-                        InputStream streamForBitmap = spec.inputStreamProvider.getInputStream();
-                        try {
-                            bmp = BitmapFactory.decodeStream(streamForBitmap, null, decodeOpts);
-                        } catch (OutOfMemoryError e) {
-                            long requiredBytes = 4 * originalOpts.outWidth * originalOpts.outHeight / sampleSize;
-                            //boolean debug = true;
-                            if (debug) Log.w(TAG, "decodeImage() out of memory, need " + requiredBytes
-                                    + " bytes for " + requiredWidth + "x" + requiredHeight
-                                    + " orig " + originalOpts.outWidth + "x" + originalOpts.outHeight + " ss: " + sampleSize
-                                    + " cache: " + cache.size() + ", queue: " + queue.size() + ", removing eldest."
-                                    + " id: " + spec);
-                            int bytesClean = removeEldest(requiredBytes);
-                            if (debug) Log.w(TAG, "decodeImage()         bytes clean " + bytesClean);
-                            System.gc();
-                        }
-                        Tools.closeQuietly(streamForBitmap);
-                        if (bmp != null) {
-                            if (debug) Log.d(TAG, "decodeImage() decoded " + bmp.getWidth() + "x" + bmp.getHeight()
-                                    + " " + bmp.getByteCount() + " bytes"
-                                    + " req: " + spec.requiredWidth + "x" + spec.requiredHeight
-                                    + " original: " + originalOpts.outWidth + "x" + originalOpts.outHeight
-                                    + " sampleSize: " + sampleSize
-                                    + " in " +(System.currentTimeMillis() - started) + "ms from: " + spec.id);
-                        } else {
-                            if (debug) Log.d(TAG, "decodeImage() not decoded " + " req: " + requiredWidth + "x" + requiredHeight
-                                    + " in " +(System.currentTimeMillis() - started) + "ms from: " + spec.id);
-                        }
-                        bitmapOrMovie = bmp;
-                    }
-
-                    // decoded
-                    synchronized (loaderMonitor) {
-                        if (bitmapOrMovie != null) {
-                            ImageCacheEntry imageCore = new ImageCacheEntry(bitmapOrMovie, spec.originalWidth, spec.originalHeight, spec.inputStreamProvider);
-                            cache.put(spec.id, imageCore);
-                            fireOnImageLoaded(spec);
-                        } else if (spec.retries < BITMAP_DECODE_RETRIES) {
-                            spec.retries++;
-                            queue.add(0, spec);         // schedule retry
-                            loaderMonitor.notifyAll();
-                        } /*else {
-                            forget about this image, never put it back in queue
-                        }*/
-                        inProgress = null;
-                    }
-
-                    if (debug) Log.w(TAG, "decodeImage()   cache: " + cache.size() + ", queue: " + queue.size() + ", id: " + spec.id);
-                }
-            }
-        }
-
-        private void fireOnImageLoaded(ImageSpec spec) {
-            for (int i = spec.listeners.size() - 1; i >= 0 ; i--) {
-                ImageLoadListener listener = spec.listeners.remove(i);
-                listener.onImageLoaded(spec);
-            }
+        protected boolean decodeBounds(ImageSpec spec) {
+            // decode dimensions
+            InputStream streamForBounds = spec.inputStreamProvider.getInputStream();
+            if (streamForBounds == null) return false;
+            BitmapFactory.Options originalOpts = new BitmapFactory.Options();
+            originalOpts.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(streamForBounds, null, originalOpts);
+            Tools.closeQuietly(streamForBounds);
+            // update spec if width and height are unknown
+            spec.originalWidth = originalOpts.outWidth;
+            spec.originalHeight = originalOpts.outHeight;
+            return true;
         }
 
         /**
-         *
-         * Return maximum possible sampleSize to decode bitmap with dimensions >= minRequired
-         *
-         * <p>
-         * Despite {@link BitmapFactory.Options#inSampleSize} documentation, sampleSize
-         * handles properly only 2^n values. Other values are handled as nearest lower 2^n.<p>
-         * I.e. result bitmap with <br>
-         * <code>
-         *      opts.sampleSize = 3 is the same as opts.sampleSize = 2<br>
-         *      opts.sampleSize = 5 is the same as opts.sampleSize = 4
-         * </code>
-         *
-         * @return bitmap sampleSize values [1, 2, 4, 8, .. 2^n]
+         * @return {@link Bitmap} for static images. For animated ones on API 28+ animated {@link Drawable}, below 28
+         * {@link GIFDrawable.Frames} of gif or {@link Movie} if frames are not known. Animated WebP is decoded as
+         * a still first frame below API 28
          */
-        private static int sampleSize(int originalDimension, int minRequiredDimension) {
-            int sampleSize = 1;
-            while (originalDimension / (sampleSize * 2) > minRequiredDimension) {
-                sampleSize *= 2;
-                if (sampleSize >= 32) break;
+        protected Object decodeImage(ImageSpec spec) {
+            if (spec.gif) {
+                return decodeMovie(spec);
+            }
+
+            int format = detectFormat(spec);
+            if (ImageFormat.isAnimated(format)) {
+                Object animated = null;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    animated = decodeAnimated(spec);
+                } else if (format == ImageFormat.GIF) {
+                    animated = decodeFrames(spec);
+                }
+                // animated WebP below API 28 is decoded as a still first frame
+                if (animated != null) return animated;
             }
-            return sampleSize;
-        }
 
-        public Object getImageFromCache(Object id) {
-            synchronized (loaderMonitor) {
-                ImageCacheEntry imageEntry = cache.get(id);
-                if (imageEntry == null) return null;
-                return imageEntry.bitmapOrMovie;
-            }
-        }
+            long started = System.currentTimeMillis();
+            // if required dimensions are not defined or bigger than original - use original dimensions
+            int requiredWidth  = spec.requiredWidth  > 0 ? Math.min(spec.requiredWidth,  spec.originalWidth)  : spec.originalWidth;
+            int requiredHeight = spec.requiredHeight > 0 ? Math.min(spec.requiredHeight, spec.originalHeight) : spec.originalHeight;
+            int sampleSize = 1;
+            // Use dimension with higher quality to meet both requirements
+            float widthSampleSize  = sampleSize(spec.originalWidth,  requiredWidth);
+            float heightSampleSize = sampleSize(spec.originalHeight, requiredHeight);
+            sampleSize = (int)Math.min(widthSampleSize, heightSampleSize);
 
-        /** @return originalImageWidth if image is in cache, 0 otherwise */
-        public int getOriginalImageWidth(Object id) {
-            synchronized (loaderMonitor) {
-                ImageCacheEntry imageEntry = cache.get(id);
-                if (imageEntry == null) return 0;
-                return imageEntry.originalWidth;
-            }
-        }
+            if (spec.originalHeight > 2000 || spec.originalWidth > 2000) {} // print warning for debug purposes
+
+            if (debug) Log.w(TAG, "decodeImage() sampleSize: " + sampleSize + ", original: " + spec.originalWidth + "x" + spec.originalHeight
+                    + " required: " + spec.requiredWidth + "x" + spec.requiredHeight);
 
-        /** @return originalImageHeight if image is in cache, 0 otherwise */
-        public int getOriginalImageHeight(Object id) {
-            synchronized (loaderMonitor) {
-                ImageCacheEntry imageEntry = cache.get(id);
-                if (imageEntry == null) return 0;
-                return imageEntry.originalHeight;
+            BitmapFactory.Options decodeOpts = new BitmapFactory.Options();
+            decodeOpts.inSampleSize = sampleSize;
+            Bitmap bmp = null;
+            InputStream streamForBitmap = spec.inputStreamProvider.getInputStream();
+            try {
+                bmp = BitmapFactory.decodeStream(streamForBitmap, null, decodeOpts);
+            } catch (OutOfMemoryError e) {
+                long requiredBytes = 4 * spec.originalWidth * spec.originalHeight / sampleSize;
+                //boolean debug = true;
+                if (debug) Log.w(TAG, "decodeImage() out of memory, need " + requiredBytes
+                        + " bytes for " + requiredWidth + "x" + requiredHeight
+                        + " orig " + spec.originalWidth + "x" + spec.originalHeight + " ss: " + sampleSize
+                        + " cache: " + getCacheSize() + ", queue: " + getQueueSize() + ", removing eldest."
+                        + " id: " + spec);
+                int bytesClean = removeEldest(requiredBytes);
+                if (debug) Log.w(TAG, "decodeImage()         bytes clean " + bytesClean);
+                System.gc();
+            }
+            Tools.closeQuietly(streamForBitmap);
+            if (bmp != null) {
+                if (debug) Log.d(TAG, "decodeImage() decoded " + bmp.getWidth() + "x" + bmp.getHeight()
+                        + " " + bmp.getByteCount() + " bytes"
+                        + " req: " + spec.requiredWidth + "x" + spec.requiredHeight
+                        + " original: " + spec.originalWidth + "x" + spec.originalHeight
+                        + " sampleSize: " + sampleSize
+                        + " in " +(System.currentTimeMillis() - started) + "ms from: " + spec.id);
+            } else {
+                if (debug) Log.d(TAG, "decodeImage() not decoded " + " req: " + requiredWidth + "x" + requiredHeight
+                        + " in " +(System.currentTimeMillis() - started) + "ms from: " + spec.id);
+            }
+            return bmp;
+        }
+
+        private Movie decodeMovie(ImageSpec spec) {
+            InputStream is = spec.inputStreamProvider.getInputStream();
+            if (is == null) return null;
+            Movie mov = Movie.decodeStream(is);
+            Tools.closeQuietly(is);
+            if (mov != null) {
+                if (debug) Log.w(TAG, "decodeMovie() decoded GIF " + mov.width() + "x" + mov.height() + ":" + mov.duration() + "ms");
+                spec.originalHeight = mov.height();
+                spec.originalWidth  = mov.width();
+                GifTimeline timeline = decodeTimeline(spec);
+                if (timeline != null) synchronized (timelines) {
+                    timelines.put(mov, timeline);
+                }
             }
+            return mov;
         }
 
         /**
-         * @return - byteCount of removed bitmap if bitmap found. <bold>-1</bold> otherwise
+         * Renders all frames of gif from {@link Movie} at required dimensions. Frames of one gif are bounded by
+         * {@link GIFDrawable#PRERENDER_MAX_BYTES}: gifs with many frames are rendered smaller than required.
+         * Movie is dropped after that, so nothing is decoded at original size on main thread
+         * @return frames, {@link Movie} if frame boundaries are unknown, null if gif cannot be decoded
          */
-        private int removeEldest() {
-            //boolean debug = true;
-            synchronized (loaderMonitor) {
-                if (cache.size() > 0) {
-                    Map.Entry<Object, ImageCacheEntry> entry = cache.entrySet().iterator().next();
-                    Object bmp = entry.getValue().bitmapOrMovie;
-                    cache.remove(entry.getKey());
-                    int releasedBytes = (bmp instanceof Bitmap) ? ((Bitmap) bmp).getByteCount() : 0; /*((Movie)bmp).byteCount(); */
-                    if (debug) Log.w(TAG, "removeEldest() id: " + entry.getKey() + ", bytes: " + releasedBytes);
-                    return releasedBytes;
-                } else {
-                    if (debug) Log.w(TAG, "removeEldest() nothing to remove...");
-                    return -1;
+        private Object decodeFrames(ImageSpec spec) {
+            Movie mov = decodeMovie(spec);
+            if (mov == null || mov.width() == 0 || mov.height() == 0) return mov;
+            GifTimeline timeline = getTimeline(mov);
+            if (timeline == null) return mov;
+
+            int requiredWidth  = spec.requiredWidth  > 0 ? Math.min(spec.requiredWidth,  spec.originalWidth)  : spec.originalWidth;
+            int requiredHeight = spec.requiredHeight > 0 ? Math.min(spec.requiredHeight, spec.originalHeight) : spec.originalHeight;
+            float scale = Math.max(1.0f * requiredWidth / spec.originalWidth, 1.0f * requiredHeight / spec.originalHeight);
+            long requiredBytes = (long) (4.0 * spec.originalWidth * spec.originalHeight * scale * scale * timeline.getFrameCount());
+            if (requiredBytes > GIFDrawable.PRERENDER_MAX_BYTES) {
+                scale *= (float) Math.sqrt(1.0 * GIFDrawable.PRERENDER_MAX_BYTES / requiredBytes);
+            }
+            int width  = Math.max(1, (int) (spec.originalWidth  * scale));
+            int height = Math.max(1, (int) (spec.originalHeight * scale));
+
+            Bitmap[] frames = new Bitmap[timeline.getFrameCount()];
+            try {
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = GIFDrawable.FramePool.obtain(width, height);
+                    Canvas canvas = new Canvas(frames[i]);
+                    canvas.scale(1.0f * width / mov.width(), 1.0f * height / mov.height());
+                    mov.setTime(timeline.getFrameStart(i));
+                    mov.draw(canvas, 0, 0);
                 }
+            } catch (OutOfMemoryError e) {
+                if (debug) Log.w(TAG, "decodeFrames() out of memory for " + frames.length + " frames " + width + "x" + height + ", id: " + spec.id);
+                GIFDrawable.FramePool.release(frames);
+                removeEldest(4L * width * height * frames.length);
+                System.gc();
+                return null;
             }
+            if (debug) Log.w(TAG, "decodeFrames() rendered " + frames.length + " frames " + width + "x" + height
+                    + ", original: " + spec.originalWidth + "x" + spec.originalHeight + ", id: " + spec.id);
+            return new GIFDrawable.Frames(frames, timeline, mov.width(), mov.height());
         }
 
-        private int removeEldest(long bytesToFree) {
-            synchronized (loaderMonitor) {
-                int totalClean = 0;
-                while (cache.size() > 0) {
-                    int clean = removeEldest();
-                    if (clean < 1) return totalClean;
-                    totalClean += clean;
-                    if (totalClean > bytesToFree) return totalClean;
-                }
-                return totalClean;
+        /** @return null if stream is not available or is not a gif */
+        private static GifTimeline decodeTimeline(ImageSpec spec) {
+            InputStream is = spec.inputStreamProvider.getInputStream();
+            if (is == null) return null;
+            try {
+                return GifTimeline.parse(is);
+            } catch (IOException e) {
+                if (debug) Log.w(TAG, "decodeTimeline() cannot parse frames of: " + spec.id, e);
+                return null;
+            } finally {
+                Tools.closeQuietly(is);
             }
-
-        }
-
-        /**
-         * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
-         */
-        public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, ImageLoader.ImageLoadListener loadListener) {
-            return requestImage(id, streamProvider, 0, 0, false, loadListener, false);
-        }
-
-        /**
-         * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
-         */
-        public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, ImageLoader.ImageLoadListener loadListener, boolean decodeOnly) {
-            return requestImage(id, streamProvider, 0, 0, false, loadListener, decodeOnly);
-        }
-
-        /**
-         * @see #requestImage(Object, InputStreamProvider, int, int, boolean, ImageLoadListener, boolean)
-         */
-        public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, boolean gif, ImageLoader.ImageLoadListener loadListener) {
-            return requestImage(id, streamProvider, 0, 0, gif, loadListener, false);
         }
 
         /**
-         * Most recently requested images would be inflated first to provide the quickest response
-         * (i.e. if user scroll 100 images back and force, the most important one is that he stopped at,
-         * and it is the last requested in general scenario)
-         *
-         * @param id                - something you will use to get image from cache later
-         * @param streamProvider    - something that provides raw bytes. See {@link FileStreamProvider}
-         * @param requiredWidth     -
-         * @param requiredHeight    - provide image dimensions you need to save memory if original dimensions are bigger. 0 means no requirements, inflate as is
-         * @param gif               - android.graphics.Movie would be decoded instead of Bitmap.
-         * @param loadListener      - something you can use to be notified when image is loaded
-         * @param decodeOnly        - will perform decode only and update {@link ImageSpec#originalWidth} and {@link ImageSpec#originalHeight}
+         * Decodes animated image with {@link ImageDecoder} downsampled to required dimensions.
+         * Resulting AnimatedImageDrawable decodes frames on demand, only frames being shown are kept in memory
+         * @return animated drawable, {@link Bitmap} if image has a single frame, null if decoding failed
          */
-        public ImageSpec requestImage(Object id, InputStreamProvider streamProvider, int requiredWidth, int requiredHeight, boolean gif, ImageLoader.ImageLoadListener loadListener, boolean decodeOnly) {
-            if (!decodeOnly && (requiredWidth == 0 || requiredHeight == 0)) {
-                Log.e(TAG, "requestImage() wtf decode with 0x0 required? " + id + " from: " + Dt.printStackTrace());
-            }
-
-            ImageSpec spec = null;
-            synchronized (loaderMonitor) {
-                for (int i = 0; i < queue.size(); i++) {        // remove from deep deep blue
-                    if (queue.get(i).id.equals(id)) {
-                        spec = queue.remove(i);
-                        if (debug) Log.w(TAG, "requestImage() found scheduled: " + spec + ", from: " + Dt.printStackTrace());
-                        break;
-                    }
-                }
-                if (spec == null) {
-                    spec = new ImageSpec();
-                    spec.id = id;
-                    spec.inputStreamProvider = streamProvider;
-                    spec.requiredHeight = requiredHeight;
-                    spec.requiredWidth = requiredWidth;
-                    spec.listeners.add(loadListener);
-                    spec.gif = gif;
-                    spec.decodeOnly = decodeOnly;
-                } else {
-                    spec.listeners.add(loadListener);
-                    if (decodeOnly == false) spec.decodeOnly = false;  // now decode is not enough
-                }
-                // check something we have in memory for such id
-                ImageCacheEntry imageEntry = cache.get(id);
-                if (imageEntry != null && imageEntry.inputStreamProvider.equals(streamProvider)) {
-                    if (debug) Log.w(TAG, "requestImage() wow, we already inflated one: [" + imageEntry.originalWidth + "x" + imageEntry.originalHeight + "] put it in spec");
-                    spec.originalWidth = imageEntry.originalWidth;
-                    spec.originalHeight = imageEntry.originalHeight;
+        @TargetApi(Build.VERSION_CODES.P)
+        private Object decodeAnimated(final ImageSpec spec) {
+            ImageDecoder.Source source;
+            if (spec.inputStreamProvider instanceof FileStreamProvider) {
+                source = ImageDecoder.createSource(((FileStreamProvider) spec.inputStreamProvider).file);
+            } else {
+                InputStream is = spec.inputStreamProvider.getInputStream();
+                if (is == null) return null;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    Tools.streamCopyAndClose(is, bytes);
+                } catch (IOException e) {
+                    Log.e(TAG, "decodeAnimated() cannot read: " + spec.id, e);
+                    return null;
                 }
-
-                queue.add(0, spec);                             // and put it to the surface in front of all
-                loaderMonitor.notifyAll();
+                source = ImageDecoder.createSource(ByteBuffer.wrap(bytes.toByteArray()));
             }
-            if (debug) Log.w(TAG, "requestBitmap() cache: " + cache.size() + ", queue: " + queue.size() + ", id: " + id + ", reqs: " + requiredWidth + "x" + requiredHeight);
-            return spec;
-        }
-
-        /** pick first spec in queue that has inputstream ready */
-        private ImageSpec nextSpec() {
-            synchronized (loaderMonitor) {
-                // picking from queue
-                for (int i = 0; i < queue.size(); i++) {
-                    ImageSpec imageSpec = queue.get(i);
-                    if (imageSpec.inputStreamProvider.ready()) { // ready to inflate
-                        return queue.remove(i);
+            try {
+                Drawable drawable = ImageDecoder.decodeDrawable(source, new ImageDecoder.OnHeaderDecodedListener() {
+                    public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                        spec.originalWidth  = info.getSize().getWidth();
+                        spec.originalHeight = info.getSize().getHeight();
+                        int requiredWidth  = spec.requiredWidth  > 0 ? Math.min(spec.requiredWidth,  spec.originalWidth)  : spec.originalWidth;
+                        int requiredHeight = spec.requiredHeight > 0 ? Math.min(spec.requiredHeight, spec.originalHeight) : spec.originalHeight;
+                        decoder.setTargetSampleSize(Math.min(sampleSize(spec.originalWidth, requiredWidth), sampleSize(spec.originalHeight, requiredHeight)));
                     }
-                }
+                });
+                if (debug) Log.w(TAG, "decodeAnimated() decoded " + drawable.getIntrinsicWidth() + "x" + drawable.getIntrinsicHeight() + " from: " + spec);
+                if (drawable instanceof BitmapDrawable) return ((BitmapDrawable) drawable).getBitmap();
+                return drawable;
+            } catch (IOException e) {
+                Log.e(TAG, "decodeAnimated() failed: " + spec.id, e);
+                return null;
+            } catch (OutOfMemoryError e) {
+                removeEldest(4L * spec.originalWidth * spec.originalHeight);
+                System.gc();
                 return null;
             }
         }
 
-        /** @return imageSpec if image is scheduled, null otherwise */
-        public ImageSpec getScheduled(Object id) {
-            synchronized (loaderMonitor) {
-                if (inProgress != null && inProgress.id.equals(id)) return inProgress;
-                // picking from queue
-                for (int i = 0; i < queue.size(); i++) {
-                    ImageSpec imageSpec = queue.get(i);
-                    if (imageSpec.id.equals(id)) { // ready to inflate
-                        return imageSpec;
-                    }
-                }
-                return null;
+        /** @return {@link ImageFormat} constant, {@link ImageFormat#UNKNOWN} if stream is not available */
+        private static int detectFormat(ImageSpec spec) {
+            InputStream is = spec.inputStreamProvider.getInputStream();
+            if (is == null) return ImageFormat.UNKNOWN;
+            try {
+                return ImageFormat.detect(is);
+            } catch (IOException e) {
+                return ImageFormat.UNKNOWN;
+            } finally {
+                Tools.closeQuietly(is);
             }
         }
 
-        /**
-         * a) contains link to actual image, and is used as cache entry<br>
-         * b) contains image's original dimensions. Allows to return filled ImageSpec before it is inflated
-         */
-        private static class ImageCacheEntry {
-            public final int originalWidth;
-            public final int originalHeight;
-            public final InputStreamProvider inputStreamProvider;
-            public final Object bitmapOrMovie;
-
-            public ImageCacheEntry(Object bitmapOrMovie, int originalWidth, int originalHeight, InputStreamProvider inputStreamProvider) {
-                this.originalWidth = originalWidth;
-                this.originalHeight = originalHeight;
-                this.inputStreamProvider = inputStreamProvider;
-                this.bitmapOrMovie = bitmapOrMovie;
+        /** animated images are counted as a single frame at their intrinsic dimensions, decoded gif frames all together */
+        protected int byteCount(Object bitmapOrMovie) {
+            if (bitmapOrMovie instanceof Bitmap)   return ((Bitmap) bitmapOrMovie).getByteCount();
+            if (bitmapOrMovie instanceof GIFDrawable.Frames) return ((GIFDrawable.Frames) bitmapOrMovie).getByteCount();
+            if (bitmapOrMovie instanceof Bitmap[]) {
+                Bitmap[] frames = (Bitmap[]) bitmapOrMovie;
+                int bytes = 0;
+                for (int i = 0; i < frames.length; i++) bytes += frames[i].getByteCount();
+                return bytes;
             }
+            if (bitmapOrMovie instanceof Movie)    return 4 * ((Movie) bitmapOrMovie).width() * ((Movie) bitmapOrMovie).height();
+            if (bitmapOrMovie instanceof Drawable) return 4 * ((Drawable) bitmapOrMovie).getIntrinsicWidth() * ((Drawable) bitmapOrMovie).getIntrinsicHeight();
+            return 0;
         }
 
         /**
-         * Everything you need to know about image even if it is not in memory
+         *
+         * Return maximum possible sampleSize to decode bitmap with dimensions >= minRequired
+         *
+         * <p>
+         * Despite {@link BitmapFactory.Options#inSampleSize} documentation, sampleSize
+         * handles properly only 2^n values. Other values are handled as nearest lower 2^n.<p>
+         * I.e. result bitmap with <br>
+         * <code>
+         *      opts.sampleSize = 3 is the same as opts.sampleSize = 2<br>
+         *      opts.sampleSize = 5 is the same as opts.sampleSize = 4
+         * </code>
+         *
+         * @return bitmap sampleSize values [1, 2, 4, 8, .. 2^n]
          */
-        public static class ImageSpec {
-            public Object id;
-            public InputStreamProvider inputStreamProvider;
-            public int requiredWidth;
-            public int requiredHeight;
-            public int originalWidth;
-            public int originalHeight;
-            public boolean gif;
-            public int retries = 0;
-            public boolean decodeOnly;
-            public final ArrayList<ImageLoadListener> listeners = new ArrayList<ImageLoadListener>();
-
-            public String toString() {
-                StringBuilder sb = new StringBuilder();
-                sb.append(" .o[").append(originalWidth).append("x").append(originalHeight).append("]");
-                if (requiredWidth != 0 || requiredHeight != 0) sb.append(", .r[").append(requiredWidth).append("x").append(requiredHeight).append("]");
-                sb.append(" .id: ").append(id);
-                sb.append(gif ? ", gif" : "");
-                return sb.toString();
+        private static int sampleSize(int originalDimension, int minRequiredDimension) {
+            int sampleSize = 1;
+            while (originalDimension / (sampleSize * 2) > minRequiredDimension) {
+                sampleSize *= 2;
+                if (sampleSize >= 32) break;
             }
-
-        }
-
-        public interface ImageLoadListener {
-            public void onImageLoaded(ImageSpec spec);
-        }
-
-        public static abstract class InputStreamProvider {
-            public abstract InputStream getInputStream();
-            public abstract boolean ready();
+            return sampleSize;
         }
     }
 
-    public static class DownloadQueue {
-        private static final String TAG = DownloadQueue.class.getSimpleName();
-
-        private final Object queueMonitor = new Object();
-        private final LinkedList<Entry> queue = new LinkedList<Atlas.DownloadQueue.Entry>();
-        private final HashMap<String, Entry> scheduledEntries = new HashMap<String, Atlas.DownloadQueue.Entry>();
-        private final HashMap<String, Entry> inProgress = new HashMap<String, Atlas.DownloadQueue.Entry>();
-        private Thread[] workers;
-
-        private SSLSocketFactory sslSocketFactory = null;
-
+    /** Android flavour of {@link tools.stio.atlas.core.DownloadQueue}, downloads large content in parallel segments with {@link SegmentedFetcher} */
+    public static class DownloadQueue extends tools.stio.atlas.core.DownloadQueue {
         public DownloadQueue() {
-            this(1);
+            super();
+            setFetcher(new SegmentedFetcher());
+            setProgressDispatcher(new FrameProgressDispatcher());
         }
         public DownloadQueue(int workers) {
-            this.workers = new Thread[workers];
-            for (int i = 0; i < workers; i++) {
-                Thread workingThread = new Thread(new Worker());
-                workingThread.setDaemon(true);
-                workingThread.setName(i == 0 ? "Atlas-HttpLoader" : ("Atlas-HttpLoader-" + i));
-                workingThread.start();
-            }
-        }
-
-        /**
-         * {@link #schedule(String, File, CompleteListener)} with <code>File == null</code>
-         */
-        public void schedule(String url, CompleteListener onComplete) {
-            schedule(url, null, onComplete);
-        }
-
-        /**
-         * {@link #schedule(String, File, CompleteListener)} with <code>first == false</code>
-         */
-        public void schedule(String url, File toFile, CompleteListener onComplete) {
-            schedule(url, toFile, onComplete, false);
+            super(workers);
+            setFetcher(new SegmentedFetcher());
+            setProgressDispatcher(new FrameProgressDispatcher());
         }
 
-        /**
-         * Schedule download of content from specified url to file
-         *
-         * @param toFile - if <b>null</b> queue will create temp file and pass it to {@link CompleteListener#onDownloadComplete(String, File)}
-         * @param first  - add in the beginning of the queue
+        /** 
+         * Image decoded from stale file is dropped from {@link #imageLoader} cache, so drawables of url decode 
+         * refreshed file when they are drawn next time. They are not invalidated, shown ones keep stale image until then
          */
-        public void schedule(String url, File toFile, CompleteListener onComplete, boolean first) {
-            if (debug) Log.d(TAG, "schedule() url: " + url + " toFile: " + toFile + " onComplete: " + onComplete);
-            if (url == null || url.isEmpty()) throw new IllegalArgumentException("url must be defined: [" + url + "], file: " + toFile + ", onComplete: " + onComplete);
-
-            // if url and destination file both are similar to something scheduled - just attach another listener
-            // otherwise schedule to download
-            synchronized (queueMonitor) {
-                Entry scheduled = scheduled(url);
-                if (scheduled != null && isSame(scheduled.file, toFile)) {
-                    if (onComplete != null) {
-                        scheduled.completeListeners.add(onComplete);
-                    }
-                    if (first && inProgress(url) == null && queue.getFirst() != scheduled) {
-                        queue.remove(scheduled);
-                        queue.addFirst(scheduled);
-                        queueMonitor.notifyAll();
-                    }
-                } else {
-                    Entry toSchedule = new Entry(url, toFile, onComplete);
-                    if (first) {
-                        queue.addFirst(toSchedule);
-                    } else {
-                        queue.add(toSchedule);
-                    }
-                    scheduledEntries.put(toSchedule.url, toSchedule);
-                    queueMonitor.notifyAll();
-                }
-            }
+        @Override
+        protected void onRefreshed(String url, File file) {
+            imageLoader.removeFromCache(url);
         }
+    }
 
-        /**
-         * Picks first available entry from queue and fetch it.
-         * In progress entries could be found in {@link #inProgress} set
-         */
-        private final class Worker implements Runnable {
-            public void run() {
-                while (true) {
-                    Entry next = null;
-                    synchronized (queueMonitor) {
-                        while (queue.size() == 0) {
-                            try {
-                                queueMonitor.wait();
-                            } catch (InterruptedException ignored) {}
-                        }
-                        next = queue.removeFirst();
-                        scheduledEntries.remove(next.url);
-                        // onStart
-                        inProgress.put(next.url, next);
-                    }
-                    try {
-                        File downloadTo = next.file;
-                        if (downloadTo == null) {
-                            downloadTo = File.createTempFile(String.valueOf(System.currentTimeMillis()), ".tmp");
-                            next.file = downloadTo;
-                        }
-
-                        boolean downloaded = Tools.downloadHttpToFile(next.url, downloadTo, sslSocketFactory);
-
-                        if (downloaded) {
-                            for (CompleteListener onComplete : next.completeListeners) {
-                                onComplete.onDownloadComplete(next.url, downloadTo);
-                            }
-                        };
-                    } catch (Throwable e) {
-                        Log.e(TAG, "onComplete() thrown an exception for: " + next.url, e);
-                    }
-                    // onComplete
-                    synchronized (queue) {
-                        inProgress.remove(next.url);
-                    }
-                }
-            }
-        }
+    /** 
+     * Delivers progress of all downloads on UI thread together, once per frame. Downloading threads 
+     * only mark progress as changed, so main thread gets one message per frame however many chunks arrive
+     */
+    public static class FrameProgressDispatcher implements DownloadQueue.ProgressDispatcher, Runnable, Choreographer.FrameCallback {
+        private final LinkedHashSet<DownloadQueue.EntryProgress> changed = new LinkedHashSet<DownloadQueue.EntryProgress>();
+        private boolean scheduled = false;
 
-        /** @return true if inProgress or scheduled */
-        private Entry scheduled(String url) {
-            synchronized (queueMonitor) {
-                Entry entry = scheduledEntries.get(url);
-                if (entry != null) return entry;
-                entry = inProgress.get(url);
-                return entry;
+        public void onProgressChanged(DownloadQueue.EntryProgress progress) {
+            synchronized (changed) {
+                changed.add(progress);
+                if (scheduled) return;
+                scheduled = true;
             }
+            Tools.uiHandler.post(this);
         }
 
-        /** @return true if inProgress or scheduled */
-        private Entry inProgress(String url) {
-            synchronized (queueMonitor) {
-                Entry entry = inProgress.get(url);
-                return entry;
-            }
+        /** Choreographer belongs to UI thread */
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(this);
         }
 
-        public void setSSLSocketFactory(SSLSocketFactory sslFactory) {
-            synchronized (queueMonitor) {
-                this.sslSocketFactory = sslFactory;
+        public void doFrame(long frameTimeNanos) {
+            DownloadQueue.EntryProgress[] toDeliver;
+            synchronized (changed) {
+                toDeliver = changed.toArray(new DownloadQueue.EntryProgress[changed.size()]);
+                changed.clear();
+                scheduled = false;
             }
-        }
-
-        private static boolean isSame(Object left, Object right) {
-            if (left == right) return true;
-            if (left == null && right == null) return true;
-            if (left != null && right != null && left.equals(right)) return true;
-            return false;
-        }
-
-        private static class Entry {
-            String url;
-            File file;
-            ArrayList<CompleteListener> completeListeners = new ArrayList<Atlas.DownloadQueue.CompleteListener>(3);
-            /** @param file - if null DownloadQueue will create tempFile using {@link File#createTempFile(String, String)} }*/
-            public Entry(String url, File file, CompleteListener listener) {
-                if (url == null) throw new IllegalArgumentException("url cannot be null");
-                this.url = url;
-                this.file = file;
-                this.completeListeners.add(listener);
+            for (DownloadQueue.EntryProgress progress : toDeliver) {
+                progress.deliver();
             }
         }
-
-        public interface CompleteListener {
-            public void onDownloadComplete(String url, File file);
-        }
     }
 
     public static class FileStreamProvider extends ImageLoader.InputStreamProvider {
@@ -1843,7 +1522,7 @@ public class Atlas {
             return true;
         }
         public boolean equals(Object o) {
-            return file.equals(o);
+            return o instanceof FileStreamProvider && file.equals(((FileStreamProvider) o).file);
         }
         public int hashCode() {
             return file.hashCode();
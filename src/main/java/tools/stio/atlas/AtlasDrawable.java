@@ -19,32 +19,48 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorFilter;
+import android.graphics.Movie;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
+import android.view.View;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 
 import java.io.File;
-import java.util.TreeMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import tools.stio.atlas.Atlas.DownloadQueue;
 import tools.stio.atlas.Atlas.FileStreamProvider;
 import tools.stio.atlas.Atlas.ImageLoader;
-import tools.stio.atlas.Atlas.ImageLoader.InputStreamProvider;
 import tools.stio.atlas.Atlas.Tools;
 import tools.stio.atlas.Dt.Log;
+import tools.stio.atlas.core.ImageCache;
+import tools.stio.atlas.core.ImageLoader.InputStreamProvider;
+import tools.stio.atlas.core.StreamingProvider;
 
 /**
  * ImageLoader/DownloadQueue backed drawable. Use {@link Atlas#imageFromUrl(String)} or {@link Atlas#imageFromUrlOrFile(String, File)}
+ * <p>
+ * Animated GIF and WebP are detected by content and animated in place. Gifs decoded to {@link Movie} or
+ * {@link GIFDrawable.Frames} are played by own {@link GIFDrawable} at their frame boundaries
  *
  * @author Oleg Orlov
  * @since  06 Nov 2017
  */
-public class AtlasDrawable extends android.graphics.drawable.Drawable implements DownloadQueue.CompleteListener, ImageLoader.ImageLoadListener {
+public class AtlasDrawable extends android.graphics.drawable.Drawable implements android.graphics.drawable.Drawable.Callback, DownloadQueue.StreamListener, DownloadQueue.ProgressListener, ImageLoader.ImageLoadListener {
     private static final String TAG = AtlasDrawable.class.getSimpleName();
     private static final boolean debug = false;
     private static final boolean debugDraw = false;
@@ -56,12 +72,11 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
     //
     // --- debug purposes drawable tracker ---
     //
-    private static volatile int nextAutoId = 0;
-    public static final TreeMap<Integer, AtlasDrawable> all = new TreeMap<Integer, AtlasDrawable>();
+    private static final AtomicInteger nextAutoId = new AtomicInteger();
     /** drawables tracker for debug purposes */
-    private final int autoId = nextAutoId++;
+    private final int autoId = nextAutoId.getAndIncrement();
     {
-        all.put(autoId, this);
+        if (Registry.enabled) Registry.register(this);
     }
     //
     // ---     end of drawable tracker     ---
@@ -106,11 +121,26 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
     /** is used while image original height is not available (during download and inflating)*/
     private int defaultHeight   = 1;
 
-    File from;
-    InputStreamProvider inputStreamProvider;
-    ImageLoader.ImageSpec spec;
+    /** are written by download and decoder threads, read by main thread */
+    volatile File from;
+    volatile InputStreamProvider inputStreamProvider;
+    volatile ImageLoader.ImageSpec spec;
+    /** direct handle to cached image. Is used without lock while {@link ImageCache.Entry#isValid()} */
+    ImageCache.Entry entry;
+    /** last request to {@link ImageLoader}. Not repeated while in flight */
+    ImageLoader.ImageSpec pending;
+    int requestedWidth;
+    int requestedHeight;
+    /** id of bitmap decoded for {@link #setDisplaySize(int, int)}, unique per drawable. Null until zoomed first time */
+    private String zoomedId;
+    private ImageCache.Entry zoomedEntry;
+    /** size zoomed bitmap is requested with, 0x0 if released. Is checked by decoder thread */
+    private volatile int zoomedWidth;
+    private volatile int zoomedHeight;
+    /** zoomed bitmap was decoded, so missing one is evicted rather than not ready yet */
+    private volatile boolean zoomedLoaded;
     Paint workPaint = new Paint();
-    long inflatedAt = 0;
+    volatile long inflatedAt = 0;
 
     /**
      * if true - inflates bitmap as soon as bitmap's data get available. Otherwise only at first draw.
@@ -125,6 +155,16 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
 
     private int fadeInDuration = FADING_MILLIS;
 
+    /** download ring is drawn while image is not available, if set */
+    private Paint progressPaint;
+    private final RectF progressBounds = new RectF();
+    /** 0..1 while downloading, -1 if unknown */
+    private volatile float downloadProgress = -1;
+    private volatile boolean downloadFailed;
+    /** plays cached {@link Movie}, main thread only */
+    private GIFDrawable gifDrawable;
+    private boolean prerenderGif;
+
     /**
      * Creates {@link AtlasDrawable} ready to download and display.
      * {@link #schedule(DownloadQueue)} needs to be called to download file in order to display it.
@@ -165,18 +205,65 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
         return this;
     }
 
+    /**
+     * Gif decoded to {@link Movie} is pre-rendered at drawable bounds, see {@link GIFDrawable#setPrerender(boolean)}.
+     * Ignored if loader could not parse frames of the gif
+     */
+    public AtlasDrawable prerenderGif(boolean prerender) {
+        this.prerenderGif = prerender;
+        GIFDrawable gif = this.gifDrawable;
+        if (gif != null && gif.getTimeline() != null) gif.setPrerender(prerender);
+        return this;
+    }
+
+    /** draws download ring of specified color until image is available */
+    public AtlasDrawable progressRing(int color) {
+        if (progressPaint == null) {
+            progressPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            progressPaint.setStyle(Style.STROKE);
+        }
+        progressPaint.setColor(color);
+        return this;
+    }
+
     /** schedule download file to default location */
     public AtlasDrawable schedule(DownloadQueue queue) {
-        queue.schedule(id, this);
+        this.downloadFailed = false;
+        queue.schedule(id, null, this, false, this);
         return this;
     }
 
     /** schedule download to specific location */
     public AtlasDrawable schedule(DownloadQueue queue, File toFile) {
-        queue.schedule(id, toFile, this);
+        this.downloadFailed = false;
+        queue.schedule(id, toFile, this, false, this);
         return this;
     }
 
+    @Override
+    public void onDownloadProgress(String url, long downloaded, long total) {
+        float progress = total > 0 ? 1.0f * downloaded / total : -1;
+        if (progress == downloadProgress) return;
+        this.downloadProgress = progress;
+        if (progressPaint != null) invalidate();
+    }
+
+    /** @return 0..1 while downloading, -1 if unknown */
+    public float getDownloadProgress() {
+        return downloadProgress;
+    }
+
+    /** bounds are decoded from the first bytes, so layout gets image size before download completes */
+    @Override
+    public void onDownloadStream(String url, StreamingProvider stream) {
+        if (debug) Log.w(TAG, "onDownloadStream() id: " + id + ", provider: " + inputStreamProvider);
+        boolean retried = inputStreamProvider instanceof StreamingProvider && ((StreamingProvider) inputStreamProvider).isFailed();
+        if (inputStreamProvider != null && !retried) return;
+        this.downloadFailed = false;
+        this.inputStreamProvider = stream;
+        Atlas.imageLoader.requestImage(id, stream, this, true);
+    }
+
     @Override
     public void onDownloadComplete(String url, File file) {
         if (debug) Log.w(TAG, "onDownloadComplete() id: " + id + ", file: " + file);
@@ -189,10 +276,34 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
         invalidate();
     }
 
+    /** stops progress ring, image stays at default size */
+    @Override
+    public void onDownloadFailed(String url) {
+        if (debug) Log.w(TAG, "onDownloadFailed() id: " + id);
+        this.downloadFailed = true;
+        this.downloadProgress = -1;
+        if (progressPaint != null) invalidate();
+    }
+
+    /** @return true if the last download of image failed, schedule it again to retry */
+    public boolean isDownloadFailed() {
+        return downloadFailed;
+    }
+
     @Override
     public void onImageLoaded(ImageLoader.ImageSpec spec) {
+        if (zoomedId != null && zoomedId.equals(spec.id)) {
+            if (zoomedWidth == 0 && zoomedHeight == 0) {
+                Atlas.imageLoader.removeFromCache(zoomedId);            // released while decoding
+                return;
+            }
+            if (debug) Log.w(TAG, "onImageLoaded()      zoomed spec: " + spec);
+            zoomedLoaded = true;
+            invalidate();                                               // replaces regular bitmap without fading
+            return;
+        }
         this.spec = spec;
-        long now = System.currentTimeMillis();
+        long now = AnimationClock.now();
         if (debug) Log.w(TAG, "onImageLoaded()      "
                               + (inflatedAt != 0 ? "inlatedAt: [" + (now - inflatedAt) + " -> 0]" : "")
                               + " spec: " + spec + ", callback: " + getCallback());
@@ -266,7 +377,10 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
     private int getInnerIntrinsicWidth() {
         int width = 0;
         if (spec != null) width = spec.originalWidth;
-        if (width == 0) width = Atlas.imageLoader.getOriginalImageWidth(id);
+        if (width == 0) {
+            ImageCache.Entry entry = validEntry();
+            width = entry != null ? entry.originalWidth : Atlas.imageLoader.getOriginalImageWidth(id);
+        }
         if (width == 0) width = defaultWidth;   // fallback to default
         if (debug) Log.w(TAG, "getInnerIntrinsicWidth()  " + width + (spec == null ? (", id: " + id) : ", spec: " + spec) + " from: " + Dt.printStackTrace(7));
         return width;
@@ -275,7 +389,10 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
     private int getInnerIntrinsicHeight() {
         int height = 0;
         if (spec != null) height = spec.originalHeight;
-        if (height == 0) height = Atlas.imageLoader.getOriginalImageHeight(id);
+        if (height == 0) {
+            ImageCache.Entry entry = validEntry();
+            height = entry != null ? entry.originalHeight : Atlas.imageLoader.getOriginalImageHeight(id);
+        }
         if (height == 0) height = defaultHeight;
         if (debug) Log.w(TAG, "getInnerIntrinsicHeight() " + height + (spec == null ? (", id: " + id) : ", spec: " + spec)  + " from: " + Dt.printStackTrace(7));
         return height;
@@ -322,9 +439,13 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
     @Override
     public void draw(Canvas canvas) {
         if (debug) Log.d(TAG, "draw() " + autoId +  ": id: " + id + ", callback: " + getCallback());
-        Bitmap bmp = (Bitmap) Atlas.imageLoader.getImageFromCache(id);
-        if (bmp != null) {
-            long now = System.currentTimeMillis();
+        ImageCache.Entry entry = validEntry();
+        if (entry == null) entry = this.entry = Atlas.imageLoader.getCacheEntry(id);
+        Object image = entry != null ? entry.bitmapOrMovie : null;
+        if (!(image instanceof Movie || image instanceof GIFDrawable.Frames)) releaseGif();
+        if (image instanceof Bitmap) {
+            Bitmap bmp = (Bitmap) image;
+            long now = AnimationClock.now();
 
             // bmp may be available when drawable is new (inflatedAt = 0), so set "inflated" somewhen in the past
             if (inflatedAt == 0) inflatedAt = now - (fadeInDuration * 2);
@@ -339,14 +460,20 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
                 if (debug) Log.w(TAG, "draw() " + autoId +  ": huge bmp: " + bmp.getWidth() + "x" + bmp.getHeight() + ", required " + getBounds().width() + "x" + getBounds().height() + ": " + spec);
             }
 
-            canvas.drawBitmap(bmp, null, getBounds(), workPaint );
-            if (        (getBounds().width()  > bmp.getWidth()  && spec != null && bmp.getWidth()  < spec.originalWidth)
-                    ||  (getBounds().height() > bmp.getHeight() && spec != null && bmp.getHeight() < spec.originalHeight)) {
-                requestInflate();
+            Bitmap zoomed = zoomedBitmap();
+            canvas.drawBitmap(zoomed != null ? zoomed : bmp, null, getBounds(), workPaint );
+            if ((       (getBounds().width()  > bmp.getWidth()  && spec != null && bmp.getWidth()  < spec.originalWidth)
+                    ||  (getBounds().height() > bmp.getHeight() && spec != null && bmp.getHeight() < spec.originalHeight))
+                    && (getBounds().width() > requestedWidth || getBounds().height() > requestedHeight)) {
+                requestInflate();           // bounds grew since last request
             }
             if (age < fadeInDuration) {
-                invalidateSelf();
+                AnimationClock.animate(this);
             }
+        } else if (image instanceof Movie || image instanceof GIFDrawable.Frames) {
+            drawGif(canvas, image);
+        } else if (image instanceof Drawable) {
+            drawAnimated(canvas, (Drawable) image);
         } else {
             if (debug) Log.d(TAG, "draw() " + autoId +  ": no bitmap, request id: " + id);
 
@@ -354,9 +481,10 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
             inflatedAt = 0;
 
             requestInflate();
+            drawProgress(canvas);
         }
         if (debugDraw) {
-            if (bmp != null) {
+            if (image != null) {
                 Tools.drawRect(getBounds().left, getBounds().top, 10, 10, debugPaintCmplt, debugPaintStroke, canvas);
             } else if (inputStreamProvider == null) {
                 Tools.drawRect(getBounds().left, getBounds().top, 10, 10, debugPaintDwnld, debugPaintStroke, canvas);
@@ -366,6 +494,85 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
         }
     }
 
+    /** ring around bounds center, sweep follows {@link #downloadProgress} */
+    private void drawProgress(Canvas canvas) {
+        float progress = downloadProgress;
+        if (progressPaint == null || progress <= 0 || progress >= 1) return;
+        Rect bounds = getBounds();
+        float radius = Math.min(bounds.width(), bounds.height()) / 6f;
+        if (radius < 1) return;
+        progressPaint.setStrokeWidth(radius / 4);
+        progressBounds.set(bounds.exactCenterX() - radius, bounds.exactCenterY() - radius, bounds.exactCenterX() + radius, bounds.exactCenterY() + radius);
+        canvas.drawArc(progressBounds, -90, 360 * progress, false, progressPaint);
+    }
+
+    /**
+     * Gif decoded to {@link Movie} or {@link GIFDrawable.Frames} is played by {@link GIFDrawable}: frames are scheduled
+     * at boundaries of loader's timeline within shared fps budget and stop while drawable is hidden or detached
+     */
+    private void drawGif(Canvas canvas, Object image) {
+        GIFDrawable gif = this.gifDrawable;
+        if (gif == null || gif.getMovie() != image && gif.getFrames() != image) {
+            releaseGif();
+            if (image instanceof GIFDrawable.Frames) {
+                gif = new GIFDrawable((GIFDrawable.Frames) image);
+            } else {
+                Movie movie = (Movie) image;
+                if (movie.width() == 0 || movie.height() == 0) return;
+                gif = new GIFDrawable(movie, Atlas.imageLoader.getTimeline(movie));
+            }
+            if (prerenderGif && gif.getTimeline() != null) gif.setPrerender(true);
+            gif.setCallback(this);
+            this.gifDrawable = gif;
+        }
+        gif.setBounds(getBounds());
+        gif.draw(canvas);
+    }
+
+    /** stops frames of previous movie */
+    private void releaseGif() {
+        GIFDrawable gif = this.gifDrawable;
+        if (gif == null) return;
+        this.gifDrawable = null;
+        gif.setVisible(false, false);
+        gif.setPrerender(false);
+        gif.setCallback(null);
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        if (gifDrawable != null) gifDrawable.setVisible(visible, restart);
+        return super.setVisible(visible, restart);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+
+    /**
+     * AnimatedImageDrawable (API 28+) is shared by all drawables with the same id. On hardware canvas
+     * RenderThread advances its frames, and only while it is a part of rendered display list
+     */
+    private void drawAnimated(Canvas canvas, Drawable animated) {
+        animated.setBounds(getBounds());
+        if (animated instanceof Animatable && !((Animatable) animated).isRunning()) {
+            ((Animatable) animated).start();
+        }
+        animated.draw(canvas);
+        if (!canvas.isHardwareAccelerated()) AnimationClock.animate(this);
+    }
+
     /** only when file is fetched and not scheduled yet. supports following scenarios:
      * - drawable is new, bmp is not available non-scheduled
      * - drawable is new, bmp is not available,    scheduled
@@ -374,22 +581,84 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
      * - drawable had bmp before, but now bmp is not available,     scheduled
      */
     void requestInflate() {
-        // if already scheduled - don't schedule again.
-        // XXX: if two drawables schedule same image, one of them wouldn't be notified
-
         if (inputStreamProvider != null) {
             int requiredWidth = getBounds().width();
             int requiredHeight = getBounds().height();
 
+            // if already scheduled with enough boundaries - don't schedule again
+            ImageLoader.ImageSpec pending = this.pending;
+            if (pending != null && !pending.finished && requiredWidth <= requestedWidth && requiredHeight <= requestedHeight) return;
+
             if (requiredWidth == defaultWidth || requiredHeight == defaultHeight)  {
                 if (debug) Log.w(TAG, "requestInflate() small boundaries: " + requiredWidth + "x" + requiredHeight + ", \t id: " + id + ", spec: " + spec);
-                Atlas.imageLoader.requestImage(id, inputStreamProvider, this, true);
+                this.pending = Atlas.imageLoader.requestImage(id, inputStreamProvider, this, true);
             } else {
                 if (debug) Log.w(TAG, "requestInflate()       boundaries: " + requiredWidth + "x" + requiredHeight + ", \t id: " + id);
                 boolean decodeOnly = requiredWidth == 0 && requiredHeight == 0;
-                Atlas.imageLoader.requestImage(id, inputStreamProvider, requiredWidth, requiredHeight, false, this, decodeOnly);
+                this.pending = Atlas.imageLoader.requestImage(id, inputStreamProvider, requiredWidth, requiredHeight, false, this, decodeOnly);
             }
+            this.requestedWidth = requiredWidth;
+            this.requestedHeight = requiredHeight;
+        }
+    }
+
+    /**
+     * Tells drawable it is shown larger than its bounds, i.e. zoomed by {@link AtlasImageView}. 
+     * Bitmap of that size is decoded under separate id and is drawn instead of regular one when ready, 
+     * so regular bitmap shared with other drawables keeps its size. Zoomed bitmap is released as soon 
+     * as display size fits bounds again and is decoded again if cache evicts it while zoomed
+     */
+    public void setDisplaySize(int width, int height) {
+        Rect bounds = getBounds();
+        ImageCache.Entry entry = validEntry();
+        Object image = entry != null ? entry.bitmapOrMovie : null;
+        if (width <= bounds.width() && height <= bounds.height() || !(image instanceof Bitmap) || inputStreamProvider == null) {
+            releaseZoomed();
+            return;
+        }
+        if (bounds.isEmpty()) return;                                   // not drawn yet
+        Bitmap bmp = (Bitmap) image;
+        if (spec != null && bmp.getWidth() >= spec.originalWidth && bmp.getHeight() >= spec.originalHeight) return;    // nothing better
+        if (width <= zoomedWidth && height <= zoomedHeight) return;        // requested already
+
+        if (zoomedId == null) zoomedId = id + "@zoomed:" + autoId;  // other drawables of the same id zoom on their own
+        if (debug) Log.w(TAG, "setDisplaySize() " + width + "x" + height + ", bounds: " + bounds + ", id: " + zoomedId);
+        this.zoomedWidth = width;
+        this.zoomedHeight = height;
+        requestZoomed();
+    }
+
+    private void requestZoomed() {
+        zoomedLoaded = false;
+        Atlas.imageLoader.requestImage(zoomedId, inputStreamProvider, zoomedWidth, zoomedHeight, false, this, false);
+    }
+
+    private void releaseZoomed() {
+        if (zoomedWidth == 0 && zoomedHeight == 0) return;
+        if (debug) Log.w(TAG, "releaseZoomed() " + zoomedWidth + "x" + zoomedHeight + ", id: " + zoomedId);
+        zoomedEntry = null;
+        zoomedWidth = 0;
+        zoomedHeight = 0;
+        zoomedLoaded = false;
+        Atlas.imageLoader.removeFromCache(zoomedId);
+        invalidateSelf();
+    }
+
+    private Bitmap zoomedBitmap() {
+        if (zoomedWidth == 0 && zoomedHeight == 0) return null;
+        ImageCache.Entry zoomed = zoomedEntry;
+        if (zoomed == null || !zoomed.isValid()) zoomed = zoomedEntry = Atlas.imageLoader.getCacheEntry(zoomedId);
+        if (zoomed == null && zoomedLoaded && inputStreamProvider != null) {
+            if (debug) Log.w(TAG, "zoomedBitmap() evicted, decoding again " + zoomedWidth + "x" + zoomedHeight + ", id: " + zoomedId);
+            requestZoomed();                                            // still zoomed, don't stay on upscaled bitmap
         }
+        return zoomed != null && zoomed.bitmapOrMovie instanceof Bitmap ? (Bitmap) zoomed.bitmapOrMovie : null;
+    }
+
+    /** @return cache entry if it is still in cache, null otherwise. Lock-free */
+    private ImageCache.Entry validEntry() {
+        ImageCache.Entry entry = this.entry;
+        return entry != null && entry.isValid() ? entry : null;
     }
 
     protected void invalidate() {
@@ -440,4 +709,121 @@ public class AtlasDrawable extends android.graphics.drawable.Drawable implements
         return from;
     }
 
+    /**
+     * Opt-in tracker of live {@link AtlasDrawable}s. Keeps weak references only, so tracked drawables
+     * can be collected. Disabled by default and costs a single field check per drawable then
+     * <p>
+     * Enable it with {@link #setEnabled(boolean)} before drawables are created and use {@link #stats()}
+     * to see what is alive
+     */
+    public static class Registry {
+        private static final String TAG = Registry.class.getSimpleName();
+
+        private static volatile boolean enabled = false;
+
+        private static final Object registryMonitor = new Object();
+        private static final ReferenceQueue<AtlasDrawable> collected = new ReferenceQueue<AtlasDrawable>();
+        private static final HashMap<Integer, DrawableRef> refs = new HashMap<Integer, DrawableRef>();
+        private static int collectedCount = 0;
+
+        /** drawables created while registry was disabled are not tracked */
+        public static void setEnabled(boolean enabled) {
+            synchronized (registryMonitor) {
+                Registry.enabled = enabled;
+                if (!enabled) {
+                    refs.clear();
+                    collectedCount = 0;
+                    while (collected.poll() != null) {}
+                }
+            }
+        }
+
+        public static boolean isEnabled() {
+            return enabled;
+        }
+
+        private static void register(AtlasDrawable drawable) {
+            synchronized (registryMonitor) {
+                if (!enabled) return;
+                purge();
+                refs.put(drawable.autoId, new DrawableRef(drawable, collected));
+            }
+        }
+
+        /** removes references of collected drawables. Is called under {@link #registryMonitor} */
+        private static void purge() {
+            for (Reference<? extends AtlasDrawable> ref; (ref = collected.poll()) != null; ) {
+                if (refs.remove(((DrawableRef) ref).autoId) != null) collectedCount++;
+            }
+        }
+
+        /** @return drawables alive at the moment of call */
+        public static ArrayList<AtlasDrawable> alive() {
+            synchronized (registryMonitor) {
+                purge();
+                ArrayList<AtlasDrawable> result = new ArrayList<AtlasDrawable>(refs.size());
+                for (Iterator<DrawableRef> it = refs.values().iterator(); it.hasNext(); ) {
+                    AtlasDrawable drawable = it.next().get();
+                    if (drawable != null) result.add(drawable);
+                }
+                return result;
+            }
+        }
+
+        /** @return snapshot of alive drawables grouped by state */
+        public static Stats stats() {
+            Stats stats = new Stats();
+            ArrayList<AtlasDrawable> alive = alive();
+            synchronized (registryMonitor) {
+                stats.collected = collectedCount;
+            }
+            for (int i = 0; i < alive.size(); i++) {
+                AtlasDrawable drawable = alive.get(i);
+                if (drawable.inputStreamProvider == null) {
+                    stats.downloading++;
+                } else if (Atlas.imageLoader.getImageFromCache(drawable.id) == null) {
+                    stats.inflating++;
+                } else {
+                    stats.ready++;
+                }
+                Callback callback = drawable.getCallback();
+                if (callback instanceof View && !((View) callback).isAttachedToWindow()) {
+                    stats.leakedCallbacks.add(drawable);
+                }
+            }
+            if (debug) Log.w(TAG, "stats() " + stats);
+            return stats;
+        }
+
+        public static class Stats {
+            /** file is not available yet */
+            public int downloading;
+            /** file is available, image is not in memory */
+            public int inflating;
+            /** image is in memory */
+            public int ready;
+            /** tracked drawables collected by GC so far */
+            public int collected;
+            /** drawables that keep detached views as callback. Such views (and their Context) cannot be collected */
+            public final ArrayList<AtlasDrawable> leakedCallbacks = new ArrayList<AtlasDrawable>();
+
+            public int alive() {
+                return downloading + inflating + ready;
+            }
+
+            public String toString() {
+                return "alive: " + alive() + " [downloading: " + downloading + ", inflating: " + inflating + ", ready: " + ready + "]"
+                        + ", collected: " + collected + ", leaked callbacks: " + leakedCallbacks.size();
+            }
+        }
+
+        private static class DrawableRef extends WeakReference<AtlasDrawable> {
+            final int autoId;
+            DrawableRef(AtlasDrawable drawable, ReferenceQueue<AtlasDrawable> queue) {
+                super(drawable, queue);
+                this.autoId = drawable.autoId;
+            }
+        }
+    }
+
 }
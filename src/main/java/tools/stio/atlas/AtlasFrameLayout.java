@@ -21,16 +21,19 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Outline;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Path.Direction;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewOutlineProvider;
 import android.widget.FrameLayout;
 
 
@@ -60,22 +63,30 @@ public class AtlasFrameLayout extends FrameLayout {
     private Path shaper = new Path();
     
     // drawable based shaping
-    private Bitmap  maskBitmap;
-    private Canvas  maskCanvas;
+    /** mask outline clips children when outline can clip (rect, round rect, oval) */
+    private boolean clipToMaskOutline;
+    private final Outline maskOutline = new Outline();
+    /** alpha of mask, is applied to children composed in a layer with DST_IN. Shared with other layouts */
+    private MaskCache.Mask mask;
+    private final float[] maskRadii = new float[8];
     private Paint   maskPaint;
-    private Bitmap  surfaceBitmap;
-    private Canvas  surfaceCanvas;
-    private Paint   plainPaint;
+    /** clip bounds of current {@link #dispatchDraw(Canvas)}, i.e. part of composite being updated */
+    private final Rect dirty = new Rect();
     private int     defaultLayerType;
     {
-        plainPaint = new Paint();
-        
         maskPaint = new Paint();
         maskPaint.setAntiAlias(true);
         maskPaint.setDither(true);
         maskPaint.setXfermode(new PorterDuffXfermode(Mode.DST_IN));
         defaultLayerType = getLayerType();
     }
+
+    private final ViewOutlineProvider maskOutlineProvider = new ViewOutlineProvider() {
+        public void getOutline(View view, Outline outline) {
+            maskDrawable.setBounds(0, 0, view.getWidth(), view.getHeight());
+            maskDrawable.getOutline(outline);
+        }
+    };
     
     public AtlasFrameLayout(Context context) {
         this(context, null);
@@ -110,6 +121,7 @@ public class AtlasFrameLayout extends FrameLayout {
     /** Mask is applied after all children combined. Background is not masked */
     public void setMask(Drawable maskDrawable) {
         this.maskDrawable = maskDrawable;
+        if (maskDrawable == null) releaseMask();
         refreshShape = true;
         prepareRendering();
         invalidate();
@@ -125,18 +137,42 @@ public class AtlasFrameLayout extends FrameLayout {
         invalidate();
     }
 
-    /** SOFTWARE rendering is required for canvas.clipPath on Android API version lower 18 */
+    /**
+     * Masks keep children hardware accelerated:
+     * <ul>
+     * <li>mask with outline that can clip (rect, round rect, oval) - {@link #setClipToOutline(boolean)}.
+     * Used only without background, because outline would clip background too
+     * <li>any other mask - children are composed in a layer and multiplied by ALPHA_8 mask with DST_IN.
+     * Composite is kept in a hardware layer between frames, so when a child invalidates only
+     * damaged part of it is composed again
+     * </ul>
+     */
     private void prepareRendering() {
-        // dispatchDraw() is not called with hardware layer when underlying view invalidates 
-        // so it doesn't work with animated content like AtlasDrawable
-        if (maskDrawable != null) {
-            setLayerType(LAYER_TYPE_SOFTWARE, null);
-            setDrawingCacheEnabled(false);
-            if (debug)  Log.d(TAG, "prepareRendering() set software rendering...");
-        } else {
+        clipToMaskOutline = false;
+        if (maskDrawable != null && getBackground() == null && getWidth() > 0 && getHeight() > 0) {
+            maskOutline.setEmpty();
+            maskDrawable.setBounds(0, 0, getWidth(), getHeight());
+            maskDrawable.getOutline(maskOutline);
+            clipToMaskOutline = !maskOutline.isEmpty() && maskOutline.canClip();
+        }
+        if (clipToMaskOutline) {
+            setOutlineProvider(maskOutlineProvider);
+            setClipToOutline(true);
             setLayerType(defaultLayerType, null);
-            if (debug)  Log.d(TAG, "prepareRendering() set  default rendering...");
+            if (debug)  Log.d(TAG, "prepareRendering() clip to mask outline...");
+        } else {
+            setOutlineProvider(ViewOutlineProvider.BACKGROUND);
+            setClipToOutline(false);
+            setLayerType(maskDrawable != null ? LAYER_TYPE_HARDWARE : defaultLayerType, null);
+            if (debug)  Log.d(TAG, "prepareRendering() " + (maskDrawable != null ? "mask layer..." : "no mask..."));
         }
+        invalidateOutline();
+    }
+
+    @Override
+    public void setBackgroundDrawable(Drawable background) {
+        super.setBackgroundDrawable(background);
+        if (maskDrawable != null) prepareRendering();       // background is not masked
     }
     
     /** 
@@ -150,31 +186,33 @@ public class AtlasFrameLayout extends FrameLayout {
         this.corners[3] = bottomLeft;
     }
     
+    /** takes mask from {@link MaskCache} only when size, corners or mask changes */
     private void checkMasks(int width, int height) {
-        if (surfaceBitmap == null || surfaceBitmap.getWidth() != width || surfaceBitmap.getHeight() != height
-                || refreshShape) {
+        if (mask == null || mask.key.width != width || mask.key.height != height || refreshShape) {
             
             if (debug) Log.w(TAG, "checkMasks() " + width + " | " + height );
-            surfaceBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            surfaceCanvas = new Canvas(surfaceBitmap);
-            
-            maskBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            maskCanvas = new Canvas(maskBitmap);
+            boolean rounded = corners[0] != 0 || corners[1] != 0 || corners[2] != 0 || corners[3] != 0;
+            if (rounded) Atlas.Tools.getRoundRectRadii(corners, getResources().getDisplayMetrics(), maskRadii);
+            MaskCache.Mask previous = mask;
+            mask = MaskCache.acquire(getContext(), maskDrawable, width, height, rounded ? maskRadii : null);
+            MaskCache.release(previous);
             
-            if (debug) Log.w(TAG, "checkMasks() maskBitmap: [" + maskBitmap.getWidth() + ", " + maskBitmap.getHeight() + "], bytes: " + maskBitmap.getByteCount());
+            if (debug) Log.w(TAG, "checkMasks() mask: [" + mask.bitmap.getWidth() + ", " + mask.bitmap.getHeight() + "], bytes: " + mask.bitmap.getByteCount());
             refreshShape = false;
         }
-        
-        maskCanvas.drawColor(0, Mode.CLEAR);
-        maskDrawable.setBounds(0, 0, width, height);
-        maskDrawable.draw(maskCanvas);
-        
+    }
+
+    private void releaseMask() {
+        MaskCache.release(mask);
+        mask = null;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseMask();                                      // taken again on next draw
     }
     
-    /** 
-     * TODO: utilize {@link #getDrawingCache()} created by {@link #buildDrawingCache()} before {@link #onDraw(Canvas)} 
-     * to reuse this bitmap for masks (available only for {@link #LAYER_TYPE_SOFTWARE}  )
-     */
     @Override
     protected void dispatchDraw(Canvas canvas) {
         // clipPath according to shape
@@ -187,16 +225,19 @@ public class AtlasFrameLayout extends FrameLayout {
                 + ", size: " + getWidth() + "x" + getHeight()
                 + ", resetShape: " + refreshShape + ", from: " + Dt.printStackTrace(7));
         
-        if (maskDrawable != null) {
+        if (maskDrawable != null && !clipToMaskOutline) {
             
             checkMasks(width, height);
-            surfaceCanvas.drawColor(0, Mode.CLEAR);
-            super.dispatchDraw(surfaceCanvas);
-            
-            surfaceCanvas.drawBitmap(maskBitmap, 0, 0, maskPaint);
-            
-            canvas.drawBitmap(surfaceBitmap, 0, 0, plainPaint);
+            // recompose dirty part only: software canvas is clipped to invalidated region, and
+            // hardware layer is updated within its damage, the rest of previous composite is kept
+            if (!canvas.getClipBounds(dirty)) return;
+            int saved = canvas.saveLayer(dirty.left, dirty.top, dirty.right, dirty.bottom, null);
+            super.dispatchDraw(canvas);
+            canvas.drawBitmap(mask.bitmap, 0, 0, maskPaint);
+            canvas.restoreToCount(saved);
             
+        } else if (maskDrawable != null) {
+            super.dispatchDraw(canvas);                     // clipped by outline
         } else {
             if (true) {
                 super.dispatchDraw(canvas);
@@ -223,9 +264,14 @@ public class AtlasFrameLayout extends FrameLayout {
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         refreshShape = true;
+        if (maskDrawable != null) prepareRendering();
     }
     /** debug purposes */
     private int measureCount = 0;
+    /** specs of the last measure, valid until {@link #requestLayout()} */
+    private boolean measureCached;
+    private int cachedWidthSpec;
+    private int cachedHeightSpec;
     /**
      * Android's [match_parent;match_parent] behaves weird - it will finally set your's view size to [parent_width, 0].<br>
      * Non-zero results comes from minWidth/minHeight and background's padding, but not from parent. 
@@ -264,21 +310,55 @@ public class AtlasFrameLayout extends FrameLayout {
         if (debug) Log.w(TAG, "onMeasure()." + measureCount + " before: " + mWidthBefore + "x" + mHeightBefore
                 + ", spec: " + Atlas.Tools.toStringSpec(widthMeasureSpec, heightMeasureSpec));
 
-        //super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        superOnMeasure(widthMeasureSpec, heightMeasureSpec);
-        
-        // handling width / height ratio
-        int measuredWidth  = getMeasuredWidth();
-        int measuredHeight = getMeasuredHeight();
-
-        if (widthToHeightRatio != 0.0f) {
-            int newHeight = (int) (measuredWidth / widthToHeightRatio);
-            int newWidthSpec  = MeasureSpec.makeMeasureSpec(measuredWidth,  MeasureSpec.EXACTLY);
-            int newHeightSpec = MeasureSpec.makeMeasureSpec(newHeight,      MeasureSpec.EXACTLY);
-            if (debug) Log.w(TAG, "onMeasure()." + measureCount + " ratio: " + widthToHeightRatio + ", width: " + measuredWidth + ", height: " + measuredHeight + " -> " + Atlas.Tools.toStringSpec(newWidthSpec, newHeightSpec));
-            superOnMeasure(newWidthSpec, newHeightSpec);
+        if (measureCached && widthMeasureSpec == cachedWidthSpec && heightMeasureSpec == cachedHeightSpec) {
+            if (debug) Log.w(TAG, "onMeasure()." + measureCount + " cached: " + mWidthBefore + "x" + mHeightBefore);
+            setMeasuredDimension(getMeasuredWidthAndState(), getMeasuredHeightAndState());
+            return;
+        }
+
+        if (widthToHeightRatio != 0.0f && MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY) {
+            // size is known from spec, children are measured once with exact specs
+            int width = MeasureSpec.getSize(widthMeasureSpec);
+            int newHeightSpec = MeasureSpec.makeMeasureSpec((int) (width / widthToHeightRatio), MeasureSpec.EXACTLY);
+            if (debug) Log.w(TAG, "onMeasure()." + measureCount + " ratio: " + widthToHeightRatio + ", exact width: " + width + " -> " + Atlas.Tools.toStringSpec(widthMeasureSpec, newHeightSpec));
+            superOnMeasure(widthMeasureSpec, newHeightSpec);
+        } else {
+            //super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            superOnMeasure(widthMeasureSpec, heightMeasureSpec);
+            
+            // handling width / height ratio
+            int measuredWidth  = getMeasuredWidth();
+            int measuredHeight = getMeasuredHeight();
+    
+            if (widthToHeightRatio != 0.0f) {
+                int newHeight = (int) (measuredWidth / widthToHeightRatio);
+                int newWidthSpec  = MeasureSpec.makeMeasureSpec(measuredWidth,  MeasureSpec.EXACTLY);
+                int newHeightSpec = MeasureSpec.makeMeasureSpec(newHeight,      MeasureSpec.EXACTLY);
+                if (debug) Log.w(TAG, "onMeasure()." + measureCount + " ratio: " + widthToHeightRatio + ", width: " + measuredWidth + ", height: " + measuredHeight + " -> " + Atlas.Tools.toStringSpec(newWidthSpec, newHeightSpec));
+                superOnMeasure(newWidthSpec, newHeightSpec);
+            }
         }
 
+        cachedWidthSpec  = widthMeasureSpec;
+        cachedHeightSpec = heightMeasureSpec;
+        measureCached = true;
+    }
+
+    /** 
+     * Parents like LinearLayout with weights or RelativeLayout measure children twice with the same specs 
+     * during one layout pass. View.measure() calls onMeasure() each time while layout is requested,
+     * so nested layouts re-measure exponentially. Only the last measure is cached: children keep its results
+     */
+    @Override
+    public void requestLayout() {
+        measureCached = false;
+        super.requestLayout();
+    }
+
+    @Override
+    public void forceLayout() {
+        measureCached = false;
+        super.forceLayout();
     }
     
     private final ArrayList<View> mMatchParentChildren = new ArrayList<View>(1);
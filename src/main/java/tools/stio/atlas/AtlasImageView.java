@@ -16,6 +16,7 @@
 package tools.stio.atlas;
 
 import android.animation.TimeInterpolator;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
@@ -27,16 +28,22 @@ import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.Rect;
+import android.graphics.RecordingCanvas;
 import android.graphics.RectF;
+import android.graphics.RenderNode;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.DecelerateInterpolator;
+import android.widget.OverScroller;
 
 import tools.stio.atlas.Atlas.Tools;
 
@@ -49,6 +56,11 @@ public class AtlasImageView extends View {
     private static final boolean debug = false;
     private static final boolean debugOutline = false;
     
+    /** duration of returning content into boundaries after gesture or fling */
+    private static final int SETTLE_DURATION_MILLIS = 200;
+    /** how far fling may throw content beyond boundaries before it springs back */
+    private static final float FLING_OVERSCROLL_DP = 24;
+    
     /** Backup for type that could be switched to SOFTWARE in order to render GIFs. */
     private int defaultLayerType;
     
@@ -147,32 +159,71 @@ public class AtlasImageView extends View {
         setContentWorkDimensions();
     }
 
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateDrawableVisibility();
+        postMoveFrame();
+    }
+
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (drawable != null) drawable.setVisible(false, false);
+        releaseBuffers();
+        if (moveFramePosted) {
+            Choreographer.getInstance().removeFrameCallback(moveFrameCallback);
+            moveFramePosted = false;
+        }
+    }
+
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateDrawableVisibility();
+    }
+
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateDrawableVisibility();
+    }
+
+    /** animated drawables pause while they are not shown */
+    private void updateDrawableVisibility() {
+        if (drawable != null) drawable.setVisible(isShown() && getWindowVisibility() == VISIBLE, false);
+    }
+
     private void setupPaints() {
         this.defaultLayerType = getLayerType();
         debugTextPaint.setTextSize(Tools.dp2px((float) 10, getContext()));
     }
     
     //
-    // --- tmp debug purposes ----
+    // --- invalidation. Any invalidate() but position changes means drawable has to be recorded again 
     //
     public void invalidate(Rect dirty) {
         if (debug) Log.i(TAG, "invalidate() .view rect: " + dirty + ", from: " + Dt.printStackTrace(7));
+        contentRecorded = false;
         super.invalidate(dirty);
     }
     public void invalidate(int l, int t, int r, int b) {
         if (debug) Log.i(TAG, "invalidate() .view rect: l: " + l+ " t: " + t+ " r: " + r+ " b: " + b + ", from: " + Dt.printStackTrace(7));
+        contentRecorded = false;
         super.invalidate(l, t, r, b);
     }
     public void invalidate() {
         if (debug) Log.i(TAG, "invalidate() .view       from: " + Dt.printStackTrace(7));
+        contentRecorded = false;
         super.invalidate();
     }
     public void invalidateDrawable(Drawable drawable) {
         if (debug) Log.w(TAG, "invalidateDrawable() .view drawable: " + drawable + ", from: " + Dt.printStackTrace(7));
         super.invalidateDrawable(drawable);
     }
+    /** redraws view with new pan, zoom or angle keeping recorded drawable */
+    private void invalidatePosition() {
+        if (debug) Log.i(TAG, "invalidatePosition() " + pos);
+        super.invalidate();
+    }
     //
-    // --- end of tmp debug purposes
+    // --- end of invalidation
     //
     
     protected void onDraw(final Canvas canvas) {
@@ -183,17 +234,6 @@ public class AtlasImageView extends View {
                     + ", measured: " + getMeasuredWidth() + "x" + getMeasuredHeight());
         }
         
-        // handle Move 
-        if (currentMove != null) {
-            boolean stillInProgress = currentMove.handleMove(pos, System.currentTimeMillis(), currentMoveStartedAt);
-            if (stillInProgress) {
-                invalidate();
-            } else {
-                currentMove = null;
-                currentMoveStartedAt = 0;
-            }
-        }
-        
         if (drawable == null) return;
         
         if (drawable instanceof BitmapDrawable) {
@@ -217,8 +257,14 @@ public class AtlasImageView extends View {
         int imgHeight = contentWorkHeight;
         if (imgWidth == 0 || imgHeight == 0) Log.e(TAG, "onDraw() dimensions are undefined. " + contentWorkWidth + "x" + contentWorkHeight);
         
-        float zoomedWidth  = (int) (imgWidth * pos.zoom);
-        float zoomedHeight = (int) (imgHeight * pos.zoom);
+        if (useBitmapBuffer && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+            drawContentNode(canvas, viewWidth, viewHeight, imgWidth, imgHeight);
+            return;
+        }
+        
+        float boundsZoom = getBoundsZoom();
+        float zoomedWidth  = (int) (imgWidth * boundsZoom);
+        float zoomedHeight = (int) (imgHeight * boundsZoom);
         int left = (int) ((viewWidth  - zoomedWidth) / 2);
         int top  = (int) ((viewHeight - zoomedHeight) / 2);
         int right = (int) (left + zoomedWidth);
@@ -226,10 +272,7 @@ public class AtlasImageView extends View {
         if (debug) Log.w(TAG, "onDraw() workSize: " + imgWidth + "x" + imgHeight + " pos: " + pos + ", drawable: " + left + "x" + top + " -> " + right + "x" + bottom);
         drawable.setBounds(left, top, right, bottom);
 
-        if (!useBitmapBuffer && buffer != null) {
-            buffer = null;
-            bufferCanvas = null;
-        }
+        if (!useBitmapBuffer) releaseBuffers();
         if (useBitmapBuffer && (buffer == null || buffer.getWidth() != viewWidth || buffer.getHeight() != viewHeight)) {
             buffer = Bitmap.createBitmap(viewWidth, viewHeight, Config.ARGB_8888);
             bufferCanvas = new Canvas(buffer);
@@ -245,6 +288,7 @@ public class AtlasImageView extends View {
         workCanvas.translate(pos.x, pos.y);
         if (debugOutline) workCanvas.drawRect(left, top, right, bottom, debugFillPaint);
         workCanvas.rotate(angle, 0.5f * viewWidth , 0.5f * viewHeight);
+        workCanvas.scale(pos.zoom / boundsZoom, pos.zoom / boundsZoom, 0.5f * viewWidth , 0.5f * viewHeight);
         drawable.draw(workCanvas);
         if (debugOutline) Atlas.Tools.drawX(drawable.getBounds(), debugGreenPaint, workCanvas);
         workCanvas.restoreToCount(saved);
@@ -277,6 +321,81 @@ public class AtlasImageView extends View {
         
     }
     
+    /**
+     * Drawable is recorded into {@link RenderNode} once and pan, zoom and angle are applied as node properties, 
+     * so gestures don't redraw content. Node is recorded again when drawable invalidates, view is resized or
+     * zoom settles after gesture or {@link Move}, so drawable gets bounds of actual size. See {@link #getBoundsZoom()}
+     */
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void drawContentNode(Canvas canvas, int viewWidth, int viewHeight, int imgWidth, int imgHeight) {
+        if (contentNode == null) contentNode = new RenderNode(TAG);
+        if (contentNode.setPosition(0, 0, viewWidth, viewHeight)) contentRecorded = false;
+        boolean settled = !touchInProgress && currentMove == null;
+        if (settled && recordedZoom != getBoundsZoom()) contentRecorded = false;
+        if (recordedWidth != imgWidth || recordedHeight != imgHeight) contentRecorded = false;
+        
+        if (!contentRecorded || !contentNode.hasDisplayList()) {
+            recordedZoom = getBoundsZoom();
+            recordedWidth = imgWidth;
+            recordedHeight = imgHeight;
+            float zoomedWidth  = (int) (imgWidth * recordedZoom);
+            float zoomedHeight = (int) (imgHeight * recordedZoom);
+            int left = (int) ((viewWidth  - zoomedWidth) / 2);
+            int top  = (int) ((viewHeight - zoomedHeight) / 2);
+            drawable.setBounds(left, top, (int) (left + zoomedWidth), (int) (top + zoomedHeight));
+            
+            RecordingCanvas recordingCanvas = contentNode.beginRecording();
+            try {
+                drawable.draw(recordingCanvas);
+            } finally {
+                contentNode.endRecording();
+            }
+            contentRecorded = true;
+            if (debug) Log.w(TAG, "drawContentNode() recorded at zoom: " + recordedZoom + ", bounds: " + drawable.getBounds());
+        }
+        
+        // the same as translate(pos), rotate(angle) around view center and zoom around view center
+        float scale = pos.zoom / recordedZoom;
+        contentNode.setPivotX(0.5f * viewWidth);
+        contentNode.setPivotY(0.5f * viewHeight);
+        contentNode.setScaleX(scale);
+        contentNode.setScaleY(scale);
+        contentNode.setRotationZ(angle);
+        contentNode.setTranslationX(pos.x);
+        contentNode.setTranslationY(pos.y);
+        canvas.drawRenderNode(contentNode);
+    }
+    
+    /** 
+     * {@link AtlasDrawable} keeps bounds of unzoomed size and is scaled by canvas. It is told about its 
+     * on-screen size when position settles and draws bitmap decoded for it. Other drawables get zoomed bounds
+     */
+    private float getBoundsZoom() {
+        return drawable instanceof AtlasDrawable ? 1.0f : pos.zoom;
+    }
+    
+    /** called when content stops moving after gesture, fling or {@link Move} */
+    private void onPositionSettled() {
+        if (!(drawable instanceof AtlasDrawable)) return;
+        setContentWorkDimensions();
+        int displayWidth  = (int) (contentWorkWidth  * pos.zoom);
+        int displayHeight = (int) (contentWorkHeight * pos.zoom);
+        if (debug) Log.w(TAG, "onPositionSettled() " + pos + ", display size: " + displayWidth + "x" + displayHeight);
+        ((AtlasDrawable) drawable).setDisplaySize(displayWidth, displayHeight);
+    }
+    
+    private void releaseBuffers() {
+        buffer = null;
+        bufferCanvas = null;
+        if (contentNode != null) discardContentNode();
+    }
+    
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void discardContentNode() {
+        contentNode.discardDisplayList();
+        contentRecorded = false;
+    }
+    
     private void setContentWorkDimensions() {
         contentWorkWidth = contentWidth;
         contentWorkHeight = contentHeight;
@@ -378,10 +497,31 @@ public class AtlasImageView extends View {
     private boolean showMarker;
     
     private float dragTouch1x, dragTouch1y;
-    private Position dragStart;
+    private final Position dragStart = new Position();
     
     private float zoomTouch1x, zoomTouch1y, zoomTouch2x, zoomTouch2y;
-    private Position zoomStart;
+    private final Position zoomStart = new Position();
+    /** more than one pointer was down during current gesture */
+    private boolean pinchInGesture;
+    
+    /** scratch objects, so gestures and moves don't allocate */
+    private final RectF offsetBounds = new RectF();
+    private final Position settleFrom = new Position();
+    private final Position settleTo = new Position();
+    private final MoveTo settleMove = new MoveTo().from(settleFrom).to(settleTo)
+            .setDuration(SETTLE_DURATION_MILLIS).setInterpolator(new DecelerateInterpolator());
+    
+    private final OverScroller scroller = new OverScroller(getContext());
+    
+    /** follows {@link #scroller}. Content thrown beyond boundaries is sprung back by scroller itself */
+    private final Move flingMove = new Move() {
+        public boolean handleMove(Position result, long currentTime, long startedAt) {
+            boolean inProgress = scroller.computeScrollOffset();
+            result.x = scroller.getCurrX();
+            result.y = scroller.getCurrY();
+            return inProgress;
+        }
+    };
     
     private GestureDetector gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
         @Override
@@ -393,6 +533,11 @@ public class AtlasImageView extends View {
             boolean result = performClick();
             return result;
         }
+        @Override
+        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+            if (pinchInGesture) return false;
+            return fling(velocityX, velocityY);
+        }
         
     });
     
@@ -407,16 +552,22 @@ public class AtlasImageView extends View {
         }
         
         switch (event.getAction() & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_CANCEL          : 
             case MotionEvent.ACTION_UP              : { 
                 showMarker = false;
-                checkBoundaries();
+                touchInProgress = false;
+                if (currentMove != flingMove) checkBoundaries();      // fling is started by gestureDetector above
+                if (currentMove == null) onPositionSettled();
                 break;  
             }
             case MotionEvent.ACTION_DOWN            : {
                 showMarker = true; 
+                touchInProgress = true;
+                pinchInGesture = false;
+                stopMove();
                 dragTouch1x = event.getX(0);
                 dragTouch1y = event.getY(0);
-                dragStart = pos.copy();
+                dragStart.set(pos);
                 break;
             }
             
@@ -424,17 +575,18 @@ public class AtlasImageView extends View {
                 final int releasedPointer = (event.getAction() & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
                 dragTouch1x = event.getX(releasedPointer == 0 ? 1 : 0);
                 dragTouch1y = event.getY(releasedPointer == 0 ? 1 : 0);
-                dragStart = pos.copy();
+                dragStart.set(pos);
                 break;
             }
             
             case MotionEvent.ACTION_POINTER_DOWN    : {
+                pinchInGesture = true;
                 if (event.getPointerCount() == 2) {
                     zoomTouch1x = event.getX(0);
                     zoomTouch1y = event.getY(0);
                     zoomTouch2x = event.getX(1);
                     zoomTouch2y = event.getY(1);
-                    zoomStart = new Position(pos);
+                    zoomStart.set(pos);
                 }
                 break;
             }
@@ -475,20 +627,22 @@ public class AtlasImageView extends View {
         }
         trackLastTouch(event);
         
-        invalidate();
+        invalidatePosition();
         return true;
     }
     
     /** Ensures drawable fit in boundaries for current position and launches adjacting Move if not */
     private void checkBoundaries() {
-        Position moveTo = pos.copy();
+        Position moveTo = settleTo;
+        moveTo.set(pos);
         boolean move = false;
-        float minZoom = scaleType == SCALE_TYPE.SCALE_FIT ? getZoomToFit() : getZoomToFill();
-        float maxZoom = minZoom * 3;
-        if (maxZoom < getZoomToFill()) maxZoom = getZoomToFill();
+        float minZoom = getMinZoom();
+        float maxZoom = getMaxZoom(minZoom);
         
         if (pos.zoom < minZoom) {
-            moveTo = new Position(minZoom, 0, 0);
+            moveTo.zoom = minZoom;
+            moveTo.x = 0;
+            moveTo.y = 0;
             move = true;
         } else { 
             if (pos.zoom > maxZoom) {
@@ -504,67 +658,69 @@ public class AtlasImageView extends View {
                 move = true;
             }
             
-            RectF imageBounds = new RectF();
-            float zoomedWidth  = (flippedDimensions() ? contentWorkHeight : contentWorkWidth) * moveTo.zoom;
-            float zoomedHeight = (flippedDimensions() ? contentWorkWidth : contentWorkHeight) * moveTo.zoom;
-            imageBounds.left   = -0.5f * zoomedWidth + moveTo.x;
-            imageBounds.right  =  0.5f * zoomedWidth + moveTo.x;
-            imageBounds.top    = -0.5f * zoomedHeight + moveTo.y;
-            imageBounds.bottom =  0.5f * zoomedHeight + moveTo.y;
-            
-            if (debug) Log.w(TAG, "checkBoundaries() current image bounds: " + imageBounds.left + "x" + imageBounds.top + " -> " + imageBounds.right + "x" + imageBounds.bottom);
-            
             // adjust offset to fit in boundaries
-            RectF offsetBounds = new RectF();
-            if (imageBounds.width() - getWidth() > 0) {
-                offsetBounds.left   = -0.5f * (imageBounds.width() - getWidth());
-                offsetBounds.right  =  0.5f * (imageBounds.width() - getWidth());
-            }
-            if (imageBounds.height() - getHeight() > 0) {
-                offsetBounds.top    = -0.5f * (imageBounds.height() - getHeight());
-                offsetBounds.bottom =  0.5f * (imageBounds.height() - getHeight());
-            }
-            if (imageBounds.centerX() < offsetBounds.left) { 
+            RectF offsetBounds = getOffsetBounds(moveTo.zoom, this.offsetBounds);
+            if (moveTo.x < offsetBounds.left) { 
                 moveTo.x = offsetBounds.left; 
                 move = true;
-            } else if (imageBounds.centerX() > offsetBounds.right) {
+            } else if (moveTo.x > offsetBounds.right) {
                 moveTo.x = offsetBounds.right;
                 move = true;
             } 
  
-            if (imageBounds.centerY() < offsetBounds.top)   { 
+            if (moveTo.y < offsetBounds.top)   { 
                 moveTo.y = offsetBounds.top;   
                 move = true; 
-            } else if (imageBounds.centerY() > offsetBounds.bottom)   { 
+            } else if (moveTo.y > offsetBounds.bottom)   { 
                 moveTo.y = offsetBounds.bottom;   
                 move = true; 
             }
         }
         
         if (move) {
-            final Position finalMoveTo = moveTo;
-            move(new Move() {
-                Position startPos = new Position(pos);
-                Position toPos = finalMoveTo;
-                long durationMs = 200;
-                public boolean handleMove(Position result, long currentTime, long startedAt) {
-                    if (currentTime - startedAt > durationMs) {
-                        result.set(toPos);
-                        return false;
-                    }
-                    
-                    double remainingProgress = 1.0 - (1.0 * (currentTime - startedAt) / durationMs);
-                    result.zoom = (float) (toPos.zoom + (startPos.zoom - toPos.zoom) * remainingProgress); 
-                    result.x    = (float) (toPos.x + (startPos.x - toPos.x) * remainingProgress);
-                    result.y    = (float) (toPos.y + (startPos.y - toPos.y) * remainingProgress);
-                    return true;
-                }
-            });
+            settleFrom.set(pos);
+            move(settleMove);
         }
         if (debug) Log.i(TAG, "checkBoundaries() " + (move ? "moveTo: " + moveTo : "ok"));
         
     }
     
+    private float getMinZoom() {
+        return scaleType == SCALE_TYPE.SCALE_FIT ? getZoomToFit() : getZoomToFill();
+    }
+    
+    private float getMaxZoom(float minZoom) {
+        float maxZoom = minZoom * 3;
+        if (maxZoom < getZoomToFill()) maxZoom = getZoomToFill();
+        return maxZoom;
+    }
+    
+    /** @return range of x and y offsets that keeps content within view at specified zoom */
+    private RectF getOffsetBounds(float zoom, RectF result) {
+        float zoomedWidth  = (flippedDimensions() ? contentWorkHeight : contentWorkWidth) * zoom;
+        float zoomedHeight = (flippedDimensions() ? contentWorkWidth : contentWorkHeight) * zoom;
+        float extraWidth  = Math.max(0, zoomedWidth  - getWidth());
+        float extraHeight = Math.max(0, zoomedHeight - getHeight());
+        result.set(-0.5f * extraWidth, -0.5f * extraHeight, 0.5f * extraWidth, 0.5f * extraHeight);
+        if (debug) Log.w(TAG, "getOffsetBounds() zoom: " + zoom + ", zoomed: " + zoomedWidth + "x" + zoomedHeight + ", bounds: " + result);
+        return result;
+    }
+    
+    /** throws content with velocity in pixels per second. Returns false if content is out of zoom boundaries */
+    private boolean fling(float velocityX, float velocityY) {
+        float minZoom = getMinZoom();
+        if (pos.zoom < minZoom || pos.zoom > getMaxZoom(minZoom)) return false;
+        
+        RectF offsetBounds = getOffsetBounds(pos.zoom, this.offsetBounds);
+        int overscroll = (int) Tools.dp2px(FLING_OVERSCROLL_DP, getContext());
+        scroller.fling((int) pos.x, (int) pos.y, (int) velocityX, (int) velocityY, 
+                (int) offsetBounds.left, (int) offsetBounds.right, (int) offsetBounds.top, (int) offsetBounds.bottom, 
+                offsetBounds.width() > 0 ? overscroll : 0, offsetBounds.height() > 0 ? overscroll : 0);
+        if (debug) Log.w(TAG, "fling() velocity: " + velocityX + "x" + velocityY + ", from: " + pos + ", bounds: " + offsetBounds);
+        move(flingMove);
+        return true;
+    }
+    
     /** @return x in content space: zoom = 1.0 and 0x0 is center of drawable */
     private double getContentX(double viewX, Position pos) {
         return ( viewX - pos.x - 0.5 * getWidth()) / pos.zoom;
@@ -605,10 +761,12 @@ public class AtlasImageView extends View {
     public void setDrawable(Drawable drawable) {
         if (this.drawable != null) {
             this.drawable.setCallback(null);
+            if (this.drawable instanceof AtlasDrawable) ((AtlasDrawable) this.drawable).setDisplaySize(0, 0);   // releases zoomed bitmap
         }
         this.drawable = drawable;
         if (drawable != null) {
             this.drawable.setCallback(this);
+            updateDrawableVisibility();
         }
         if (drawable instanceof GIFDrawable) {
             setLayerType(LAYER_TYPE_SOFTWARE, null);
@@ -634,17 +792,33 @@ public class AtlasImageView extends View {
     }
     
     boolean useBitmapBuffer;
+    /** buffer for software canvas and API below 29 */
     private Bitmap buffer;
     private Canvas bufferCanvas;
     private static final Paint bitmapPaint = new Paint();
+    /** buffer for API 29+ with hardware canvas */
+    private RenderNode contentNode;
+    /** false if drawable has to be recorded into {@link #contentNode} again */
+    private boolean contentRecorded;
+    /** zoom drawable is recorded into {@link #contentNode} with */
+    private float recordedZoom;
+    /** content work dimensions drawable is recorded with */
+    private int recordedWidth;
+    private int recordedHeight;
+    private boolean touchInProgress;
 
     /** 
      * Big bitmaps may not fit into GL_MAX_TEXTURE_SIZE boundaries (2048x2048 for Nexus S).
      * To draw such images, buffer bitmap needs to be created
+     * <p>
+     * On API 29+ with hardware acceleration drawable is recorded into {@link RenderNode} instead, 
+     * pan, zoom and rotation change only node properties
      * TODO: understand it automatically
      */
     public void setUseBitmapBuffer(boolean useBitmapBuffer) {
         this.useBitmapBuffer = useBitmapBuffer;
+        if (!useBitmapBuffer) releaseBuffers();
+        invalidate();
     }
 
     public float getAngle() {
@@ -653,7 +827,7 @@ public class AtlasImageView extends View {
 
     public void setAngle(float angle) {
         this.angle = angle;
-        invalidate();
+        invalidatePosition();
     }
 
     public float getZoom() {
@@ -663,7 +837,8 @@ public class AtlasImageView extends View {
     /** zoom value for drawable. Default value is 1.0f when 1 contentPixel is equal to 1 viewPixel */
     public void setZoom(float zoomValue) {
         pos.zoom = zoomValue;
-        invalidate();
+        invalidatePosition();
+        if (!touchInProgress && currentMove == null) onPositionSettled();
     }
     
     public float getXOffset() {
@@ -673,7 +848,7 @@ public class AtlasImageView extends View {
     /** horizontal difference between center of view and center of drawable. Default is 0. */
     public void setXOffset(float xOffset) {
         pos.x = xOffset;
-        invalidate();
+        invalidatePosition();
     }
     
     public float getYOffset() {
@@ -682,12 +857,13 @@ public class AtlasImageView extends View {
     /** vertical difference between center of view and center of drawable. Default is 0. */
     public void setYOffset(float yOffset) {
         pos.y = yOffset;
-        invalidate();
+        invalidatePosition();
     }
     
     public void setPosition(Position pos) {
-        pos.set(pos);
-        invalidate();
+        this.pos.set(pos);
+        invalidatePosition();
+        if (!touchInProgress && currentMove == null) onPositionSettled();
     }
     
     /** @return copy of view's content position */
@@ -696,23 +872,63 @@ public class AtlasImageView extends View {
     }
     
     private Move currentMove;
+    /** frame time of the first frame of current move, 0 until it comes */
     private long currentMoveStartedAt;
+    private boolean moveFramePosted;
+    
+    /** moves are driven by display frames, so all of them step with vsync time, not with time of onDraw() */
+    private final Choreographer.FrameCallback moveFrameCallback = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            moveFramePosted = false;
+            Move move = currentMove;
+            if (move == null) return;
+            long frameTime = frameTimeNanos / 1000000;
+            if (currentMoveStartedAt == 0) currentMoveStartedAt = frameTime;
+            boolean stillInProgress = move.handleMove(pos, frameTime, currentMoveStartedAt);
+            if (stillInProgress) {
+                postMoveFrame();
+            } else {
+                currentMove = null;
+                currentMoveStartedAt = 0;
+                if (move == flingMove) checkBoundaries();
+                if (currentMove == null) onPositionSettled();
+            }
+            invalidatePosition();
+        }
+    };
     
     /** Use {@link MoveTo} to animate content between 2 positions or subclass {@link Move} */
     public void move(Move move) {
+        if (move != flingMove) scroller.forceFinished(true);
         this.currentMove = move;
-        this.currentMoveStartedAt = System.currentTimeMillis();
-        invalidate();
+        this.currentMoveStartedAt = 0;
+        postMoveFrame();
+    }
+    
+    private void postMoveFrame() {
+        if (moveFramePosted || currentMove == null || !isAttachedToWindow()) return;
+        moveFramePosted = true;
+        Choreographer.getInstance().postFrameCallback(moveFrameCallback);
+    }
+    
+    private void stopMove() {
+        scroller.forceFinished(true);
+        currentMove = null;
+        currentMoveStartedAt = 0;
+        if (moveFramePosted) {
+            Choreographer.getInstance().removeFrameCallback(moveFrameCallback);
+            moveFramePosted = false;
+        }
     }
     
     public static abstract class Move {
         
         /** 
-         * Use [ (currentTime - startedAt) / duration ] to calculate progress
+         * Use [ (currentTime - startedAt) / duration ] to calculate progress. Called once per display frame
          * 
          * @param result - put result values of offsets and zoom here
-         * @param currentTime - System.currentTimeMillis()
-         * @param startedAt   - when started  
+         * @param currentTime - frame time in {@link android.os.SystemClock#uptimeMillis()} timebase
+         * @param startedAt   - time of the first frame of move
          */
         public abstract boolean handleMove(Position result, long currentTime, long startedAt);
     }
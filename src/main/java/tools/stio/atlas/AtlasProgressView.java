@@ -21,17 +21,21 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
 
+import tools.stio.atlas.Atlas.DownloadQueue;
 import tools.stio.atlas.Atlas.Tools;
 
 /**
+ * Pie with ring around, shows {@link #setProgress(float)}. Can follow download with {@link #bind(DownloadQueue, String)}
+ * 
  * @author Oleg Orlov
  * @since  09 Jun 2015
  */
-public class AtlasProgressView extends View {
+public class AtlasProgressView extends View implements DownloadQueue.ProgressListener {
     private static final String TAG = AtlasProgressView.class.getSimpleName();
     private static final boolean debug = false;
 
@@ -45,6 +49,10 @@ public class AtlasProgressView extends View {
     private Paint ringPaint;
     private Paint piePaint;
     private RectF pieBounds = new RectF();
+
+    /** download progress is taken from */
+    private DownloadQueue boundQueue;
+    private String boundUrl;
     
     //----------------------------------------------------------------------------
     public AtlasProgressView(Context context, AttributeSet attrs, int defStyle) {
@@ -158,6 +166,55 @@ public class AtlasProgressView extends View {
         invalidate();
     }
 
+    /**
+     * Follows progress of url download scheduled in queue until {@link #unbind()}. Listener is removed while
+     * view is detached, so views recycled in lists do not leak. Download that is over by the time view is
+     * attached again unbinds it
+     * 
+     * @return false if url is not scheduled or is downloaded already, view is not bound then
+     */
+    public boolean bind(DownloadQueue queue, String url) {
+        if (queue == null || url == null) throw new IllegalArgumentException("queue and url must be specified: " + queue + ", " + url);
+        unbind();
+        setProgress(0);
+        boolean scheduled = isAttachedToWindow() ? queue.addProgressListener(url, this) : queue.isScheduled(url);
+        if (!scheduled) return false;
+        this.boundQueue = queue;
+        this.boundUrl = url;
+        return true;
+    }
+
+    public void unbind() {
+        if (boundQueue == null) return;
+        boundQueue.removeProgressListener(boundUrl, this);
+        boundQueue = null;
+        boundUrl = null;
+    }
+
+    /** is delivered on UI thread by {@link Atlas.FrameProgressDispatcher}, other dispatchers may use worker threads */
+    @Override
+    public void onDownloadProgress(String url, long downloaded, long total) {
+        if (!url.equals(boundUrl) || total <= 0) return;
+        this.progress = 1.0f * downloaded / total;
+        if (Looper.myLooper() == Looper.getMainLooper()) invalidate(); else postInvalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (boundQueue != null && !boundQueue.addProgressListener(boundUrl, this)) {
+            if (debug) Log.w(TAG, "onAttachedToWindow() download is over, unbinding: " + boundUrl);
+            boundQueue = null;
+            boundUrl = null;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (boundQueue != null) boundQueue.removeProgressListener(boundUrl, this);
+        super.onDetachedFromWindow();
+    }
+
     public float getProgress() {
         return progress;
     }
@@ -717,6 +717,7 @@ public class Dt {
             } catch (Throwable e){
                 log = new LogBackConsole();
             }
+            tools.stio.atlas.core.Log.setLogBack(new CoreLogBack());
         }
 
         public static LogBack setLogBack(LogBack logBack) {
@@ -725,6 +726,19 @@ public class Dt {
             return existing;
         }
 
+        /** routes platform independent logs from atlas-core to current {@link LogBack} */
+        private static class CoreLogBack extends tools.stio.atlas.core.Log.LogBack {
+            public void log(int priority, String tag, String what, Throwable e) {
+                switch (priority) {
+                    case VERBOSE : if (e == null) log.v(tag, what); else log.v(tag, what, e); break;
+                    case DEBUG   : if (e == null) log.d(tag, what); else log.d(tag, what, e); break;
+                    case INFO    : if (e == null) log.i(tag, what); else log.i(tag, what, e); break;
+                    case WARN    : if (e == null) log.w(tag, what); else log.w(tag, what, e); break;
+                    default      : if (e == null) log.e(tag, what); else log.e(tag, what, e); break;
+                }
+            }
+        }
+
         public static class Tag {
             private final String tagName;
             private String componentName;
@@ -830,30 +844,9 @@ public class Dt {
         }
 
 
-        private static ThreadLocal<StringBuilder> localSb = new ThreadLocal<StringBuilder>();
+        /** @see tools.stio.atlas.core.Log#what(String) */
         public static String what(String what) {
-
-            if (false) return what;
-
-            StringBuilder sb = localSb.get();
-            if (sb == null) localSb.set(sb = new StringBuilder(1000));// = new StringBuilder(what.length() + 42 + Thread.currentThread().getName().length() + 2);
-            sb.setLength(0);
-
-            sb.append(what);
-
-            long totalMemory = Runtime.getRuntime().totalMemory();
-            long freeMemory = Runtime.getRuntime().freeMemory();
-            long maxMemory = Runtime.getRuntime().maxMemory();
-
-            sb.append(" [");
-            sb.append("T:").append((totalMemory / 1024));
-            sb.append("|F:").append((freeMemory / 1024));
-            sb.append("|X:").append((maxMemory / 1024));
-            sb.append("|U:").append(((totalMemory - freeMemory) / 1024));
-
-            sb.append("]");
-            sb.append(" [").append(Thread.currentThread().getName()).append("]");
-            return sb.toString();
+            return tools.stio.atlas.core.Log.what(what);
         }
 
         public static abstract class LogBack {
@@ -1002,173 +995,8 @@ public class Dt {
 
     }
 
-    public static class Base64 {
-
-        /**
-         * @param data
-         * @param encodeTable
-         */
-        public static String encode64(byte[] data, char[] encodeTable) {
-            int aLen = data.length;
-            int numFullGroups = aLen / 3;
-            int numBytesInPartialGroup = aLen - 3 * numFullGroups;
-            int resultLen = 4 * ((aLen + 2) / 3);
-            StringBuffer result = new StringBuffer(resultLen);
-
-            // Translate all full groups from byte array elements to Base64
-            int inCursor = 0;
-            for (int i = 0; i < numFullGroups; i++) {
-                int byte0 = data[inCursor++] & 0xff;
-                int byte1 = data[inCursor++] & 0xff;
-                int byte2 = data[inCursor++] & 0xff;
-                result.append(encodeTable[byte0 >> 2]);
-                result.append(encodeTable[(byte0 << 4) & 0x3f | (byte1 >> 4)]);
-                result.append(encodeTable[(byte1 << 2) & 0x3f | (byte2 >> 6)]);
-                result.append(encodeTable[byte2 & 0x3f]);
-            }
-
-            // Translate partial group if present
-            if (numBytesInPartialGroup != 0) {
-                int byte0 = data[inCursor++] & 0xff;
-                result.append(encodeTable[byte0 >> 2]);
-                if (numBytesInPartialGroup == 1) {
-                    result.append(encodeTable[(byte0 << 4) & 0x3f]);
-                    result.append("==");
-                } else {
-                    // assert numBytesInPartialGroup == 2;
-                    int byte1 = data[inCursor++] & 0xff;
-                    result.append(encodeTable[(byte0 << 4) & 0x3f | (byte1 >> 4)]);
-                    result.append(encodeTable[(byte1 << 2) & 0x3f]);
-                    result.append('=');
-                }
-            }
-            return result.toString();
-        }
-
-        public static byte[] decode64(String s, byte[] decodeTable) {
-            int sLen = s.length();
-            int numGroups = sLen / 4;
-            if (4 * numGroups != sLen) throw new IllegalArgumentException("String length must be a multiple of four.");
-            int missingBytesInLastGroup = 0;
-            int numFullGroups = numGroups;
-            if (sLen != 0) {
-                if (s.charAt(sLen - 1) == '=') {
-                    missingBytesInLastGroup++;
-                    numFullGroups--;
-                }
-                if (s.charAt(sLen - 2) == '=') missingBytesInLastGroup++;
-            }
-            byte[] result = new byte[3 * numGroups - missingBytesInLastGroup];
-
-            // Translate all full groups from base64 to byte array elements
-            int inCursor = 0,outCursor = 0;
-            for (int i = 0; i < numFullGroups; i++) {
-                int ch0 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                int ch1 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                int ch2 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                int ch3 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                result[outCursor++] = (byte) ((ch0 << 2) | (ch1 >> 4));
-                result[outCursor++] = (byte) ((ch1 << 4) | (ch2 >> 2));
-                result[outCursor++] = (byte) ((ch2 << 6) | ch3);
-            }
-
-            // Translate partial group, if present
-            if (missingBytesInLastGroup != 0) {
-                int ch0 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                int ch1 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                result[outCursor++] = (byte) ((ch0 << 2) | (ch1 >> 4));
-
-                if (missingBytesInLastGroup == 1) {
-                    int ch2 = Base64.decode(s.charAt(inCursor++), decodeTable);
-                    result[outCursor++] = (byte) ((ch1 << 4) | (ch2 >> 2));
-                }
-            }
-            return result;
-        }
-
-        private static int decode(char c, byte[] decodeTable) {
-            if (decodeTable[c] == -1)   throw new IllegalArgumentException("Illegal character " + c);
-            if (c > decodeTable.length) throw new IllegalArgumentException("Illegal character: " + c + " [" + ((int)c)+ "]");
-            return decodeTable[c];
-        }
-
-        /**
-         * This array is a lookup table that translates 6-bit positive integer
-         * index values into their "Base64 Alphabet" equivalents as specified
-         * in Table 1 of RFC 2045.
-         */
-        public static final char encode64[] = {
-            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
-            'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
-            'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-            'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
-            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
-        };
-
-        /**
-         * This is a copy of the STANDARD_ENCODE_TABLE above, but with + and /
-         * changed to - and _ to make the encoded Base64 results more URL-SAFE.
-         * This table is only used when the Base64's mode is set to URL-SAFE.
-         */
-        public static final char[] encode64Url = {
-            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
-            'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
-            'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-            'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
-            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '-', '_'
-        };
-
-        /**
-         * This array is a lookup table that translates 6-bit positive integer
-         * index values into their "Alternate Base64 Alphabet" equivalents.
-         * This is NOT the real Base64 Alphabet as per in Table 1 of RFC 2045.
-         * This alternate alphabet does not use the capital letters.  It is
-         * designed for use in environments where "case folding" occurs.
-         */
-        public static final char encode64Alt[] = {
-            '!', '"', '#', '$', '%', '&', '\'', '(', ')', ',', '-', '.', ':',
-            ';', '<', '>', '@', '[', ']', '^',  '`', '_', '{', '|', '}', '~',
-            'a', 'b', 'c', 'd', 'e', 'f', 'g',  'h', 'i', 'j', 'k', 'l', 'm',
-            'n', 'o', 'p', 'q', 'r', 's', 't',  'u', 'v', 'w', 'x', 'y', 'z',
-            '0', '1', '2', '3', '4', '5', '6',  '7', '8', '9', '+', '?'
-        };
-
-        /**
-         * Decodes both {@link #encode64} and {@link #encode64Url} alphabets<p>
-         *
-         * This array is a lookup table that translates unicode characters
-         * drawn from the "Base64 Alphabet" (as specified in Table 1 of RFC 2045)
-         * into their 6-bit positive integer equivalents.  Characters that
-         * are not in the Base64 alphabet but fall within the bounds of the
-         * array are translated to -1.
-         */
-        private static final byte[] decode64Universal = {
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, 62, -1, 63, 52, 53, 54,
-            55, 56, 57, 58, 59, 60, 61, -1, -1, -1, -1, -1, -1, -1,  0,  1,  2,
-            3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19,
-            20, 21, 22, 23, 24, 25, -1, -1, -1, -1, 63, -1, 26, 27, 28, 29, 30,
-            31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47,
-            48, 49, 50, 51
-        };
-        public static final byte[] decode64    = decode64Universal;
-        public static final byte[] decode64Url = decode64Universal;
-
-        /**
-         * Decodes {@link #encode64Alt} alphabet
-         */
-        public static final byte[] decode64Alt = {
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,  0,
-            1,  2,  3,  4,  5,  6,  7,  8, -1, 62,  9, 10, 11, -1, 52, 53, 54,
-            55, 56, 57, 58, 59, 60, 61, 12, 13, 14, -1, 15, 63, 16, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, 17, -1, 18, 19, 21, 20, 26, 27, 28, 29, 30,
-            31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47,
-            48, 49, 50, 51, 22, 23, 24, 25
-        };
-
+    /** @see tools.stio.atlas.core.Base64 */
+    public static class Base64 extends tools.stio.atlas.core.Base64 {
     }
 
 }
\ No newline at end of file
@@ -15,61 +15,335 @@
  */
 package tools.stio.atlas;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Movie;
+import android.graphics.Paint;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tools.stio.atlas.Atlas.Tools;
+import tools.stio.atlas.core.GifTimeline;
+import tools.stio.atlas.core.ImageCache;
 
 /**
+ * Draws {@link Movie} frame by frame. Next draw is scheduled with {@link #scheduleSelf(Runnable, long)}
+ * at the next frame boundary only while drawable is visible and attached. Frame boundaries are exact
+ * if {@link GifTimeline} is provided, otherwise gif is redrawn at {@link #FALLBACK_FRAME_DELAY_MILLIS}.
+ * {@link AtlasDrawable} plays gifs it gets from {@link Atlas#imageLoader} with own GIFDrawable and
+ * timeline of {@link Atlas.ImageLoader#getTimeline(Movie)}
+ * <p>
+ * All gifs on screen share {@link #setMaxAggregateFps(int)} budget: the more gifs are animated, the
+ * less often each of them is redrawn
+ * <p>
+ * With {@link #setPrerender(boolean)} small gifs are rendered once at drawable bounds on background
+ * thread and then played as bitmap blits. Frames are kept in {@link Atlas#imageLoader} cache.
+ * Gifs of {@link AtlasDrawable} are pre-rendered with {@link AtlasDrawable#prerenderGif(boolean)}
+ * <p>
+ * Below API 28 {@link Atlas#imageLoader} decodes gifs straight to {@link Frames} within {@link #PRERENDER_MAX_BYTES},
+ * they are played with {@link #GIFDrawable(Frames)}
+ *
  * @author Oleg Orlov
  * @since  24 Jun 2016
  */
-public class GIFDrawable extends Drawable {
+public class GIFDrawable extends Drawable implements Runnable {
     private static final String TAG = GIFDrawable.class.getSimpleName();
     private static final boolean debug = false;
-    
+
+    /** frames shorter than this are shown longer, the same way browsers do */
+    private static final int MIN_FRAME_DELAY_MILLIS = 20;
+    /** redraw interval for gifs without {@link GifTimeline} */
+    public static final int FALLBACK_FRAME_DELAY_MILLIS = 40;
+    /** scheduled frame that didn't come for that long is considered lost (callback dropped before run) */
+    private static final int LOST_FRAME_MILLIS = 1000;
+
     /** By default first frame to show wouldn't depend on time of AtlasDrawable creation */
-    private static final long defaultCreatedAt = System.currentTimeMillis();
+    private static final long defaultCreatedAt = AnimationClock.now();
 
+    /** frames per second for all animated gifs together */
+    private static int maxAggregateFps = 120;
+    /** gifs drawn while visible and attached, they share {@link #maxAggregateFps}. Main thread only */
+    private static final WeakHashMap<GIFDrawable, Boolean> animating = new WeakHashMap<GIFDrawable, Boolean>();
+
+    /** pre-rendered frames of one gif must fit that. All frames together are bounded by {@link Atlas#imageLoader} cache */
+    public static final int PRERENDER_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final ExecutorService prerenderExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Atlas-GifPrerender");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final AtomicInteger nextFramesId = new AtomicInteger();
+    /** decoded {@link Frames} are scaled to bounds. Main thread only */
+    private static final Paint framePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** access to {@link Movie} is synchronized on it: frames are pre-rendered from background thread. Null if played from {@link #decoded} */
     private Movie gif;
+    /** frames decoded by loader, null if played from {@link #gif} */
+    private Frames decoded;
+    /** may be null */
+    private GifTimeline timeline;
+    /** in {@link AnimationClock#now()} timebase */
     private long createdAt = defaultCreatedAt;
-    
+    /** {@link SystemClock#uptimeMillis()} next frame is scheduled at, 0 if not scheduled */
+    private long nextFrameAt = 0;
+
+    private boolean prerender = false;
+    /** cache key of pre-rendered frames, unique per drawable */
+    private final String framesId = "GIFDrawable.frames:" + nextFramesId.getAndIncrement();
+    /** {@link Bitmap}[] scaled to {@link #framesWidth}x{@link #framesHeight}. Evicted by cache under memory pressure */
+    private ImageCache.Entry frames;
+    private int framesWidth;
+    private int framesHeight;
+    private boolean prerendering = false;
+
     public GIFDrawable(Movie gif) {
         this.gif = gif;
     }
-    
+
+    /** @param createdAt - {@link System#currentTimeMillis()} the animation starts from */
     public GIFDrawable(Movie gif, long createdAt) {
         this.gif = gif;
-        this.createdAt = createdAt;
+        this.createdAt = createdAt - (System.currentTimeMillis() - AnimationClock.now());
+    }
+
+    /** @param timeline - frame boundaries, see {@link GifTimeline#parse(java.io.InputStream)} */
+    public GIFDrawable(Movie gif, GifTimeline timeline) {
+        this.gif = gif;
+        this.timeline = timeline;
+    }
+
+    /** @param frames - decoded by {@link Atlas.ImageLoader}, they are never pre-rendered again */
+    public GIFDrawable(Frames frames) {
+        this.decoded = frames;
+        this.timeline = frames.timeline;
+    }
+
+    /** @return null if played from decoded {@link Frames} */
+    public Movie getMovie() {
+        return gif;
+    }
+
+    /** @return null if played from {@link Movie} */
+    public Frames getFrames() {
+        return decoded;
+    }
+
+    /** @return null if frame boundaries are unknown */
+    public GifTimeline getTimeline() {
+        return timeline;
+    }
+
+    /** limits redraws per second of all gifs together. Gif is not redrawn more often than its frames change anyway */
+    public static void setMaxAggregateFps(int fps) {
+        if (fps < 1) throw new IllegalArgumentException("fps must be positive: " + fps);
+        maxAggregateFps = fps;
+    }
+
+    /**
+     * Pre-render frames at drawable bounds on background thread. Works only with {@link GifTimeline}
+     * and only if frames fit {@link #PRERENDER_MAX_BYTES}. Frames evicted from cache are not rendered again
+     */
+    public GIFDrawable setPrerender(boolean prerender) {
+        if (decoded != null) return this;               // rendered already
+        if (prerender && timeline == null) {
+            Log.w(TAG, "setPrerender() frames cannot be located without GifTimeline, ignored");
+            return this;
+        }
+        this.prerender = prerender;
+        if (!prerender) releaseFrames();
+        return this;
     }
 
     @Override
     public void draw(Canvas canvas) {
-        if (debug) Log.w(TAG, "draw() gif: " + gif.width() + "x" + gif.height() + " @" + gif.duration());
+        if (debug) Log.w(TAG, "draw() gif: " + getIntrinsicWidth() + "x" + getIntrinsicHeight() + " @" + duration());
         long time = 0;
-        if (gif.duration() > 0) {
-            time = (System.currentTimeMillis() - createdAt) % gif.duration();
+        if (duration() > 0) {
+            time = (AnimationClock.now() - createdAt) % duration();
         }
-        gif.setTime((int)time);
-        
-        int saved = canvas.save();
-        // prepare bounds
-        int gifWidth = gif.width();
-        int gifHeight = gif.height();
-        int boundsWidth = getBounds().width();
-        int boundsHeight = getBounds().height();
-        if (boundsWidth != gifWidth || boundsHeight != gifHeight) {
-            canvas.scale(1.0f * boundsWidth / gifWidth, 1.0f * boundsHeight / gifHeight);
+
+        Bitmap frame;
+        if (decoded != null) {
+            canvas.drawBitmap(decoded.bitmaps[timeline.frameAt(time)], null, getBounds(), framePaint);
+        } else if (prerender && (frame = prerenderedFrame(time)) != null) {
+            canvas.drawBitmap(frame, getBounds().left, getBounds().top, null);
+        } else synchronized (gif) {
+            gif.setTime((int)time);
+
+            int saved = canvas.save();
+            // prepare bounds
+            int gifWidth = gif.width();
+            int gifHeight = gif.height();
+            int boundsWidth = getBounds().width();
+            int boundsHeight = getBounds().height();
+            if (boundsWidth != gifWidth || boundsHeight != gifHeight) {
+                canvas.scale(1.0f * boundsWidth / gifWidth, 1.0f * boundsHeight / gifHeight);
+            }
+            gif.draw(canvas, getBounds().left, getBounds().top);
+            canvas.restoreToCount(saved);
         }
-        gif.draw(canvas, getBounds().left, getBounds().top);
-        canvas.restoreToCount(saved);
-        if (debug) Log.w(TAG, "draw() gif: " + gif.width() + "x" + gif.height() + " @" + gif.duration() 
+        if (debug) Log.w(TAG, "draw() gif: " + getIntrinsicWidth() + "x" + getIntrinsicHeight() + " @" + duration()
                 + " time: " + time + ", bounds: " + getBounds().left + "x" + getBounds().top);
+        scheduleNextFrame(time);
+    }
+
+    /** @return frame for specified time if frames are rendered for current bounds, null otherwise */
+    private Bitmap prerenderedFrame(long time) {
+        int width = getBounds().width();
+        int height = getBounds().height();
+        ImageCache.Entry frames = this.frames;
+        if (frames != null) {
+            if (!frames.isValid()) {                    // memory is needed for something else
+                if (debug) Log.w(TAG, "prerenderedFrame() frames are evicted, back to Movie. " + framesId);
+                this.frames = null;
+                this.prerender = false;
+                return null;
+            }
+            if (framesWidth == width && framesHeight == height) {
+                return ((Bitmap[]) frames.bitmapOrMovie)[timeline.frameAt(time)];
+            }
+            releaseFrames();                            // bounds changed
+        }
+        if (!prerendering && width > 0 && height > 0 && 4L * width * height * timeline.getFrameCount() <= PRERENDER_MAX_BYTES) {
+            prerender(width, height);
+        }
+        return null;
+    }
+
+    private void prerender(final int width, final int height) {
+        prerendering = true;
+        prerenderExecutor.execute(new Runnable() {
+            public void run() {
+                Bitmap[] rendered = new Bitmap[timeline.getFrameCount()];
+                try {
+                    for (int i = 0; i < rendered.length; i++) {
+                        rendered[i] = FramePool.obtain(width, height);
+                        Canvas canvas = new Canvas(rendered[i]);
+                        canvas.scale(1.0f * width / gif.width(), 1.0f * height / gif.height());
+                        synchronized (gif) {
+                            gif.setTime(timeline.getFrameStart(i));
+                            gif.draw(canvas, 0, 0);
+                        }
+                    }
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "prerender() out of memory for " + rendered.length + " frames " + width + "x" + height);
+                    FramePool.release(rendered);
+                    rendered = null;
+                }
+                final ImageCache.Entry entry = rendered == null ? null : Atlas.imageLoader.putInCache(framesId, rendered, gif.width(), gif.height());
+                Tools.uiHandler.post(new Runnable() {
+                    public void run() {
+                        prerendering = false;
+                        if (entry == null) {
+                            prerender = false;
+                            return;
+                        }
+                        if (!prerender || getBounds().width() != width || getBounds().height() != height) {
+                            if (Atlas.imageLoader.removeFromCache(framesId) == entry) FramePool.release((Bitmap[]) entry.bitmapOrMovie);
+                        } else {
+                            frames = entry;
+                            framesWidth = width;
+                            framesHeight = height;
+                        }
+                        invalidateSelf();
+                    }
+                });
+            }
+        });
+    }
+
+    /** main thread only */
+    private void releaseFrames() {
+        ImageCache.Entry frames = this.frames;
+        this.frames = null;
+        if (frames == null) return;
+        // evicted frames may be still drawn by somebody, let GC take them
+        if (Atlas.imageLoader.removeFromCache(framesId) == frames) FramePool.release((Bitmap[]) frames.bitmapOrMovie);
+    }
+
+    private void scheduleNextFrame(long time) {
+        long now = SystemClock.uptimeMillis();
+        if (nextFrameAt != 0 && now > nextFrameAt + LOST_FRAME_MILLIS) {
+            if (debug) Log.w(TAG, "scheduleNextFrame() frame is lost, late for " + (now - nextFrameAt) + "ms");
+            unscheduleNextFrame();
+        }
+        if (nextFrameAt != 0) return;
+        if (duration() <= 0 || !isShown()) {
+            animating.remove(this);
+            return;
+        }
+        animating.put(this, Boolean.TRUE);
+
+        int delay = timeline != null ? timeline.untilNextFrame(time) : FALLBACK_FRAME_DELAY_MILLIS;
+        delay = Math.max(delay, MIN_FRAME_DELAY_MILLIS);
+        delay = Math.max(delay, countAnimating() * 1000 / maxAggregateFps);
+
+        nextFrameAt = now + delay;
+        scheduleSelf(this, nextFrameAt);
+    }
+
+    /** @return true if drawable and its hosts are visible and attached */
+    private boolean isShown() {
+        if (!isVisible()) return false;
+        Callback callback = getCallback();
+        while (callback instanceof Drawable) {          // hosted by another drawable, i.e. AtlasDrawable
+            if (!((Drawable) callback).isVisible()) return false;
+            callback = ((Drawable) callback).getCallback();
+        }
+        if (callback == null) return false;
+        return !(callback instanceof View) || ((View) callback).isAttachedToWindow();
+    }
+
+    /** gifs that were hidden or detached without telling are dropped here, so they don't take budget of others */
+    private static int countAnimating() {
+        for (Iterator<GIFDrawable> i = animating.keySet().iterator(); i.hasNext(); ) {
+            if (!i.next().isShown()) i.remove();
+        }
+        return animating.size();
+    }
+
+    private void unscheduleNextFrame() {
+        if (nextFrameAt == 0) return;
+        unscheduleSelf(this);
+        nextFrameAt = 0;
+    }
+
+    /** next frame. Draw schedules the one after it */
+    @Override
+    public void run() {
+        if (nextFrameAt == 0) return;
+        nextFrameAt = 0;
         invalidateSelf();
     }
 
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        if (!visible) {
+            animating.remove(this);
+            unscheduleNextFrame();
+        } else if (changed) {
+            invalidateSelf();
+        }
+        return changed;
+    }
+
     @Override
     public void setAlpha(int alpha) {
     }
@@ -85,12 +359,86 @@ public class GIFDrawable extends Drawable {
 
     @Override
     public int getIntrinsicWidth() {
-        return gif.width();
+        return decoded != null ? decoded.width : gif.width();
     }
 
     @Override
     public int getIntrinsicHeight() {
-        return gif.height();
+        return decoded != null ? decoded.height : gif.height();
+    }
+
+    private int duration() {
+        return decoded != null ? timeline.getDuration() : gif.duration();
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        if (frames != null && (framesWidth != bounds.width() || framesHeight != bounds.height())) releaseFrames();
+    }
+
+    /**
+     * All frames of gif rendered at the same size, indexed as in {@link #timeline}
+     */
+    public static class Frames {
+        public final Bitmap[] bitmaps;
+        public final GifTimeline timeline;
+        /** original dimensions of gif */
+        public final int width;
+        public final int height;
+
+        public Frames(Bitmap[] bitmaps, GifTimeline timeline, int width, int height) {
+            if (bitmaps.length != timeline.getFrameCount()) throw new IllegalArgumentException("expected " + timeline.getFrameCount() + " frames, got: " + bitmaps.length);
+            this.bitmaps = bitmaps;
+            this.timeline = timeline;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getByteCount() {
+            int bytes = 0;
+            for (int i = 0; i < bitmaps.length; i++) bytes += bitmaps[i].getByteCount();
+            return bytes;
+        }
+    }
+
+    /**
+     * Bitmaps of released frames. Frames of gif that changed bounds are reused by next pre-render,
+     * so resizing doesn't allocate new frames
+     */
+    static class FramePool {
+        private static final int MAX_POOLED_BYTES = 4 * 1024 * 1024;
+        private static final ArrayList<Bitmap> pool = new ArrayList<Bitmap>();
+        private static int pooledBytes = 0;
+
+        /** @return mutable ARGB_8888 bitmap, cleared */
+        static Bitmap obtain(int width, int height) {
+            int required = 4 * width * height;
+            synchronized (pool) {
+                for (int i = 0; i < pool.size(); i++) {
+                    Bitmap pooled = pool.get(i);
+                    if (pooled.getAllocationByteCount() >= required) {
+                        pool.remove(i);
+                        pooledBytes -= pooled.getAllocationByteCount();
+                        pooled.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                        pooled.eraseColor(0);
+                        return pooled;
+                    }
+                }
+            }
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        static void release(Bitmap[] frames) {
+            synchronized (pool) {
+                for (int i = 0; i < frames.length; i++) {
+                    if (frames[i] == null) continue;
+                    if (pooledBytes + frames[i].getAllocationByteCount() > MAX_POOLED_BYTES) return;
+                    pooledBytes += frames[i].getAllocationByteCount();
+                    pool.add(frames[i]);
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tools.stio.atlas;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Path;
+import android.graphics.Path.Direction;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import tools.stio.atlas.Dt.Log;
+
+/**
+ * Process-wide ALPHA_8 masks shared by {@link AtlasFrameLayout}s. List rows of the same size
+ * with the same mask drawable use a single bitmap
+ * <p>
+ * Masks are reference counted. Unused ones are kept until {@link #MAX_UNUSED_BYTES} is exceeded
+ * or system reports memory pressure with {@link ComponentCallbacks2#onTrimMemory(int)}
+ * <p>
+ * Mask drawables are expected to stay unchanged once used as masks: changed drawable
+ * with the same constant state would get the mask rendered before
+ * <p>
+ * Main thread only
+ *
+ * @since  19 Oct 2026
+ */
+final class MaskCache {
+    private static final String TAG = MaskCache.class.getSimpleName();
+    private static final boolean debug = false;
+
+    /** unused masks are kept while they take less than that */
+    static final int MAX_UNUSED_BYTES = 1024 * 1024;
+
+    /** access ordered, so unused masks are dropped from eldest */
+    private static final LinkedHashMap<Key, Mask> masks = new LinkedHashMap<Key, Mask>(16, 0.75f, true);
+    private static int unusedBytes = 0;
+    private static boolean trimCallbackRegistered = false;
+
+    private MaskCache() {}
+
+    /**
+     * @param radii  - round rect radii in pixels (8 values) mask is additionally clipped with, may be null
+     * @return mask rendered at specified size. Must be {@link #release(Mask)}d when not needed
+     */
+    static Mask acquire(Context context, Drawable maskDrawable, int width, int height, float[] radii) {
+        registerTrimCallback(context);
+        Key key = new Key(maskDrawable, width, height, radii);
+        Mask mask = masks.get(key);
+        if (mask == null) {
+            mask = new Mask(key, render(maskDrawable, width, height, radii));
+            masks.put(key, mask);
+            if (debug) Log.w(TAG, "acquire() rendered " + width + "x" + height + ", masks: " + masks.size());
+        } else if (mask.refs == 0) {
+            unusedBytes -= mask.bitmap.getByteCount();
+        }
+        mask.refs++;
+        return mask;
+    }
+
+    static void release(Mask mask) {
+        if (mask == null || mask.refs == 0) return;
+        if (--mask.refs > 0) return;
+        unusedBytes += mask.bitmap.getByteCount();
+        trim(MAX_UNUSED_BYTES);
+    }
+
+    /** drops eldest unused masks until they take less than specified amount of bytes */
+    private static void trim(int maxUnusedBytes) {
+        for (Iterator<Mask> it = masks.values().iterator(); unusedBytes > maxUnusedBytes && it.hasNext(); ) {
+            Mask mask = it.next();
+            if (mask.refs > 0) continue;
+            it.remove();
+            unusedBytes -= mask.bitmap.getByteCount();
+            if (debug) Log.w(TAG, "trim() dropped " + mask.key.width + "x" + mask.key.height + ", unused bytes: " + unusedBytes);
+        }
+    }
+
+    private static Bitmap render(Drawable maskDrawable, int width, int height, float[] radii) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        if (radii != null) {
+            Path clip = new Path();
+            clip.addRoundRect(new RectF(0, 0, width, height), radii, Direction.CW);
+            canvas.clipPath(clip);
+        }
+        maskDrawable.setBounds(0, 0, width, height);
+        maskDrawable.draw(canvas);
+        return bitmap;
+    }
+
+    private static void registerTrimCallback(Context context) {
+        if (trimCallbackRegistered) return;
+        trimCallbackRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW) trim(0);
+            }
+            public void onLowMemory() {
+                trim(0);
+            }
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+
+    static final class Mask {
+        final Key key;
+        final Bitmap bitmap;
+        private int refs = 0;
+
+        private Mask(Key key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+        }
+    }
+
+    /** drawables loaded from the same resource share {@link Drawable.ConstantState} */
+    static final class Key {
+        final Object source;
+        final int width;
+        final int height;
+        final float[] radii;
+        final int hash;
+
+        Key(Drawable maskDrawable, int width, int height, float[] radii) {
+            Drawable.ConstantState state = maskDrawable.getConstantState();
+            this.source = state != null ? state : maskDrawable;
+            this.width = width;
+            this.height = height;
+            this.radii = radii == null ? null : radii.clone();
+            this.hash = ((System.identityHashCode(source) * 31 + width) * 31 + height) * 31 + Arrays.hashCode(radii);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return source == other.source && width == other.width && height == other.height && Arrays.equals(radii, other.radii);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
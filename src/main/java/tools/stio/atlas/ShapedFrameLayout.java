@@ -19,6 +19,7 @@ import java.util.ArrayList;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Outline;
 import android.graphics.Path;
 import android.graphics.Path.Direction;
 import android.graphics.RectF;
@@ -26,10 +27,15 @@ import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewOutlineProvider;
 import android.widget.FrameLayout;
 
 
 /**
+ * Clips children with round rect. Shape is computed only when size, corners or background change.
+ * Equal corners without background are clipped with view outline, that costs nothing per frame.
+ * Other shapes fall back to {@link Canvas#clipPath(Path)}. Background is never clipped
+ *
  * @author Oleg Orlov
  * @since  08 May 2015
  */
@@ -39,10 +45,24 @@ public class ShapedFrameLayout extends FrameLayout {
     private static final boolean debug = false;
     
     private float[] corners = new float[] { 0, 0, 0, 0 };
-    private boolean refreshShape = true;
+    /** radii in pixels of current shape */
+    private final float[] radii = new float[8];
+    /** empty if children are not clipped with path */
     private Path shaper = new Path();
+    private boolean clipToShapeOutline;
     
     private RectF pathRect = new RectF();
+
+    /** specs of the last measure, valid until {@link #requestLayout()} */
+    private boolean measureCached;
+    private int cachedWidthSpec;
+    private int cachedHeightSpec;
+
+    private final ViewOutlineProvider shapeOutlineProvider = new ViewOutlineProvider() {
+        public void getOutline(View view, Outline outline) {
+            outline.setRoundRect(0, 0, view.getWidth(), view.getHeight(), radii[0]);
+        }
+    };
     
     public ShapedFrameLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -61,7 +81,7 @@ public class ShapedFrameLayout extends FrameLayout {
 
     public void setCornersDp(float[] cornerRadii) {
         System.arraycopy(cornerRadii, 0, this.corners, 0, 4);
-        refreshShape = true;
+        refreshShape();
     }
     
     private void prepareRendering() {
@@ -76,6 +96,34 @@ public class ShapedFrameLayout extends FrameLayout {
         this.corners[1] = topRight;
         this.corners[2] = bottomRight;
         this.corners[3] = bottomLeft;
+        refreshShape();
+    }
+
+    @Override
+    public void setBackgroundDrawable(Drawable background) {
+        super.setBackgroundDrawable(background);
+        if (shaper != null) refreshShape();                 // null while super constructor sets background
+    }
+
+    /** outline clips background too, so it is used only if there is no background */
+    private void refreshShape() {
+        int width = getWidth();
+        int height = getHeight();
+        Atlas.Tools.getRoundRectRadii(corners, getResources().getDisplayMetrics(), radii);
+        boolean rounded = corners[0] != 0 || corners[1] != 0 || corners[2] != 0 || corners[3] != 0;
+        boolean uniform = corners[0] == corners[1] && corners[0] == corners[2] && corners[0] == corners[3];
+
+        clipToShapeOutline = rounded && uniform && getBackground() == null;
+        shaper.reset();
+        if (rounded && !clipToShapeOutline) {
+            pathRect.set(0, 0, width, height);
+            shaper.addRoundRect(pathRect, radii,  Direction.CW);
+        }
+        setOutlineProvider(clipToShapeOutline ? shapeOutlineProvider : ViewOutlineProvider.BACKGROUND);
+        setClipToOutline(clipToShapeOutline);
+        invalidateOutline();
+        invalidate();
+        if (debug)  Log.d(TAG, "refreshShape() " + width + "x" + height + ", outline: " + clipToShapeOutline + ", path: " + !shaper.isEmpty());
     }
     
     @Override
@@ -88,15 +136,11 @@ public class ShapedFrameLayout extends FrameLayout {
         if (debug)  Log.d(TAG, "dispatchDraw() drawSize: " + width + "x" + height 
                 + ", measuredSize: " + getMeasuredWidth() + "x" + getMeasuredHeight()
                 + ", size: " + getWidth() + "x" + getHeight()
-                + ", resetShape: " + refreshShape);
+                + ", outline: " + clipToShapeOutline);
         
-        if (refreshShape || true) {
-            shaper.reset();
-            pathRect.set(0, 0, width, height);
-            float[] roundRectRadii = Atlas.Tools.getRoundRectRadii(corners, getResources().getDisplayMetrics());
-            shaper.addRoundRect(pathRect, roundRectRadii,  Direction.CW);
-            
-            refreshShape = false;
+        if (shaper.isEmpty()) {                             // not rounded or clipped by outline
+            super.dispatchDraw(canvas);
+            return;
         }
         
         int saved = canvas.save();
@@ -110,7 +154,7 @@ public class ShapedFrameLayout extends FrameLayout {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        refreshShape = true;
+        refreshShape();
     }
     
     /**
@@ -149,8 +193,17 @@ public class ShapedFrameLayout extends FrameLayout {
         if (debug) Log.w(TAG, "onMeasure() before: " + mWidthBefore + "x" + mHeightBefore
                 + ", spec: " + Atlas.Tools.toStringSpec(widthMeasureSpec, heightMeasureSpec));
         
+        if (measureCached && widthMeasureSpec == cachedWidthSpec && heightMeasureSpec == cachedHeightSpec) {
+            if (debug) Log.w(TAG, "onMeasure() cached: " + mWidthBefore + "x" + mHeightBefore);
+            setMeasuredDimension(getMeasuredWidthAndState(), getMeasuredHeightAndState());
+            return;
+        }
+        
         //super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         superMeasure(widthMeasureSpec, heightMeasureSpec);
+        cachedWidthSpec  = widthMeasureSpec;
+        cachedHeightSpec = heightMeasureSpec;
+        measureCached = true;
         
         int mWidthAfter = getMeasuredWidth();
         int mHeightAfter = getMeasuredHeight();
@@ -165,6 +218,19 @@ public class ShapedFrameLayout extends FrameLayout {
         
         if (debug) Log.w(TAG, "onMeasure() after: " + mWidthAfter + "x" + mHeightAfter);
     }
+
+    /** children keep results of the last measure, so only it is cached. See AtlasFrameLayout#requestLayout() */
+    @Override
+    public void requestLayout() {
+        measureCached = false;
+        super.requestLayout();
+    }
+
+    @Override
+    public void forceLayout() {
+        measureCached = false;
+        super.forceLayout();
+    }
     
     private final ArrayList<View> mMatchParentChildren = new ArrayList<View>(1);
     